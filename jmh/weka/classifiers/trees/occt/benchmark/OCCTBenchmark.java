@@ -0,0 +1,129 @@
+package weka.classifiers.trees.occt.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import weka.classifiers.trees.OCCT;
+import weka.core.Instances;
+import weka.core.SelectedTag;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the training time of OCCT for every combination of a split criterion and a pruning
+ * method, and the scoring time of the trained trees (single instance and batch), on datasets
+ * which are generated by {@link OCCTLinkageDataGenerator}.
+ *
+ * The combinations are the parameters of the benchmark, so a part of them may be chosen from the
+ * command line of JMH (e.g. -p splitCriteria=mle,lpi -p pruningMethod=noprune).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OCCTBenchmark {
+
+    /** The number of scored rows (a constant, since it is the number of operations of the
+     *  single instance benchmark) **/
+    private static final int NUM_TEST_ROWS = 1000;
+
+    @Param({"cgj", "fgj", "lpi", "mle", "cmle"})
+    public String splitCriteria;
+
+    @Param({"noprune", "lpi", "mle"})
+    public String pruningMethod;
+
+    @Param({"2000"})
+    public int numRows;
+
+    @Param({"1"})
+    public int numThreads;
+
+    private Instances m_train;
+    private Instances m_test;
+    private int m_firstIndexOfB;
+    /** The classifier which is trained once for the scoring benchmarks **/
+    private OCCT m_trained;
+
+    /**
+     * The copies of the datasets which are modified by a single invocation
+     */
+    @State(Scope.Thread)
+    public static class Copies {
+
+        private Instances m_train;
+        private Instances m_test;
+
+        @Setup(Level.Invocation)
+        public void copy(OCCTBenchmark benchmark) {
+            // buildClassifier() and classifyInstance() may modify their instances
+            this.m_train = new Instances(benchmark.m_train);
+            this.m_test = new Instances(benchmark.m_test);
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        OCCTLinkageDataGenerator generator = new OCCTLinkageDataGenerator();
+        generator.setNumRows(this.numRows);
+        this.m_train = generator.generate();
+        // The scored rows are generated from other entities (by another seed)
+        generator.setSeed(generator.getSeed() + 1);
+        generator.setNumRows(OCCTBenchmark.NUM_TEST_ROWS);
+        this.m_test = generator.generate();
+        this.m_firstIndexOfB = generator.getFirstAttributeIndexOfB();
+        this.m_trained = this.createClassifier();
+        this.m_trained.buildClassifier(new Instances(this.m_train));
+    }
+
+    private OCCT createClassifier() {
+        OCCT occt = new OCCT();
+        occt.setSplitCriteria(new SelectedTag(this.splitCriteria, OCCT.TAGS_SPLIT_CRITERIA));
+        occt.setPruningMethod(new SelectedTag(this.pruningMethod, OCCT.TAGS_PRUNING_METHOD));
+        occt.setLinkageThreshold(1.0);
+        occt.setFirstAttributeIndexOfB("" + this.m_firstIndexOfB);
+        occt.setNumThreads(this.numThreads);
+        return occt;
+    }
+
+    @Benchmark
+    public void buildClassifier(Copies copies, Blackhole blackhole) throws Exception {
+        OCCT occt = this.createClassifier();
+        occt.buildClassifier(copies.m_train);
+        blackhole.consume(occt);
+    }
+
+    /**
+     * The time of classifying a single instance
+     */
+    @Benchmark
+    @OperationsPerInvocation(OCCTBenchmark.NUM_TEST_ROWS)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public void classifyInstance(Copies copies, Blackhole blackhole) throws Exception {
+        Instances test = copies.m_test;
+        for (int i = 0; i < test.numInstances(); ++i) {
+            blackhole.consume(this.m_trained.classifyInstance(test.instance(i)));
+        }
+    }
+
+    /**
+     * The time of scoring all the test rows in a single batch
+     */
+    @Benchmark
+    public void scoreInstances(Blackhole blackhole) throws Exception {
+        blackhole.consume(this.m_trained.scoreInstances(this.m_test, this.numThreads));
+    }
+}
@@ -0,0 +1,195 @@
+package weka.classifiers.trees.occt.split.models;
+
+import org.junit.Before;
+import org.junit.Test;
+import weka.classifiers.trees.occt.utils.OCCTRowKey;
+import weka.core.Attribute;
+import weka.core.FastVector;
+import weka.core.Instance;
+import weka.core.Instances;
+
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that the hash-based intersection of the split models finds the same records as the
+ * original nested-loop intersection of the values strings.
+ */
+public class OCCTSingleAttributeSplitModelTest {
+
+    private static final double MISSING = Instance.missingValue();
+
+    private Instances m_header;
+    private OCCTSingleAttributeSplitModel m_model;
+
+    private static Attribute createAttribute(String name, String... values) {
+        FastVector toReturn = new FastVector(values.length);
+        for (String value : values) {
+            toReturn.addElement(value);
+        }
+        return new Attribute(name, toReturn);
+    }
+
+    @Before
+    public void setUp() {
+        FastVector attributes = new FastVector(3);
+        attributes.addElement(OCCTSingleAttributeSplitModelTest.createAttribute("A0", "x", "y"));
+        attributes.addElement(OCCTSingleAttributeSplitModelTest.createAttribute("B0",
+                "v0", "v1", "v2"));
+        attributes.addElement(OCCTSingleAttributeSplitModelTest.createAttribute("B1",
+                "w0", "w1"));
+        this.m_header = new Instances("intersection", attributes, 0);
+        List<Attribute> attributesOfB = Arrays.asList(this.m_header.attribute(1),
+                this.m_header.attribute(2));
+        this.m_model = new OCCTCoarseGrainedJaccardSplitModel(this.m_header.attribute(0),
+                attributesOfB, attributesOfB);
+    }
+
+    private Instances createInstances(double[]... rows) {
+        Instances toReturn = new Instances(this.m_header, rows.length);
+        for (double[] row : rows) {
+            toReturn.add(new Instance(1.0, row));
+        }
+        return toReturn;
+    }
+
+    /**
+     * The values string of the original implementation (the values of the possible attributes,
+     * except the splitting attribute)
+     */
+    private String buildAttrValuesString(Instance instance) {
+        StringBuilder toReturn = new StringBuilder();
+        Enumeration attributes = instance.enumerateAttributes();
+        while (attributes.hasMoreElements()) {
+            Attribute currentAttr = (Attribute) attributes.nextElement();
+            if (!currentAttr.equals(this.m_model.m_splittingAttribute) &&
+                    this.m_model.m_possibleAttributes.contains(currentAttr)) {
+                toReturn.append(instance.stringValue(currentAttr));
+            }
+        }
+        return toReturn.toString();
+    }
+
+    /**
+     * The original intersection, which compares the values strings of every pair of records
+     */
+    private Set<String> nestedLoopIntersection(Instances i1, Instances i2) {
+        Set<String> intersection = new HashSet<String>();
+        for (int i = 0; i < i1.numInstances(); ++i) {
+            for (int j = 0; j < i2.numInstances(); ++j) {
+                String currentI1String = this.buildAttrValuesString(i1.instance(i));
+                String currentI2String = this.buildAttrValuesString(i2.instance(j));
+                if (currentI1String.equals(currentI2String)) {
+                    intersection.add(currentI1String);
+                }
+            }
+        }
+        return intersection;
+    }
+
+    private void assertSameIntersection(Instances i1, Instances i2) {
+        Set<String> expected = this.nestedLoopIntersection(i1, i2);
+        for (Instances[] order : new Instances[][] {{i1, i2}, {i2, i1}}) {
+            Set<OCCTRowKey> actual = this.m_model.calculateIntersection(order[0], order[1]);
+            assertEquals(expected.size(), actual.size());
+            assertEquals(expected.size(), this.m_model.calculateIntersectionSize(order[0],
+                    order[1]));
+            // Every record of both sets is in the intersection by both of the implementations or
+            // by none of them
+            for (Instances instances : order) {
+                for (int i = 0; i < instances.numInstances(); ++i) {
+                    Instance current = instances.instance(i);
+                    assertEquals(current.toString(),
+                            expected.contains(this.buildAttrValuesString(current)),
+                            actual.contains(this.m_model.buildAttrValuesKey(current)));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testDuplicates() {
+        Instances i1 = this.createInstances(
+                new double[] {0, 0, 0},
+                new double[] {1, 0, 0},
+                new double[] {0, 0, 0},
+                new double[] {0, 1, 1});
+        Instances i2 = this.createInstances(
+                new double[] {1, 0, 0},
+                new double[] {1, 0, 0},
+                new double[] {0, 1, 1},
+                new double[] {1, 2, 1});
+        this.assertSameIntersection(i1, i2);
+        assertEquals(2, this.m_model.calculateIntersectionSize(i1, i2));
+    }
+
+    @Test
+    public void testMissingValues() {
+        double missing = OCCTSingleAttributeSplitModelTest.MISSING;
+        Instances i1 = this.createInstances(
+                new double[] {0, missing, 0},
+                new double[] {0, missing, missing},
+                new double[] {missing, 2, 1},
+                new double[] {0, 1, missing});
+        Instances i2 = this.createInstances(
+                new double[] {1, missing, 0},
+                new double[] {1, missing, missing},
+                new double[] {1, 2, 1},
+                new double[] {1, 1, 0});
+        this.assertSameIntersection(i1, i2);
+        assertEquals(3, this.m_model.calculateIntersectionSize(i1, i2));
+    }
+
+    @Test
+    public void testUnequalSizes() {
+        Instances small = this.createInstances(
+                new double[] {0, 2, 1});
+        Instances large = this.createInstances(
+                new double[] {0, 0, 0},
+                new double[] {1, 1, 1},
+                new double[] {1, 2, 1},
+                new double[] {0, 2, 0},
+                new double[] {0, 2, 1},
+                new double[] {1, 0, 1});
+        this.assertSameIntersection(small, large);
+        assertEquals(1, this.m_model.calculateIntersectionSize(small, large));
+    }
+
+    @Test
+    public void testEmptySet() {
+        Instances empty = this.createInstances();
+        Instances other = this.createInstances(new double[] {0, 0, 0});
+        this.assertSameIntersection(empty, other);
+        this.assertSameIntersection(empty, empty);
+    }
+
+    @Test
+    public void testRandomSets() {
+        Random random = new Random(1);
+        for (int iteration = 0; iteration < 200; ++iteration) {
+            Instances[] sets = new Instances[2];
+            for (int s = 0; s < sets.length; ++s) {
+                int numRows = random.nextInt(30);
+                sets[s] = new Instances(this.m_header, numRows);
+                for (int row = 0; row < numRows; ++row) {
+                    double[] values = new double[this.m_header.numAttributes()];
+                    for (int j = 0; j < values.length; ++j) {
+                        int numValues = this.m_header.attribute(j).numValues();
+                        // One of the codes stands for a missing value
+                        int code = random.nextInt(numValues + 1);
+                        values[j] = (code == numValues) ?
+                                OCCTSingleAttributeSplitModelTest.MISSING : code;
+                    }
+                    sets[s].add(new Instance(1.0, values));
+                }
+            }
+            this.assertSameIntersection(sets[0], sets[1]);
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package weka.classifiers.trees.occt.tree;
+
+import weka.classifiers.trees.OCCT;
+import weka.classifiers.trees.occt.benchmark.OCCTLinkageDataGenerator;
+import weka.core.Attribute;
+import weka.core.FastVector;
+import weka.core.Instance;
+import weka.core.Instances;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * A classifier which is trained on a generated linkage dataset, together with a table of A
+ * records, a table of B records and their cross product (in the row order of table A and then of
+ * table B), as the reference of the linkage of the tables by the tree.
+ *
+ * The A records are drawn uniformly from the whole domain of A, so some of them reach empty
+ * leaves of the tree.
+ */
+class OCCTLinkageFixture {
+
+    final OCCT m_classifier;
+    final Instances m_tableA;
+    final Instances m_tableB;
+    final Instances m_crossProduct;
+
+    /**
+     * @param numRowsOfA The number of A records
+     * @param numRowsOfB The number of B records
+     * @param useCardinality Whether the classifier uses the cardinality of the B records
+     *
+     * @throws Exception If the classifier can't be trained
+     */
+    OCCTLinkageFixture(int numRowsOfA, int numRowsOfB, boolean useCardinality)
+            throws Exception {
+        OCCTLinkageDataGenerator generator = new OCCTLinkageDataGenerator();
+        generator.setNumRows(400);
+        Instances train = generator.generate();
+        this.m_classifier = new OCCT();
+        this.m_classifier.setFirstAttributeIndexOfB("" + generator.getFirstAttributeIndexOfB());
+        this.m_classifier.setUseCardinality(useCardinality);
+        this.m_classifier.buildClassifier(new Instances(train));
+
+        int firstIndexOfB = generator.getFirstAttributeIndexOfB() - 1;
+        Random random = new Random(2);
+        this.m_tableA = OCCTLinkageFixture.createTable("A", train, 0, firstIndexOfB);
+        for (int row = 0; row < numRowsOfA; ++row) {
+            double[] values = new double[firstIndexOfB];
+            for (int i = 0; i < values.length; ++i) {
+                values[i] = random.nextInt(train.attribute(i).numValues());
+            }
+            this.m_tableA.add(new Instance(1.0, values));
+        }
+        // The B records of another set of pairs (by another seed)
+        generator.setSeed(generator.getSeed() + 1);
+        generator.setNumRows(numRowsOfB);
+        Instances pairs = generator.generate();
+        this.m_tableB = OCCTLinkageFixture.createTable("B", train, firstIndexOfB,
+                train.numAttributes());
+        for (int row = 0; row < numRowsOfB; ++row) {
+            double[] values = pairs.instance(row).toDoubleArray();
+            this.m_tableB.add(new Instance(1.0,
+                    Arrays.copyOfRange(values, firstIndexOfB, values.length)));
+        }
+
+        this.m_crossProduct = new Instances(train, numRowsOfA * numRowsOfB);
+        for (int rowOfA = 0; rowOfA < numRowsOfA; ++rowOfA) {
+            double[] valuesOfA = this.m_tableA.instance(rowOfA).toDoubleArray();
+            for (int rowOfB = 0; rowOfB < numRowsOfB; ++rowOfB) {
+                double[] valuesOfB = this.m_tableB.instance(rowOfB).toDoubleArray();
+                double[] values = new double[valuesOfA.length + valuesOfB.length];
+                System.arraycopy(valuesOfA, 0, values, 0, valuesOfA.length);
+                System.arraycopy(valuesOfB, 0, values, valuesOfA.length, valuesOfB.length);
+                this.m_crossProduct.add(new Instance(1.0, values));
+            }
+        }
+    }
+
+    private static Instances createTable(String name, Instances header, int from, int to) {
+        FastVector attributes = new FastVector(to - from);
+        for (int i = from; i < to; ++i) {
+            attributes.addElement((Attribute) header.attribute(i).copy());
+        }
+        return new Instances(name, attributes, 0);
+    }
+
+    /**
+     * Sets the linkage threshold of the classifier to the median of the L-values of the cross
+     * product, so it has both matching and non-matching pairs
+     *
+     * @return The scores of the cross product by the new threshold
+     *
+     * @throws Exception If the cross product can't be scored
+     */
+    OCCTBatchScores useMedianThreshold() throws Exception {
+        double[] lValues = this.m_classifier.scoreInstances(this.m_crossProduct).getLValues();
+        double[] sorted = new double[lValues.length];
+        int numScored = 0;
+        for (double lValue : lValues) {
+            if (!Double.isNaN(lValue)) {
+                sorted[numScored++] = lValue;
+            }
+        }
+        Arrays.sort(sorted, 0, numScored);
+        this.m_classifier.setLinkageThreshold(sorted[numScored / 2]);
+        return this.m_classifier.scoreInstances(this.m_crossProduct);
+    }
+
+    /**
+     * @return The row of the pair of the given records in the cross product
+     */
+    int pairIndex(int rowOfA, int rowOfB) {
+        return rowOfA * this.m_tableB.numInstances() + rowOfB;
+    }
+}
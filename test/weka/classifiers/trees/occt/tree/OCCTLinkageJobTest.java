@@ -0,0 +1,140 @@
+package weka.classifiers.trees.occt.tree;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import weka.core.converters.ArffLoader;
+
+import java.io.ByteArrayInputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that a linkage job passes the same pairs, L-values and decisions as scoreInstances()
+ * gives the cross product of the tables, whether the groups of the leaves are spilled or not and
+ * whether the leaves are scored by a single thread or by several ones.
+ */
+public class OCCTLinkageJobTest {
+
+    /** More B records than a single task scores, so several threads share each leaf **/
+    private static final int NUM_ROWS_OF_B = 600;
+    private static final int NUM_ROWS_OF_A = 40;
+
+    private static OCCTLinkageFixture s_fixture;
+    private static OCCTBatchScores s_expected;
+
+    /**
+     * Collects the pairs which are passed by a job and checks them against the cross product
+     */
+    private static class CheckingSink implements OCCTLinkageJob.Sink {
+
+        private final int[] m_visits;
+        private long m_numPairs;
+
+        private CheckingSink() {
+            this.m_visits = new int[OCCTLinkageJobTest.s_expected.numInstances()];
+        }
+
+        @Override
+        public void pair(int rowOfA, int rowOfB, double lValue, boolean isMatch) {
+            int index = OCCTLinkageJobTest.s_fixture.pairIndex(rowOfA, rowOfB);
+            ++this.m_visits[index];
+            ++this.m_numPairs;
+            String pair = "(" + rowOfA + ", " + rowOfB + ")";
+            // NaN is equal to itself by assertEquals(double, double, double)
+            assertEquals(pair, OCCTLinkageJobTest.s_expected.getLValue(index), lValue, 0);
+            assertEquals(pair, OCCTLinkageJobTest.s_expected.isMatch(index), isMatch);
+        }
+
+        /**
+         * Checks that each expected pair was passed exactly once, and no other pair was passed
+         */
+        private void checkVisits(boolean matchesOnly, long numReturned) {
+            long numExpected = 0;
+            for (int index = 0; index < this.m_visits.length; ++index) {
+                boolean expected = !matchesOnly || OCCTLinkageJobTest.s_expected.isMatch(index);
+                assertEquals("pair " + index, expected ? 1 : 0, this.m_visits[index]);
+                numExpected += expected ? 1 : 0;
+            }
+            assertEquals(numExpected, this.m_numPairs);
+            assertEquals(numExpected, numReturned);
+        }
+    }
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        OCCTLinkageJobTest.s_fixture = new OCCTLinkageFixture(OCCTLinkageJobTest.NUM_ROWS_OF_A,
+                OCCTLinkageJobTest.NUM_ROWS_OF_B, true);
+        OCCTLinkageJobTest.s_expected = OCCTLinkageJobTest.s_fixture.useMedianThreshold();
+        int numMatches = OCCTLinkageJobTest.s_expected.numMatches();
+        assertTrue(numMatches > 0 &&
+                numMatches < OCCTLinkageJobTest.s_expected.numInstances());
+        // Some of the A records reach empty leaves, so their pairs can't be scored
+        int numUnscored = 0;
+        for (double lValue : OCCTLinkageJobTest.s_expected.getLValues()) {
+            numUnscored += Double.isNaN(lValue) ? 1 : 0;
+        }
+        assertTrue(numUnscored > 0);
+    }
+
+    private static OCCTLinkageJob createJob(boolean matchesOnly, int maxBufferedRows,
+                                            int numThreads) {
+        OCCTLinkageJob job = OCCTLinkageJobTest.s_fixture.m_classifier.createLinkageJob();
+        job.setMatchesOnly(matchesOnly);
+        job.setMaxBufferedRows(maxBufferedRows);
+        job.setNumThreads(numThreads);
+        return job;
+    }
+
+    private static void checkRun(boolean matchesOnly, int maxBufferedRows, int numThreads)
+            throws Exception {
+        CheckingSink sink = new CheckingSink();
+        long numReturned = OCCTLinkageJobTest.createJob(matchesOnly, maxBufferedRows, numThreads)
+                .run(OCCTLinkageJobTest.s_fixture.m_tableA, OCCTLinkageJobTest.s_fixture.m_tableB,
+                        sink);
+        sink.checkVisits(matchesOnly, numReturned);
+    }
+
+    @Test
+    public void testInMemorySingleThread() throws Exception {
+        OCCTLinkageJobTest.checkRun(true, 1 << 16, 1);
+        OCCTLinkageJobTest.checkRun(false, 1 << 16, 1);
+    }
+
+    @Test
+    public void testSpilledSingleThread() throws Exception {
+        OCCTLinkageJobTest.checkRun(true, 2, 1);
+        OCCTLinkageJobTest.checkRun(false, 2, 1);
+    }
+
+    @Test
+    public void testSpilledSeveralThreads() throws Exception {
+        OCCTLinkageJobTest.checkRun(true, 3, 4);
+        OCCTLinkageJobTest.checkRun(false, 3, 4);
+    }
+
+    @Test
+    public void testInMemorySeveralThreads() throws Exception {
+        OCCTLinkageJobTest.checkRun(true, 1 << 16, 4);
+        OCCTLinkageJobTest.checkRun(false, 1 << 16, 4);
+    }
+
+    @Test
+    public void testLoaderOfA() throws Exception {
+        for (boolean matchesOnly : new boolean[] {true, false}) {
+            ArffLoader loader = new ArffLoader();
+            loader.setSource(new ByteArrayInputStream(
+                    OCCTLinkageJobTest.s_fixture.m_tableA.toString().getBytes("UTF-8")));
+            CheckingSink sink = new CheckingSink();
+            long numReturned = OCCTLinkageJobTest.createJob(matchesOnly, 2, 4)
+                    .run(loader, OCCTLinkageJobTest.s_fixture.m_tableB, sink);
+            sink.checkVisits(matchesOnly, numReturned);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testWrongTableB() throws Exception {
+        OCCTLinkageJobTest.createJob(true, 1 << 16, 1).run(OCCTLinkageJobTest.s_fixture.m_tableA,
+                OCCTLinkageJobTest.s_fixture.m_tableA, new CheckingSink());
+    }
+}
@@ -0,0 +1,191 @@
+package weka.classifiers.trees.occt.tree;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import weka.core.Instance;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the lookups of a ranked catalogue find the same B records, in the same order, as a
+ * scan of the L-values which scoreInstances() gives the cross product of the tables.
+ */
+public class OCCTRankedCatalogueTest {
+
+    private static final int NUM_ROWS_OF_A = 40;
+    private static final int NUM_ROWS_OF_B = 300;
+
+    private static OCCTLinkageFixture s_fixture;
+    private static OCCTBatchScores s_expected;
+    private static OCCTRankedCatalogue s_catalogue;
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        OCCTRankedCatalogueTest.s_fixture = new OCCTLinkageFixture(
+                OCCTRankedCatalogueTest.NUM_ROWS_OF_A, OCCTRankedCatalogueTest.NUM_ROWS_OF_B,
+                true);
+        OCCTRankedCatalogueTest.s_expected =
+                OCCTRankedCatalogueTest.s_fixture.useMedianThreshold();
+        OCCTRankedCatalogueTest.s_catalogue = OCCTRankedCatalogueTest.s_fixture.m_classifier
+                .buildRankedCatalogue(OCCTRankedCatalogueTest.s_fixture.m_tableB);
+    }
+
+    private static double lValue(int rowOfA, int rowOfB) {
+        return OCCTRankedCatalogueTest.s_expected.getLValue(
+                OCCTRankedCatalogueTest.s_fixture.pairIndex(rowOfA, rowOfB));
+    }
+
+    private static Instance recordOfA(int rowOfA) {
+        return OCCTRankedCatalogueTest.s_fixture.m_tableA.instance(rowOfA);
+    }
+
+    /**
+     * Scans all the B records of an A record
+     *
+     * @return The B records which have an L-value, by descending L-values (records with the same
+     *         L-value are ordered by their indexes)
+     */
+    private static List<Integer> scan(final int rowOfA) {
+        List<Integer> toReturn = new ArrayList<Integer>();
+        for (int rowOfB = 0; rowOfB < OCCTRankedCatalogueTest.NUM_ROWS_OF_B; ++rowOfB) {
+            if (!Double.isNaN(OCCTRankedCatalogueTest.lValue(rowOfA, rowOfB))) {
+                toReturn.add(rowOfB);
+            }
+        }
+        Collections.sort(toReturn, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer first, Integer second) {
+                int toReturn = Double.compare(OCCTRankedCatalogueTest.lValue(rowOfA, second),
+                        OCCTRankedCatalogueTest.lValue(rowOfA, first));
+                return (toReturn != 0) ? toReturn : first.compareTo(second);
+            }
+        });
+        return toReturn;
+    }
+
+    /**
+     * @return The scanned B records of an A record whose L-value isn't lower than the threshold
+     */
+    private static List<Integer> scan(int rowOfA, double threshold) {
+        List<Integer> toReturn = new ArrayList<Integer>();
+        for (int rowOfB : OCCTRankedCatalogueTest.scan(rowOfA)) {
+            if (OCCTRankedCatalogueTest.lValue(rowOfA, rowOfB) >= threshold) {
+                toReturn.add(rowOfB);
+            }
+        }
+        return toReturn;
+    }
+
+    private static void assertResult(String message, int rowOfA, List<Integer> expected,
+                                     OCCTRankedCatalogue.Result actual) {
+        assertEquals(message, expected.size(), actual.size());
+        for (int rank = 0; rank < expected.size(); ++rank) {
+            int rowOfB = expected.get(rank);
+            assertEquals(message, rowOfB, actual.getRowOfB(rank));
+            assertEquals(message, OCCTRankedCatalogueTest.lValue(rowOfA, rowOfB),
+                    actual.getLValue(rank), 0);
+        }
+    }
+
+    @Test
+    public void testMatches() {
+        double threshold = OCCTRankedCatalogueTest.s_catalogue.getLinkageThreshold();
+        assertEquals(OCCTRankedCatalogueTest.s_expected.getLinkageThreshold(), threshold, 0);
+        int numMatches = 0;
+        for (int rowOfA = 0; rowOfA < OCCTRankedCatalogueTest.NUM_ROWS_OF_A; ++rowOfA) {
+            OCCTRankedCatalogue.Result result = OCCTRankedCatalogueTest.s_catalogue.matches(
+                    OCCTRankedCatalogueTest.recordOfA(rowOfA));
+            OCCTRankedCatalogueTest.assertResult("A " + rowOfA, rowOfA,
+                    OCCTRankedCatalogueTest.scan(rowOfA, threshold), result);
+            numMatches += result.size();
+        }
+        assertEquals(OCCTRankedCatalogueTest.s_expected.numMatches(), numMatches);
+    }
+
+    @Test
+    public void testThresholdBoundaries() {
+        for (int rowOfA = 0; rowOfA < OCCTRankedCatalogueTest.NUM_ROWS_OF_A; ++rowOfA) {
+            // Each L-value of the A record, and the closest thresholds on both of its sides
+            TreeSet<Double> thresholds = new TreeSet<Double>();
+            for (int rowOfB : OCCTRankedCatalogueTest.scan(rowOfA)) {
+                double lValue = OCCTRankedCatalogueTest.lValue(rowOfA, rowOfB);
+                thresholds.add(lValue);
+                thresholds.add(Math.nextUp(lValue));
+                thresholds.add(Math.nextAfter(lValue, Double.NEGATIVE_INFINITY));
+            }
+            thresholds.add(Double.NEGATIVE_INFINITY);
+            thresholds.add(Double.POSITIVE_INFINITY);
+            // No L-value is at least NaN
+            thresholds.add(Double.NaN);
+            for (double threshold : thresholds) {
+                OCCTRankedCatalogueTest.assertResult("A " + rowOfA + " threshold " + threshold,
+                        rowOfA, OCCTRankedCatalogueTest.scan(rowOfA, threshold),
+                        OCCTRankedCatalogueTest.s_catalogue.matches(
+                                OCCTRankedCatalogueTest.recordOfA(rowOfA), threshold));
+            }
+        }
+    }
+
+    @Test
+    public void testTopK() {
+        for (int rowOfA = 0; rowOfA < OCCTRankedCatalogueTest.NUM_ROWS_OF_A; ++rowOfA) {
+            List<Integer> ranking = OCCTRankedCatalogueTest.scan(rowOfA);
+            int[] ks = {-1, 0, 1, 7, ranking.size() - 1, ranking.size(), ranking.size() + 1,
+                    OCCTRankedCatalogueTest.NUM_ROWS_OF_B + 10, Integer.MAX_VALUE};
+            for (int k : ks) {
+                int expectedSize = Math.min(Math.max(k, 0), ranking.size());
+                OCCTRankedCatalogueTest.assertResult("A " + rowOfA + " k " + k, rowOfA,
+                        ranking.subList(0, expectedSize),
+                        OCCTRankedCatalogueTest.s_catalogue.topK(
+                                OCCTRankedCatalogueTest.recordOfA(rowOfA), k));
+            }
+        }
+    }
+
+    /**
+     * The fixture has both A records which reach empty leaves (all their L-values are NaN) and
+     * B records with equal L-values, so both cases are covered by the scans
+     */
+    @Test
+    public void testFixtureCoverage() {
+        int numEmpty = 0;
+        int numTies = 0;
+        for (int rowOfA = 0; rowOfA < OCCTRankedCatalogueTest.NUM_ROWS_OF_A; ++rowOfA) {
+            List<Integer> ranking = OCCTRankedCatalogueTest.scan(rowOfA);
+            if (ranking.isEmpty()) {
+                ++numEmpty;
+                assertEquals(0, OCCTRankedCatalogueTest.s_catalogue.topK(
+                        OCCTRankedCatalogueTest.recordOfA(rowOfA), Integer.MAX_VALUE).size());
+                assertEquals(0, OCCTRankedCatalogueTest.s_catalogue.matches(
+                        OCCTRankedCatalogueTest.recordOfA(rowOfA),
+                        Double.NEGATIVE_INFINITY).size());
+            }
+            for (int rank = 1; rank < ranking.size(); ++rank) {
+                if (OCCTRankedCatalogueTest.lValue(rowOfA, ranking.get(rank - 1)) ==
+                        OCCTRankedCatalogueTest.lValue(rowOfA, ranking.get(rank))) {
+                    ++numTies;
+                }
+            }
+        }
+        assertTrue(numEmpty > 0 && numEmpty < OCCTRankedCatalogueTest.NUM_ROWS_OF_A);
+        assertTrue(numTies > 0);
+    }
+
+    @Test
+    public void testRank() {
+        double nan = Double.NaN;
+        double[] lValues = {0.5, nan, 0.7, 0.5, nan, 0.7, -1, 0.5};
+        // NaN isn't ranked, equal L-values are ordered by their indexes
+        assertArrayEquals(new int[] {2, 5, 0, 3, 7, 6}, OCCTRankedCatalogue.rank(lValues));
+        assertArrayEquals(new int[0], OCCTRankedCatalogue.rank(new double[] {nan, nan}));
+        assertArrayEquals(new int[0], OCCTRankedCatalogue.rank(new double[0]));
+    }
+}
@@ -0,0 +1,250 @@
+package weka.classifiers.trees.occt.utils;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import weka.core.Attribute;
+import weka.core.FastVector;
+import weka.core.Instance;
+import weka.core.Instances;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that a dataset which is converted from ARFF into a columnar file is loaded back with
+ * the same header, values and missing values, for all the widths of the columns.
+ */
+public class OCCTColumnarFileTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /** The numbers of values of the attributes: the largest and the smallest ones of each width
+     *  (the largest code of a width stands for a missing value) **/
+    private static final int[] NUMBERS_OF_VALUES = {3, 254, 255, 65534, 65535};
+    private static final int NUM_ROWS = 300;
+
+    @Rule
+    public TemporaryFolder m_folder = new TemporaryFolder();
+
+    private static Instances createDataset() {
+        FastVector attributes = new FastVector(OCCTColumnarFileTest.NUMBERS_OF_VALUES.length);
+        for (int a = 0; a < OCCTColumnarFileTest.NUMBERS_OF_VALUES.length; ++a) {
+            int numValues = OCCTColumnarFileTest.NUMBERS_OF_VALUES[a];
+            FastVector values = new FastVector(numValues);
+            for (int v = 0; v < numValues; ++v) {
+                values.addElement("v" + v);
+            }
+            attributes.addElement(new Attribute("attr" + a, values));
+        }
+        Instances toReturn = new Instances("columnar", attributes, OCCTColumnarFileTest.NUM_ROWS);
+        Random random = new Random(1);
+        for (int row = 0; row < OCCTColumnarFileTest.NUM_ROWS; ++row) {
+            double[] values = new double[attributes.size()];
+            for (int a = 0; a < values.length; ++a) {
+                int numValues = OCCTColumnarFileTest.NUMBERS_OF_VALUES[a];
+                switch (row % 4) {
+                    case 0:
+                        values[a] = Instance.missingValue();
+                        break;
+                    case 1:
+                        // The largest value, whose code is next to the missing code
+                        values[a] = numValues - 1;
+                        break;
+                    default:
+                        values[a] = random.nextInt(numValues);
+                }
+            }
+            toReturn.add(new Instance(1.0, values));
+        }
+        return toReturn;
+    }
+
+    private File writeArff(String name, String content) throws IOException {
+        File toReturn = this.m_folder.newFile(name);
+        Files.write(toReturn.toPath(), content.getBytes(OCCTColumnarFileTest.UTF_8));
+        return toReturn;
+    }
+
+    private static void assertSameDataset(Instances expected, Instances actual) {
+        assertEquals(expected.relationName(), actual.relationName());
+        assertEquals(expected.numAttributes(), actual.numAttributes());
+        for (int a = 0; a < expected.numAttributes(); ++a) {
+            Attribute expectedAttr = expected.attribute(a);
+            Attribute actualAttr = actual.attribute(a);
+            assertEquals(expectedAttr.name(), actualAttr.name());
+            assertEquals(expectedAttr.numValues(), actualAttr.numValues());
+            for (int v = 0; v < expectedAttr.numValues(); ++v) {
+                assertEquals(expectedAttr.value(v), actualAttr.value(v));
+            }
+        }
+        assertEquals(expected.numInstances(), actual.numInstances());
+        for (int row = 0; row < expected.numInstances(); ++row) {
+            OCCTColumnarFileTest.assertSameInstance(expected.instance(row),
+                    actual.instance(row));
+        }
+    }
+
+    private static void assertSameInstance(Instance expected, Instance actual) {
+        // Missing values are NaN, which are equal by assertArrayEquals(double[], double[], ...)
+        assertArrayEquals(expected.toDoubleArray(), actual.toDoubleArray(), 0);
+    }
+
+    @Test
+    public void testCodeWidths() {
+        assertEquals(1, OCCTColumnarFile.codeWidth(254));
+        assertEquals(2, OCCTColumnarFile.codeWidth(255));
+        assertEquals(2, OCCTColumnarFile.codeWidth(65534));
+        assertEquals(4, OCCTColumnarFile.codeWidth(65535));
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        Instances dataset = OCCTColumnarFileTest.createDataset();
+        File source = this.writeArff("source.arff", dataset.toString());
+        File target = new File(this.m_folder.getRoot(), "target.occt");
+        assertEquals(OCCTColumnarFileTest.NUM_ROWS,
+                OCCTColumnarFile.convert(source, target, "3"));
+        assertTrue(OCCTColumnarFile.isColumnarFile(target));
+        assertTrue(!OCCTColumnarFile.isColumnarFile(source));
+
+        OCCTColumnarFileLoader loader = new OCCTColumnarFileLoader();
+        loader.setSource(target);
+        assertEquals(OCCTColumnarFileTest.NUM_ROWS, loader.numRows());
+        assertEquals("3", loader.getFirstAttributeIndexOfB());
+        OCCTColumnarFileTest.assertSameDataset(dataset, loader.getDataSet());
+
+        // The same rows are read incrementally
+        Instances structure = loader.getStructure();
+        assertEquals(0, structure.numInstances());
+        for (int row = 0; row < OCCTColumnarFileTest.NUM_ROWS; ++row) {
+            OCCTColumnarFileTest.assertSameInstance(dataset.instance(row),
+                    loader.getNextInstance(structure));
+        }
+        assertNull(loader.getNextInstance(structure));
+        loader.reset();
+        OCCTColumnarFileTest.assertSameInstance(dataset.instance(0),
+                loader.getNextInstance(structure));
+    }
+
+    @Test
+    public void testBoundary() throws Exception {
+        File source = this.writeArff("source.arff",
+                OCCTColumnarFileTest.createDataset().toString());
+        File target = new File(this.m_folder.getRoot(), "target.occt");
+        OCCTColumnarFileLoader loader = new OCCTColumnarFileLoader();
+
+        OCCTColumnarFile.convert(source, target, null);
+        loader.setSource(target);
+        assertNull(loader.getFirstAttributeIndexOfB());
+
+        OCCTColumnarFile.convert(source, target, "last");
+        loader.setSource(target);
+        assertEquals(String.valueOf(OCCTColumnarFileTest.NUMBERS_OF_VALUES.length),
+                loader.getFirstAttributeIndexOfB());
+
+        OCCTColumnarFile.convert(source, target, "first");
+        loader.setSource(target);
+        assertEquals("1", loader.getFirstAttributeIndexOfB());
+    }
+
+    @Test
+    public void testTruncatedFile() throws Exception {
+        File source = this.writeArff("source.arff",
+                OCCTColumnarFileTest.createDataset().toString());
+        File target = new File(this.m_folder.getRoot(), "target.occt");
+        OCCTColumnarFile.convert(source, target, "2");
+        byte[] content = Files.readAllBytes(target.toPath());
+
+        File truncated = this.m_folder.newFile("truncated.occt");
+        Files.write(truncated.toPath(), Arrays.copyOf(content, content.length - 1));
+        OCCTColumnarFileTest.assertRejected(truncated);
+
+        // A file which ends inside its header
+        Files.write(truncated.toPath(), Arrays.copyOf(content, 20));
+        OCCTColumnarFileTest.assertRejected(truncated);
+
+        File extended = this.m_folder.newFile("extended.occt");
+        Files.write(extended.toPath(), Arrays.copyOf(content, content.length + 1));
+        OCCTColumnarFileTest.assertRejected(extended);
+
+        File other = this.m_folder.newFile("other.occt");
+        Files.write(other.toPath(), content);
+        RandomAccessFile output = new RandomAccessFile(other, "rw");
+        try {
+            output.writeInt(OCCTColumnarFile.MAGIC + 1);
+        } finally {
+            output.close();
+        }
+        OCCTColumnarFileTest.assertRejected(other);
+    }
+
+    private static void assertRejected(File file) {
+        try {
+            new OCCTColumnarFileLoader().setSource(file);
+            fail(file + " was loaded");
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+
+    /**
+     * Converts a source which fails, and checks that the previous target is kept and that no
+     * temporary file is left
+     */
+    private void assertFailedConversion(String source) throws Exception {
+        File sourceFile = this.writeArff("broken.arff", source);
+        File target = this.m_folder.newFile("target.occt");
+        byte[] previous = "previous".getBytes(OCCTColumnarFileTest.UTF_8);
+        Files.write(target.toPath(), previous);
+        try {
+            OCCTColumnarFile.convert(sourceFile, target, null);
+            fail("A broken source was converted");
+        } catch (IOException e) {
+            // Expected
+        }
+        assertArrayEquals(previous, Files.readAllBytes(target.toPath()));
+        String[] names = this.m_folder.getRoot().list();
+        Arrays.sort(names);
+        assertArrayEquals(new String[] {"broken.arff", "target.occt"}, names);
+    }
+
+    @Test
+    public void testFailedPass() throws Exception {
+        // The undeclared value is found only by the pass over the records
+        this.assertFailedConversion(
+                "@relation broken\n" +
+                "@attribute a {x,y}\n" +
+                "@attribute b {u,v}\n" +
+                "@data\n" +
+                "x,u\n" +
+                "y,v\n" +
+                "y,w\n");
+    }
+
+    @Test
+    public void testFailedHeader() throws Exception {
+        // The header can't hold a value of more than 65535 bytes, which is found only once the
+        // header is written (after the pass over the records)
+        char[] longValue = new char[70000];
+        Arrays.fill(longValue, 'x');
+        this.assertFailedConversion(
+                "@relation broken\n" +
+                "@attribute a {x,y}\n" +
+                "@attribute b {u," + new String(longValue) + "}\n" +
+                "@data\n" +
+                "x,u\n" +
+                "y,u\n");
+    }
+}
@@ -2,10 +2,23 @@ package weka.classifiers.trees;
 
 import weka.classifiers.Classifier;
 import weka.classifiers.trees.occt.split.general.OCCTPruningMethodFactory;
+import weka.classifiers.trees.occt.split.general.OCCTSplitModelParameters;
 import weka.classifiers.trees.occt.split.pruning.OCCTGeneralPruningMethod;
+import weka.classifiers.trees.occt.tree.OCCTBatchScores;
 import weka.classifiers.trees.occt.tree.OCCTCardinalityHandler;
+import weka.classifiers.trees.occt.tree.OCCTCompiledTree;
 import weka.classifiers.trees.occt.tree.OCCTInternalClassifierNode;
+import weka.classifiers.trees.occt.tree.OCCTLevelWiseTrainer;
+import weka.classifiers.trees.occt.tree.OCCTLinkageJob;
+import weka.classifiers.trees.occt.tree.OCCTRankedCatalogue;
 import weka.classifiers.trees.occt.tree.OCCTSplitModelSelection;
+import weka.classifiers.trees.occt.utils.OCCTColumnarData;
+import weka.classifiers.trees.occt.utils.OCCTColumnarFile;
+import weka.classifiers.trees.occt.utils.OCCTColumnarFileLoader;
+import weka.classifiers.trees.occt.utils.OCCTDiagnostics;
+import weka.classifiers.trees.occt.utils.OCCTLRUCache;
+import weka.classifiers.trees.occt.utils.OCCTPair;
+import weka.classifiers.trees.occt.utils.OCCTParallelTasks;
 import weka.core.Attribute;
 import weka.core.Capabilities;
 import weka.core.Drawable;
@@ -20,6 +33,10 @@ import weka.core.Tag;
 import weka.core.TechnicalInformation;
 import weka.core.TechnicalInformationHandler;
 import weka.core.Utils;
+import weka.core.converters.AbstractLoader;
+import weka.core.converters.ArffLoader;
+import weka.core.converters.IncrementalConverter;
+import weka.core.converters.Loader;
 import weka.filters.Filter;
 import weka.filters.unsupervised.attribute.Add;
 
@@ -27,11 +44,14 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Enumeration;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Vector;
+import java.util.concurrent.ForkJoinPool;
 
 public class OCCT extends Classifier implements OptionHandler, TechnicalInformationHandler, Drawable {
 
@@ -42,14 +62,39 @@ public class OCCT extends Classifier implements OptionHandler, TechnicalInformat
 	public static String FAKE_MATCH_FIELD_VALUE_MATCH_NAME = "Match";
 	public static String FAKE_MATCH_FIELD_VALUE_UNMATCH_NAME = "UnMatch";
 
+	/** The name of the classifier in the diagnostics messages and counters */
+	private static final String DIAGNOSTICS_SUBSYSTEM = "classify";
+	private static final OCCTDiagnostics.Counter CLASSIFY_COUNTER =
+			OCCTDiagnostics.counter(OCCT.DIAGNOSTICS_SUBSYSTEM);
+	private static final OCCTDiagnostics.Counter BATCH_COUNTER =
+			OCCTDiagnostics.counter(OCCT.DIAGNOSTICS_SUBSYSTEM + ".batch");
+
+	/** The minimal number of instances which are scored by a single task of a batch */
+	private static final int MIN_BATCH_CHUNK_SIZE = 256;
+	/** The number of pairs of a loader which are read and scored together */
+	private static final int LOADER_BLOCK_SIZE = 65536;
+
 	/** The decision tree */
 	private OCCTInternalClassifierNode m_root;
 
+	/** The flat representation of the decision tree, which is used for scoring */
+	private OCCTCompiledTree m_compiledTree;
+
 	// Whether a class attribute should be added to the instances prior to building a classifier
 	private boolean m_shouldAddClassAttribute;
 
 	private OCCTCardinalityHandler m_cardinalityHandler;
 
+	/** The number of attributes of the training data (including the added class attribute) */
+	private int m_numTrainAttributes;
+
+	/**
+	 * The last dataset given for classification, paired with its header which contains the added
+	 * class attribute (so the header is prepared a single time for all the instances of a
+	 * dataset). The dataset is weakly referenced, so its rows aren't kept alive by the classifier
+	 */
+	private transient volatile OCCTPair<WeakReference<Instances>, Instances> m_preparedDataset;
+
 	/** split criteria: Coarse-Grained Jaccard */
 	public static final int SPLIT_CGJ = 0;
 	/** split criteria: Fine-Grained Jaccard */
@@ -58,13 +103,23 @@ public class OCCT extends Classifier implements OptionHandler, TechnicalInformat
 	public static final int SPLIT_LPI = 2;
 	/** split criteria: Maximum-Likelihood Estimation */
 	public static final int SPLIT_MLE = 3;
+	/** split criteria: Maximum-Likelihood Estimation using frequency tables */
+	public static final int SPLIT_COUNTING_MLE = 4;
 
 	/** split criteria */
 	public static final Tag[] TAGS_SPLIT_CRITERIA = {
 			new Tag(SPLIT_CGJ, "cgj", "Coarse-Grained Jaccard"),
 			new Tag(SPLIT_FGJ, "fgj", "Fine-Grained Jaccard"),
 			new Tag(SPLIT_LPI, "lpi", "Least-Probable Intersections"),
-			new Tag(SPLIT_MLE, "mle", "Maximum-Likelihood Estimation")
+			new Tag(SPLIT_MLE, "mle", "Maximum-Likelihood Estimation"),
+			new Tag(SPLIT_COUNTING_MLE, "cmle", "Counting Maximum-Likelihood Estimation")
+	};
+
+	/** Fine-Grained Jaccard blocking engines */
+	public static final Tag[] TAGS_FGJ_BLOCKING = {
+			new Tag(OCCTSplitModelParameters.FGJ_BLOCKING_KMEANS, "kmeans", "SimpleKMeans clustering"),
+			new Tag(OCCTSplitModelParameters.FGJ_BLOCKING_MINHASH, "minhash", "MinHash/LSH banding"),
+			new Tag(OCCTSplitModelParameters.FGJ_BLOCKING_EXACT, "exact", "Exact (aggregated value counts)")
 	};
 
 	/** pruning method: No pruning */
@@ -81,7 +136,7 @@ public class OCCT extends Classifier implements OptionHandler, TechnicalInformat
 			new Tag(PRUNING_MLE, "mle", "Maximum-Likelihood Estimation"),
 	};
 
-	/** The required split criteria (one from the 4 possible) **/
+	/** The required split criteria (one from the 5 possible) **/
 	private int m_SplitCriteria = SPLIT_MLE;
 	/** The chosen pruning method (one from the 2 possible) **/
 	private int m_PruningMethod = PRUNING_NO_PRUNING;
@@ -89,19 +144,34 @@ public class OCCT extends Classifier implements OptionHandler, TechnicalInformat
 	private double m_pruningThreshold = 0.0;
 	/** The first index of the sensitive attributes table (T_B). */
 	private SingleIndex m_FirstAttributeIndexOfB = new SingleIndex("last");
+	/** Whether the first index of T_B was given (otherwise the default or the file's is used) */
+	private boolean m_isFirstAttributeIndexOfBSet = false;
 	/** The threshold for the final linkage step **/
 	public double m_linkageThreshold = 0.0;
 	/** Whether the cardinality of a record from T_B is taken into consideration */
 	protected boolean m_useCardinality = false;
+	/** The number of threads used for evaluating the candidate splitting attributes */
+	protected int m_numThreads = 1;
+	/** Whether sibling subtrees are built concurrently (requires more than a single thread) */
+	protected boolean m_parallelTreeGrowth = false;
+	/** Subtrees with less training instances than this size are built on the current thread */
+	protected int m_minParallelNodeSize = 500;
+	/** The maximal number of L-values cached by each leaf (0 disables the caches) */
+	protected int m_lValuesCacheSize = 4096;
+	/** The blocking engine used by Fine-Grained Jaccard for large sets of records */
+	protected int m_fgjBlocking = OCCTSplitModelParameters.FGJ_BLOCKING_KMEANS;
+	/** The number of LSH bands of the MinHash blocking */
+	protected int m_minHashBands = 8;
+	/** The number of MinHash values in each LSH band */
+	protected int m_minHashRows = 2;
 
 	public OCCT(boolean m_shouldAddClassAttribute) {
 		super();
 		this.m_shouldAddClassAttribute = m_shouldAddClassAttribute;
 		if (!this.m_shouldAddClassAttribute) {
-			if (this.getDebug()) {
-				System.out.println("WARNING: There is a possibility for a bug.\n"
+			OCCTDiagnostics.log(OCCTDiagnostics.Level.WARN, OCCT.DIAGNOSTICS_SUBSYSTEM,
+					"WARNING: There is a possibility for a bug.\n"
 					+ "Currently, a last IsMatch attribute must exist in the dataset");
-			}
 		}
 	}
 
@@ -128,6 +198,7 @@ public class OCCT extends Classifier implements OptionHandler, TechnicalInformat
 	public void setFirstAttributeIndexOfB(String attIndex) {
 
 		m_FirstAttributeIndexOfB.setSingleIndex(attIndex);
+		m_isFirstAttributeIndexOfBSet = true;
 	}
 
 	/**
@@ -167,6 +238,94 @@ public class OCCT extends Classifier implements OptionHandler, TechnicalInformat
 		return "Set the required split criteria used by the algorithm.";
 	}
 
+	/**
+	 * Gets the blocking engine of Fine-Grained Jaccard.
+	 *
+	 * @return the blocking engine.
+	 */
+	public SelectedTag getFGJBlocking() {
+		return new SelectedTag(m_fgjBlocking, TAGS_FGJ_BLOCKING);
+	}
+
+	/**
+	 * Sets the blocking engine of Fine-Grained Jaccard
+	 */
+	public void setFGJBlocking(SelectedTag value) {
+		if (value.getTags() == TAGS_FGJ_BLOCKING) {
+			m_fgjBlocking = value.getSelectedTag().getID();
+		}
+	}
+
+	/**
+	 * Returns the tip text for this property
+	 *
+	 * @return tip text for this property suitable for displaying in the explorer/experimenter gui
+	 */
+	public String FGJBlockingTipText() {
+		return "The engine used by Fine-Grained Jaccard in order to compare only pairs of similar "
+				+ "records, when the compared sets are large.";
+	}
+
+	/**
+	 * Sets the number of LSH bands of the MinHash blocking
+	 *
+	 * @param minHashBands the number of bands
+	 */
+	public void setMinHashBands(int minHashBands) {
+
+		m_minHashBands = minHashBands;
+	}
+
+	/**
+	 * Gets the number of LSH bands of the MinHash blocking
+	 *
+	 * @return the number of bands
+	 */
+	public int getMinHashBands() {
+
+		return m_minHashBands;
+	}
+
+	/**
+	 * Returns the tip text for this property
+	 *
+	 * @return tip text for this property suitable for displaying in the
+	 *         explorer/experimenter gui
+	 */
+	public String minHashBandsTipText() {
+		return "The number of LSH bands of the MinHash blocking (more bands compare more pairs).";
+	}
+
+	/**
+	 * Sets the number of MinHash values in each LSH band
+	 *
+	 * @param minHashRows the number of values in each band
+	 */
+	public void setMinHashRows(int minHashRows) {
+
+		m_minHashRows = minHashRows;
+	}
+
+	/**
+	 * Gets the number of MinHash values in each LSH band
+	 *
+	 * @return the number of values in each band
+	 */
+	public int getMinHashRows() {
+
+		return m_minHashRows;
+	}
+
+	/**
+	 * Returns the tip text for this property
+	 *
+	 * @return tip text for this property suitable for displaying in the
+	 *         explorer/experimenter gui
+	 */
+	public String minHashRowsTipText() {
+		return "The number of MinHash values in each LSH band (more rows compare less pairs).";
+	}
+
 	/**
 	 * Gets the pruning method to use.
 	 *
@@ -280,6 +439,167 @@ public class OCCT extends Classifier implements OptionHandler, TechnicalInformat
 				+ "the linkage threshold.";
 	}
 
+	/**
+	 * Sets the number of threads used for evaluating the candidate splitting attributes
+	 *
+	 * @param numThreads the number of threads (0 means the number of available processors)
+	 */
+	public void setNumThreads(int numThreads) {
+
+		m_numThreads = numThreads;
+	}
+
+	/**
+	 * Gets the number of threads used for evaluating the candidate splitting attributes
+	 *
+	 * @return the number of threads
+	 */
+	public int getNumThreads() {
+
+		return m_numThreads;
+	}
+
+	/**
+	 * Returns the tip text for this property
+	 *
+	 * @return tip text for this property suitable for displaying in the
+	 *         explorer/experimenter gui
+	 */
+	public String numThreadsTipText() {
+		return "The number of threads used in order to evaluate the candidate splitting attributes "
+				+ "of a node concurrently (0 means the number of available processors).";
+	}
+
+	/**
+	 * Set the parallel tree-growth mode
+	 *
+	 * @param parallelTreeGrowth true if sibling subtrees should be built concurrently
+	 */
+	public void setParallelTreeGrowth(boolean parallelTreeGrowth) {
+
+		m_parallelTreeGrowth = parallelTreeGrowth;
+	}
+
+	/**
+	 * Get whether sibling subtrees are built concurrently
+	 *
+	 * @return true if sibling subtrees are built concurrently
+	 */
+	public boolean getParallelTreeGrowth() {
+
+		return m_parallelTreeGrowth;
+	}
+
+	/**
+	 * Returns the tip text for this property
+	 *
+	 * @return tip text for this property suitable for displaying in the
+	 *         explorer/experimenter gui
+	 */
+	public String parallelTreeGrowthTipText() {
+		return "If set to true (and more than a single thread is used), sibling subtrees are "
+				+ "built concurrently.";
+	}
+
+	/**
+	 * Sets the minimal size of a subtree which is built as a separate task
+	 *
+	 * @param minParallelNodeSize the minimal number of training instances
+	 */
+	public void setMinParallelNodeSize(int minParallelNodeSize) {
+
+		m_minParallelNodeSize = minParallelNodeSize;
+	}
+
+	/**
+	 * Gets the minimal size of a subtree which is built as a separate task
+	 *
+	 * @return the minimal number of training instances
+	 */
+	public int getMinParallelNodeSize() {
+
+		return m_minParallelNodeSize;
+	}
+
+	/**
+	 * Returns the tip text for this property
+	 *
+	 * @return tip text for this property suitable for displaying in the
+	 *         explorer/experimenter gui
+	 */
+	public String minParallelNodeSizeTipText() {
+		return "In the parallel tree-growth mode, subtrees with less training instances than this "
+				+ "size are built on the current thread.";
+	}
+
+	/**
+	 * Sets the maximal number of L-values which are cached by each leaf
+	 *
+	 * @param lValuesCacheSize the maximal number of cached L-values (0 disables the caches)
+	 */
+	public void setLValuesCacheSize(int lValuesCacheSize) {
+
+		m_lValuesCacheSize = lValuesCacheSize;
+		if (this.m_compiledTree != null) {
+			this.applyLValuesCacheSize();
+		}
+	}
+
+	/**
+	 * Gets the maximal number of L-values which are cached by each leaf
+	 *
+	 * @return the maximal number of cached L-values
+	 */
+	public int getLValuesCacheSize() {
+
+		return m_lValuesCacheSize;
+	}
+
+	/**
+	 * Returns the tip text for this property
+	 *
+	 * @return tip text for this property suitable for displaying in the
+	 *         explorer/experimenter gui
+	 */
+	public String lValuesCacheSizeTipText() {
+		return "The maximal number of L-values cached by each leaf, so repeated B records are "
+				+ "scored only once (0 disables the caches).";
+	}
+
+	/**
+	 * Sets whether debug information is output by this classifier.
+	 *
+	 * The per-pair reports of classifyInstance() depend only on the flag of this classifier. The
+	 * messages of the components of the tree are written by the OCCT diagnostics, whose level is
+	 * shared by the whole process: turning debugging on raises it to DEBUG for every OCCT
+	 * classifier of the process, and turning it off never lowers it again (use
+	 * OCCTDiagnostics.setLevel() to lower it).
+	 *
+	 * @param debug true if debug information should be output
+	 */
+	@Override
+	public void setDebug(boolean debug) {
+
+		super.setDebug(debug);
+		if (debug && !OCCTDiagnostics.isEnabled(OCCTDiagnostics.Level.DEBUG)) {
+			OCCTDiagnostics.setLevel(OCCTDiagnostics.Level.DEBUG);
+		}
+	}
+
+	/**
+	 * Returns the tip text for this property
+	 *
+	 * @return tip text for this property suitable for displaying in the
+	 *         explorer/experimenter gui
+	 */
+	@Override
+	public String debugTipText() {
+		return "If set to true, the classifier reports each classified pair to the console. The "
+				+ "diagnostics of the tree are shared by all the OCCT classifiers of the process, "
+				+ "so this also turns their debug messages on, until the diagnostics level is "
+				+ "lowered explicitly (setting it to false doesn't lower it).";
+	}
+
 	/**
 	 * Returns an enumeration describing the available options.
 	 *
@@ -320,6 +640,42 @@ public class OCCT extends Classifier implements OptionHandler, TechnicalInformat
 						"\t(default: false)",
 				"C", 1, "-C <use cardinality>"));
 
+		newVector.addElement(new Option(
+				"\tThe number of threads for evaluating candidate splits (0 = all processors).\n"+
+						"\t(default: 1)",
+				"num-threads", 1, "-num-threads <num>"));
+
+		newVector.addElement(new Option(
+				"\tBuild sibling subtrees concurrently (requires more than a single thread).\n"+
+						"\t(default: false)",
+				"parallel-tree", 0, "-parallel-tree"));
+
+		newVector.addElement(new Option(
+				"\tThe minimal number of instances of a subtree which is built concurrently.\n"+
+						"\t(default: 500)",
+				"min-parallel-node-size", 1, "-min-parallel-node-size <num>"));
+
+		newVector.addElement(new Option(
+				"\tThe maximal number of L-values cached by each leaf (0 disables the caches).\n"+
+						"\t(default: 4096)",
+				"lvalue-cache-size", 1, "-lvalue-cache-size <num>"));
+
+		newVector.addElement(new Option(
+				"\tThe blocking engine of Fine-Grained Jaccard.\n"+
+						"\t(default: " + new SelectedTag(OCCTSplitModelParameters.FGJ_BLOCKING_KMEANS,
+						TAGS_FGJ_BLOCKING) + ")",
+				"fgj-blocking", 1, "-fgj-blocking " + Tag.toOptionList(TAGS_FGJ_BLOCKING)));
+
+		newVector.addElement(new Option(
+				"\tThe number of LSH bands of the MinHash blocking.\n"+
+						"\t(default: 8)",
+				"minhash-bands", 1, "-minhash-bands <num>"));
+
+		newVector.addElement(new Option(
+				"\tThe number of MinHash values in each LSH band.\n"+
+						"\t(default: 2)",
+				"minhash-rows", 1, "-minhash-rows <num>"));
+
 		return newVector.elements();
 	}
 
@@ -347,6 +703,28 @@ public class OCCT extends Classifier implements OptionHandler, TechnicalInformat
 		options.add("-C");
 		options.add("" + getUseCardinality());
 
+		options.add("-num-threads");
+		options.add("" + getNumThreads());
+
+		if (getParallelTreeGrowth()) {
+			options.add("-parallel-tree");
+		}
+
+		options.add("-min-parallel-node-size");
+		options.add("" + getMinParallelNodeSize());
+
+		options.add("-lvalue-cache-size");
+		options.add("" + getLValuesCacheSize());
+
+		options.add("-fgj-blocking");
+		options.add("" + getFGJBlocking());
+
+		options.add("-minhash-bands");
+		options.add("" + getMinHashBands());
+
+		options.add("-minhash-rows");
+		options.add("" + getMinHashRows());
+
 		return options.toArray(new String[options.size()]);
 	}
 
@@ -360,6 +738,7 @@ public class OCCT extends Classifier implements OptionHandler, TechnicalInformat
 			this.setFirstAttributeIndexOfB(firstAttributeIndexOfBString);
 		} else {
 			this.setFirstAttributeIndexOfB("last");
+			this.m_isFirstAttributeIndexOfBSet = false;
 		}
 		// -S
 		String splitCriteriaString = Utils.getOption('S', options);
@@ -376,6 +755,51 @@ public class OCCT extends Classifier implements OptionHandler, TechnicalInformat
 			this.setPruningMethod(new SelectedTag(PRUNING_NO_PRUNING, TAGS_PRUNING_METHOD));
 		}
 		setUseCardinality(Utils.getFlag('C', options));
+		// -num-threads
+		String numThreadsString = Utils.getOption("num-threads", options);
+		if (numThreadsString.length() != 0) {
+			this.setNumThreads(Integer.parseInt(numThreadsString));
+		} else {
+			this.setNumThreads(1);
+		}
+		// -parallel-tree
+		setParallelTreeGrowth(Utils.getFlag("parallel-tree", options));
+		// -min-parallel-node-size
+		String minParallelNodeSizeString = Utils.getOption("min-parallel-node-size", options);
+		if (minParallelNodeSizeString.length() != 0) {
+			this.setMinParallelNodeSize(Integer.parseInt(minParallelNodeSizeString));
+		} else {
+			this.setMinParallelNodeSize(500);
+		}
+		// -lvalue-cache-size
+		String lValuesCacheSizeString = Utils.getOption("lvalue-cache-size", options);
+		if (lValuesCacheSizeString.length() != 0) {
+			this.setLValuesCacheSize(Integer.parseInt(lValuesCacheSizeString));
+		} else {
+			this.setLValuesCacheSize(4096);
+		}
+		// -fgj-blocking
+		String fgjBlockingString = Utils.getOption("fgj-blocking", options);
+		if (fgjBlockingString.length() != 0) {
+			this.setFGJBlocking(new SelectedTag(fgjBlockingString, TAGS_FGJ_BLOCKING));
+		} else {
+			this.setFGJBlocking(new SelectedTag(OCCTSplitModelParameters.FGJ_BLOCKING_KMEANS,
+					TAGS_FGJ_BLOCKING));
+		}
+		// -minhash-bands
+		String minHashBandsString = Utils.getOption("minhash-bands", options);
+		if (minHashBandsString.length() != 0) {
+			this.setMinHashBands(Integer.parseInt(minHashBandsString));
+		} else {
+			this.setMinHashBands(8);
+		}
+		// -minhash-rows
+		String minHashRowsString = Utils.getOption("minhash-rows", options);
+		if (minHashRowsString.length() != 0) {
+			this.setMinHashRows(Integer.parseInt(minHashRowsString));
+		} else {
+			this.setMinHashRows(2);
+		}
 		// Other?
 		Utils.checkForRemainingOptions(options);
 	}
@@ -493,10 +917,24 @@ public class OCCT extends Classifier implements OptionHandler, TechnicalInformat
 												   List<Attribute> attributesOfB) {
 		String splitSelectionMethodName = this.getSplitCriteria().getSelectedTag().getReadable();
 		// Initialize and return the model selection method according to the required name
-		return new OCCTSplitModelSelection(splitSelectionMethodName, allData,
+		OCCTSplitModelSelection toReturn = new OCCTSplitModelSelection(splitSelectionMethodName,
+				allData,
 				attributesOfB,
 				// Except the defined class attribute - it is not relevant.
 				allData.classIndex() != -1? allData.classAttribute() : null);
+		toReturn.setParameters(this.getSplitModelParameters());
+		return toReturn;
+	}
+
+	/**
+	 * @return the tunable parameters of the split models, according to the options
+	 */
+	private OCCTSplitModelParameters getSplitModelParameters() {
+		OCCTSplitModelParameters parameters = new OCCTSplitModelParameters();
+		parameters.setFGJBlocking(this.m_fgjBlocking);
+		parameters.setMinHashBands(this.m_minHashBands);
+		parameters.setMinHashRows(this.m_minHashRows);
+		return parameters;
 	}
 
 	private OCCTGeneralPruningMethod getPruner(Instances allData,
@@ -509,6 +947,25 @@ public class OCCT extends Classifier implements OptionHandler, TechnicalInformat
 				allData, attributesOfB);
 	}
 
+	/**
+	 * Creates the pool used for evaluating candidate splits concurrently
+	 *
+	 * @return the created pool or null if a single thread should be used
+	 */
+	private ForkJoinPool createPool() {
+		return this.createPool(this.m_numThreads);
+	}
+
+	/**
+	 * Creates a pool with the given number of threads
+	 *
+	 * @param numThreads the number of threads (0 or less for all the available processors)
+	 * @return the created pool or null if a single thread should be used
+	 */
+	private ForkJoinPool createPool(int numThreads) {
+		return OCCTParallelTasks.createPool(numThreads);
+	}
+
 	/**
 	 * Generates the classifier.
 	 *
@@ -524,25 +981,147 @@ public class OCCT extends Classifier implements OptionHandler, TechnicalInformat
 		if (this.m_shouldAddClassAttribute) {
 			instances = this.addClassAttribute(instances);
 		}
+		this.m_numTrainAttributes = instances.numAttributes();
 		// Let's assure the attribute index is valid
 		List<Attribute> attributesOfB = this.checkAndGetAttributesOfB(instances);
 		// Initialize the model selection method according to the required split method
 		OCCTSplitModelSelection splitMethod = this.getSplitMethod(instances, attributesOfB);
 		OCCTGeneralPruningMethod pruningMethod = this.getPruner(instances, attributesOfB);
 		this.m_root = new OCCTInternalClassifierNode(splitMethod, pruningMethod);
-		// Now, build the tree using the instances
-		this.m_root.buildClassifier(instances);
+		// The training set is encoded a single time, and the nodes pass slices of its rows down
+		// the tree
+		OCCTColumnarData columnarData = OCCTColumnarData.encode(instances);
+		splitMethod.setColumnarData(columnarData);
+		this.m_root.setRows(columnarData.allRows());
+		ForkJoinPool pool = this.createPool();
+		splitMethod.setPool(pool);
+		if (pruningMethod != null) {
+			pruningMethod.setPool(pool);
+			pruningMethod.setColumnarData(columnarData);
+			// The same parameters, so the pruner shares the split models of each node
+			pruningMethod.setParameters(splitMethod.getParameters());
+		}
+		if (this.m_parallelTreeGrowth) {
+			this.m_root.setParallelism(pool, this.m_minParallelNodeSize);
+		}
+		try {
+			// Now, build the tree using the instances
+			this.m_root.buildClassifier(instances);
+		} finally {
+			if (pool != null) {
+				pool.shutdown();
+			}
+		}
 		if (this.m_useCardinality) {
 			// Initialize the cardinality handler
 			this.buildCardinalityHandler(instances);
 		}
+		this.compile();
 		// Finally, perform a cleanup to save memory
 		splitMethod.cleanup();
+		if (pruningMethod != null) {
+			pruningMethod.cleanup();
+		}
 		if (this.m_useCardinality) {
 			this.m_cardinalityHandler.cleanup();
 		}
 	}
 
+	/**
+	 * Generates the classifier from a training set which is streamed from a file, without
+	 * keeping its instances in memory: the tree is grown level by level, by a single pass over
+	 * the file for each level (see {@link OCCTLevelWiseTrainer}).
+	 *
+	 * The file must be an ARFF file (possibly compressed) or a columnar file (see
+	 * {@link OCCTColumnarFile}), whose columns are memory-mapped. The first attribute of B which
+	 * is recorded by a columnar file is used unless one was given, and a given one must agree
+	 * with it. Only the counting MLE split criterion is supported, with no pruning or with MLE
+	 * pruning (which compares the frequency tables of a node to those of its best split). The
+	 * leaves model all the attributes of B by frequency tables, and cardinality can't be used.
+	 *
+	 * @param trainingFile the file of the training set
+	 * @throws Exception if classifier can't be built successfully
+	 */
+	public void buildClassifierOutOfCore(File trainingFile) throws Exception {
+		if (this.m_SplitCriteria != SPLIT_COUNTING_MLE) {
+			throw new IllegalArgumentException("Only the counting MLE split criterion can be " +
+					"used without keeping the training set in memory");
+		}
+		if (this.m_PruningMethod != PRUNING_NO_PRUNING && this.m_PruningMethod != PRUNING_MLE) {
+			throw new IllegalArgumentException("Only MLE pruning can be used without keeping " +
+					"the training set in memory");
+		}
+		if (this.m_useCardinality) {
+			throw new IllegalArgumentException("Cardinality can't be used without keeping the " +
+					"training set in memory");
+		}
+		AbstractLoader loader = OCCTColumnarFile.isColumnarFile(trainingFile) ?
+				new OCCTColumnarFileLoader() : new ArffLoader();
+		loader.setSource(trainingFile);
+		// Only the header is read here, the records are read by each pass of the trainer
+		Instances header = loader.getStructure();
+		this.getCapabilities().testWithFail(header);
+		// A columnar file records the first attribute of B it was converted with
+		String fileFirstAttributeIndexOfB = (loader instanceof OCCTColumnarFileLoader) ?
+				((OCCTColumnarFileLoader) loader).getFirstAttributeIndexOfB() : null;
+		if (fileFirstAttributeIndexOfB != null && !this.m_isFirstAttributeIndexOfBSet) {
+			this.m_FirstAttributeIndexOfB.setSingleIndex(fileFirstAttributeIndexOfB);
+		}
+		if (this.m_shouldAddClassAttribute) {
+			header = this.addClassAttribute(header);
+		}
+		this.m_numTrainAttributes = header.numAttributes();
+		List<Attribute> attributesOfB = this.checkAndGetAttributesOfB(header);
+		if (fileFirstAttributeIndexOfB != null && this.m_FirstAttributeIndexOfB.getIndex() + 1 !=
+				Integer.parseInt(fileFirstAttributeIndexOfB)) {
+			throw new IllegalArgumentException("The first attribute index of B (" +
+					this.m_FirstAttributeIndexOfB.getSingleIndex() + ") contradicts the index " +
+					fileFirstAttributeIndexOfB + " which is recorded by " + trainingFile);
+		}
+		OCCTLevelWiseTrainer trainer = new OCCTLevelWiseTrainer(loader, header, attributesOfB,
+				this.m_PruningMethod == PRUNING_MLE);
+		this.m_root = trainer.buildTree();
+		this.m_cardinalityHandler = null;
+		this.compile();
+	}
+
+	/**
+	 * Flattens the trained tree into the array-based structure which is used for scoring
+	 */
+	public void compile() {
+		this.m_compiledTree = OCCTCompiledTree.compile(this.m_root);
+		this.applyLValuesCacheSize();
+	}
+
+	/**
+	 * Sets the size of the L-values caches of all the leaves
+	 */
+	private void applyLValuesCacheSize() {
+		for (int i = 0; i < this.m_compiledTree.numLeaves(); ++i) {
+			this.m_compiledTree.getLeaf(i).setLValuesCacheSize(this.m_lValuesCacheSize);
+		}
+	}
+
+	/**
+	 * Sums the counts of the L-values caches of all the leaves
+	 *
+	 * @return the summed counts (null if no leaf cached any L-value yet)
+	 */
+	public OCCTLRUCache.Statistics getLValuesCacheStatistics() {
+		if (this.m_compiledTree == null) {
+			return null;
+		}
+		OCCTLRUCache.Statistics toReturn = null;
+		for (int i = 0; i < this.m_compiledTree.numLeaves(); ++i) {
+			OCCTLRUCache.Statistics leafStatistics =
+					this.m_compiledTree.getLeaf(i).getLValuesCacheStatistics();
+			if (leafStatistics != null) {
+				toReturn = (toReturn == null) ? leafStatistics : toReturn.add(leafStatistics);
+			}
+		}
+		return toReturn;
+	}
+
 	private void buildCardinalityHandler(Instances instances) {
 		this.m_cardinalityHandler = new OCCTCardinalityHandler(instances,
 				this.m_FirstAttributeIndexOfB.getIndex(),
@@ -553,6 +1132,50 @@ public class OCCT extends Classifier implements OptionHandler, TechnicalInformat
 		this.m_cardinalityHandler.buildCardinality();
 	}
 
+	/**
+	 * Returns the dataset which contains the added class attribute for the given dataset. The
+	 * prepared header is kept, so it is created only once for all the instances of a dataset
+	 *
+	 * @param dataset the dataset of a classified instance
+	 * @return the dataset with the class attribute (the given one if it already has it)
+	 * @throws Exception if the class attribute can't be added
+	 */
+	private Instances prepareDataset(Instances dataset) throws Exception {
+		if (dataset.attribute(OCCT.FAKE_MATCH_FIELD_ATTRIBUTE_NAME) != null) {
+			return this.addClassAttribute(dataset);
+		}
+		OCCTPair<WeakReference<Instances>, Instances> prepared = this.m_preparedDataset;
+		if (prepared == null || prepared.getFirst().get() != dataset) {
+			// Only the header is filtered, the instances of the dataset are never copied
+			prepared = new OCCTPair<WeakReference<Instances>, Instances>(
+					new WeakReference<Instances>(dataset),
+					this.addClassAttribute(new Instances(dataset, 0)));
+			this.m_preparedDataset = prepared;
+		}
+		return prepared.getSecond();
+	}
+
+	/**
+	 * Calculates the L-value of an instance: the absolute likelihood of a match, multiplied by
+	 * the cardinality of its B record (if cardinality is used)
+	 *
+	 * @param instance the instance to score (its attributes must be ordered like in the training
+	 *                 data, the class attribute isn't required)
+	 * @return the L-value or NaN if the instance can't be scored
+	 * @throws Exception if the likelihood can't be calculated
+	 */
+	private double calculateLValue(Instance instance) throws Exception {
+		// In case it is unnecessary to consider usage of cardinality, we set its value to 1 which
+		// allows to ignore the values
+		double cardinalityValue =
+				this.m_useCardinality? this.m_cardinalityHandler.getCardinalityValue(instance) : 1;
+		return Math.abs(this.calculateClearValue(instance) * cardinalityValue);
+	}
+
+	private double calculateClearValue(Instance instance) throws Exception {
+		return this.m_compiledTree.classifyInstance(instance);
+	}
+
 	/**
 	 * Classifies an instance.
 	 *
@@ -566,43 +1189,234 @@ public class OCCT extends Classifier implements OptionHandler, TechnicalInformat
 		// In case there is no class attribute - let's add it manually before starting working with
 		// the instances
 		if (this.m_shouldAddClassAttribute) {
-			Instances updatedDataset = this.addClassAttribute(dataset);
+			Instances updatedDataset = this.prepareDataset(dataset);
 			if (updatedDataset != dataset) {
 				instance.setDataset(null);
 				instance.insertAttributeAt(instance.numAttributes());
 				instance.setDataset(updatedDataset);
 			}
 		}
-		System.out.println("Called classifier ... with " + instance.classIndex());
-		System.out.println("Called classifier ... with " + instance);
-		// In case it is unnecessary to consider usage of cardinality, we set its value to 1 which
-		// allows to ignore the values
-		double cardinalityValue =
-				this.m_useCardinality? this.m_cardinalityHandler.getCardinalityValue(instance) : 1;
-		double clearValue = this.m_root.classifyInstance(instance);
-		double resultValue = Math.abs(clearValue * cardinalityValue);
+		long start = OCCT.CLASSIFY_COUNTER.start();
+		if (OCCTDiagnostics.isEnabled(OCCTDiagnostics.Level.TRACE)) {
+			OCCTDiagnostics.log(OCCTDiagnostics.Level.TRACE, OCCT.DIAGNOSTICS_SUBSYSTEM,
+					"Called classifier ... with " + instance.classIndex());
+			OCCTDiagnostics.log(OCCTDiagnostics.Level.TRACE, OCCT.DIAGNOSTICS_SUBSYSTEM,
+					"Called classifier ... with " + instance);
+		}
+		double resultValue = this.calculateLValue(instance);
 		Attribute isMatchAttr = instance.classAttribute();
 		int isMatch = resultValue >= linkageThreshold ?
 				isMatchAttr.indexOfValue(OCCT.FAKE_MATCH_FIELD_VALUE_MATCH_NAME) :
 				isMatchAttr.indexOfValue(OCCT.FAKE_MATCH_FIELD_VALUE_UNMATCH_NAME);
+		OCCT.CLASSIFY_COUNTER.stop(start);
 		// Print some debug information if required
+		// The report depends only on the debug flag of this classifier, not on the shared level
 		if (this.m_Debug) {
 			int printIndex = 1;
+			StringBuilder message = new StringBuilder();
 			if (this.m_useCardinality) {
-				System.out.println((printIndex++) + ". Cardinality						: " + cardinalityValue);
-				System.out.println((printIndex++) + ". Value (no Cardinality)				: " + clearValue);
-				System.out.println((printIndex++) + ". Value (Total)					: " + resultValue);
+				double cardinalityValue = this.m_cardinalityHandler.getCardinalityValue(instance);
+				double clearValue = this.calculateClearValue(instance);
+				message.append((printIndex++) + ". Cardinality						: " + cardinalityValue + "\n");
+				message.append((printIndex++) + ". Value (no Cardinality)				: " + clearValue + "\n");
+				message.append((printIndex++) + ". Value (Total)					: " + resultValue + "\n");
 			} else {
-				System.out.println((printIndex++) + ". Value						: " + resultValue);
+				message.append((printIndex++) + ". Value						: " + resultValue + "\n");
 			}
 			Attribute classAttr = instance.classAttribute();
 			String isMatchAsString = classAttr.value(isMatch);
-			System.out.println((printIndex++) + ". Threshold						: " + linkageThreshold);
-			System.out.println((printIndex++) + ". Match/UnMatch					: " + isMatchAsString);
+			message.append((printIndex++) + ". Threshold						: " + linkageThreshold + "\n");
+			message.append((printIndex++) + ". Match/UnMatch					: " + isMatchAsString);
+			OCCTDiagnostics.getSink().write(OCCTDiagnostics.Level.DEBUG, OCCT.DIAGNOSTICS_SUBSYSTEM,
+					message.toString());
 		}
 		return isMatch;
 	}
 
+	/**
+	 * Scores a block of candidate pairs, using the number of threads of the classifier.
+	 *
+	 * @param instances the pairs to score
+	 * @return the L-values and the match decisions of the pairs
+	 * @throws Exception if the pairs can't be scored
+	 * @see #scoreInstances(Instances, int)
+	 */
+	public OCCTBatchScores scoreInstances(Instances instances) throws Exception {
+		return this.scoreInstances(instances, this.m_numThreads);
+	}
+
+	/**
+	 * Scores a block of candidate pairs.
+	 *
+	 * Unlike classifyInstance(), neither the dataset nor its instances are modified: the added
+	 * class attribute is always the last one, so the pairs are scored as they are, whether they
+	 * contain the class attribute or not. The decision of each pair is the same as the one of
+	 * classifyInstance().
+	 *
+	 * @param instances the pairs to score (their attributes must be ordered like in the training
+	 *                  data)
+	 * @param numThreads the number of threads (0 or less for all the available processors)
+	 * @return the L-values and the match decisions of the pairs
+	 * @throws Exception if the pairs can't be scored
+	 */
+	public OCCTBatchScores scoreInstances(Instances instances, int numThreads) throws Exception {
+		ForkJoinPool pool = this.createPool(numThreads);
+		try {
+			return this.scoreInstances(instances, pool);
+		} finally {
+			if (pool != null) {
+				pool.shutdown();
+			}
+		}
+	}
+
+	/**
+	 * Scores a block of candidate pairs on a pool of the caller, so blocks which are scored one
+	 * after the other don't start their own threads (see {@link #scoreInstances(Instances, int)}).
+	 *
+	 * @param instances the pairs to score (their attributes must be ordered like in the training
+	 *                  data)
+	 * @param pool the pool which scores the pairs, which isn't shut down (null for the current
+	 *             thread)
+	 * @return the L-values and the match decisions of the pairs
+	 * @throws Exception if the pairs can't be scored
+	 */
+	public OCCTBatchScores scoreInstances(final Instances instances, ForkJoinPool pool)
+			throws Exception {
+		if (this.m_root == null) {
+			throw new IllegalStateException("No classifier built");
+		}
+		this.checkScoredHeader(instances);
+		long start = OCCT.BATCH_COUNTER.start();
+		final double linkageThreshold = this.getLinkageThreshold();
+		final double[] lValues = new double[instances.numInstances()];
+		final boolean[] matches = new boolean[instances.numInstances()];
+		OCCTParallelTasks.invokeRanges(pool, instances.numInstances(), OCCT.MIN_BATCH_CHUNK_SIZE,
+				new OCCTParallelTasks.RangeTask() {
+					@Override
+					public void run(int from, int to) throws Exception {
+						for (int i = from; i < to; ++i) {
+							lValues[i] = OCCT.this.calculateLValue(instances.instance(i));
+							matches[i] = lValues[i] >= linkageThreshold;
+						}
+					}
+				});
+		OCCT.BATCH_COUNTER.stop(start);
+		return new OCCTBatchScores(lValues, matches, linkageThreshold);
+	}
+
+	/**
+	 * Scores all the pairs of a loader, using the number of threads of the classifier.
+	 *
+	 * @param loader the loader of the pairs to score
+	 * @return the L-values and the match decisions of the pairs
+	 * @throws Exception if the pairs can't be read or scored
+	 * @see #scoreInstances(Loader, int)
+	 */
+	public OCCTBatchScores scoreInstances(Loader loader) throws Exception {
+		return this.scoreInstances(loader, this.m_numThreads);
+	}
+
+	/**
+	 * Scores all the pairs of a loader (e.g. of a columnar file, see
+	 * {@link OCCTColumnarFileLoader}). The pairs of an incremental loader are read and scored in
+	 * blocks, so only a single block of pairs is kept in memory at a time.
+	 *
+	 * @param loader the loader of the pairs to score (their attributes must be ordered like in
+	 *               the training data)
+	 * @param numThreads the number of threads (0 or less for all the available processors)
+	 * @return the L-values and the match decisions of the pairs, in the order of the loader
+	 * @throws Exception if the pairs can't be read or scored
+	 */
+	public OCCTBatchScores scoreInstances(Loader loader, int numThreads) throws Exception {
+		if (!(loader instanceof IncrementalConverter)) {
+			return this.scoreInstances(loader.getDataSet(), numThreads);
+		}
+		Instances structure = loader.getStructure();
+		// The same block is reused, so its header is prepared a single time
+		Instances block = new Instances(structure, OCCT.LOADER_BLOCK_SIZE);
+		double[] lValues = new double[OCCT.LOADER_BLOCK_SIZE];
+		boolean[] matches = new boolean[OCCT.LOADER_BLOCK_SIZE];
+		int numScored = 0;
+		// All the blocks are scored on the same pool
+		ForkJoinPool pool = this.createPool(numThreads);
+		try {
+			Instance next = loader.getNextInstance(structure);
+			while (next != null) {
+				block.delete();
+				while (next != null && block.numInstances() < OCCT.LOADER_BLOCK_SIZE) {
+					block.add(next);
+					next = loader.getNextInstance(structure);
+				}
+				OCCTBatchScores blockScores = this.scoreInstances(block, pool);
+				if (numScored + block.numInstances() > lValues.length) {
+					int capacity = Math.max(lValues.length * 2, numScored + block.numInstances());
+					lValues = Arrays.copyOf(lValues, capacity);
+					matches = Arrays.copyOf(matches, capacity);
+				}
+				System.arraycopy(blockScores.getLValues(), 0, lValues, numScored,
+						block.numInstances());
+				System.arraycopy(blockScores.getMatches(), 0, matches, numScored,
+						block.numInstances());
+				numScored += block.numInstances();
+			}
+		} finally {
+			if (pool != null) {
+				pool.shutdown();
+			}
+		}
+		return new OCCTBatchScores(Arrays.copyOf(lValues, numScored),
+				Arrays.copyOf(matches, numScored), this.getLinkageThreshold());
+	}
+
+	/**
+	 * Creates a job which links a table of A records to a table of B records, by scoring each B
+	 * record a single time for each leaf which is reached by the A records (see
+	 * {@link OCCTLinkageJob}). The pairs of the job get the same L-values and decisions as
+	 * scoreInstances() gives their concatenations.
+	 *
+	 * @return the job, which uses the number of threads of the classifier
+	 */
+	public OCCTLinkageJob createLinkageJob() {
+		if (this.m_root == null) {
+			throw new IllegalStateException("No classifier built");
+		}
+		OCCTLinkageJob job = new OCCTLinkageJob(this.m_compiledTree,
+				this.m_useCardinality ? this.m_cardinalityHandler : null,
+				this.m_FirstAttributeIndexOfB.getIndex(), this.m_numTrainAttributes,
+				this.getLinkageThreshold());
+		job.setNumThreads(this.m_numThreads);
+		return job;
+	}
+
+	/**
+	 * Ranks the records of a fixed B catalogue in each leaf in advance, so the B records which are
+	 * linked to an incoming A record (all the matches or the top k) are looked up instead of
+	 * scored (see {@link OCCTRankedCatalogue}).
+	 *
+	 * @param tableB the B records (the attributes of B of the training data, in their order)
+	 * @return the ranked catalogue
+	 * @throws Exception if the B records can't be scored
+	 */
+	public OCCTRankedCatalogue buildRankedCatalogue(Instances tableB) throws Exception {
+		return this.createLinkageJob().index(tableB);
+	}
+
+	/**
+	 * Checks that the given instances can be scored by the attribute indexes of the training data
+	 */
+	private void checkScoredHeader(Instances instances) {
+		int expected = this.m_numTrainAttributes;
+		if (this.m_shouldAddClassAttribute &&
+				instances.attribute(OCCT.FAKE_MATCH_FIELD_ATTRIBUTE_NAME) == null) {
+			--expected;
+		}
+		if (instances.numAttributes() != expected) {
+			throw new IllegalArgumentException("Expected " + expected + " attributes but got " +
+					instances.numAttributes());
+		}
+	}
+
 	/**
 	 * Returns class probabilities for an instance.
 	 *
@@ -0,0 +1,226 @@
+package weka.classifiers.trees.occt.benchmark;
+
+import weka.core.Attribute;
+import weka.core.FastVector;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Utils;
+
+import java.util.Random;
+
+/**
+ * Generates synthetic one-to-many linkage datasets: each row is a matching pair of an A record
+ * and one of its B records, where the attributes of A come first and are followed by the
+ * attributes of B (like the input of {@link weka.classifiers.trees.OCCT}).
+ *
+ * The rows are generated for a fixed number of A entities, so each A record is linked to a few
+ * B records on average (the fan-out). Each B attribute depends on a single A attribute: its value
+ * is derived from the value of that attribute, except for a (configurable) fraction of noisy
+ * values which are drawn uniformly.
+ *
+ * All the attributes are nominal, their values are named a0, a1, ... (for A) and b0, b1, ...
+ * (for B). The generator is deterministic for a given seed.
+ */
+public class OCCTLinkageDataGenerator {
+
+    private int m_numRows = 2000;
+    private int m_numAttributesOfA = 4;
+    private int m_numAttributesOfB = 3;
+    private int m_arityOfA = 4;
+    private int m_arityOfB = 5;
+    private int m_fanOut = 5;
+    private double m_noise = 0.2;
+    private long m_seed = 1;
+
+    public int getNumRows() {
+        return this.m_numRows;
+    }
+
+    public void setNumRows(int numRows) {
+        this.m_numRows = numRows;
+    }
+
+    public int getNumAttributesOfA() {
+        return this.m_numAttributesOfA;
+    }
+
+    public void setNumAttributesOfA(int numAttributesOfA) {
+        this.m_numAttributesOfA = numAttributesOfA;
+    }
+
+    public int getNumAttributesOfB() {
+        return this.m_numAttributesOfB;
+    }
+
+    public void setNumAttributesOfB(int numAttributesOfB) {
+        this.m_numAttributesOfB = numAttributesOfB;
+    }
+
+    public int getArityOfA() {
+        return this.m_arityOfA;
+    }
+
+    public void setArityOfA(int arityOfA) {
+        this.m_arityOfA = arityOfA;
+    }
+
+    public int getArityOfB() {
+        return this.m_arityOfB;
+    }
+
+    public void setArityOfB(int arityOfB) {
+        this.m_arityOfB = arityOfB;
+    }
+
+    /**
+     * @return The average number of B records which are linked to a single A record
+     */
+    public int getFanOut() {
+        return this.m_fanOut;
+    }
+
+    public void setFanOut(int fanOut) {
+        this.m_fanOut = fanOut;
+    }
+
+    /**
+     * @return The fraction of B values which don't depend on the A record
+     */
+    public double getNoise() {
+        return this.m_noise;
+    }
+
+    public void setNoise(double noise) {
+        this.m_noise = noise;
+    }
+
+    public long getSeed() {
+        return this.m_seed;
+    }
+
+    public void setSeed(long seed) {
+        this.m_seed = seed;
+    }
+
+    /**
+     * @return The (1-based) index of the first attribute of B in the generated datasets
+     */
+    public int getFirstAttributeIndexOfB() {
+        return this.m_numAttributesOfA + 1;
+    }
+
+    /**
+     * Sets the options of the generator from an array of strings (the parsed options are
+     * removed from the array)
+     *
+     * Valid options are: -rows, -a, -b, -arity-a, -arity-b, -fanout, -noise and -seed
+     *
+     * @param options The options to parse
+     *
+     * @throws Exception If an option has an invalid value
+     */
+    public void setOptions(String[] options) throws Exception {
+        String value = Utils.getOption("rows", options);
+        if (value.length() != 0) {
+            this.setNumRows(Integer.parseInt(value));
+        }
+        value = Utils.getOption("a", options);
+        if (value.length() != 0) {
+            this.setNumAttributesOfA(Integer.parseInt(value));
+        }
+        value = Utils.getOption("b", options);
+        if (value.length() != 0) {
+            this.setNumAttributesOfB(Integer.parseInt(value));
+        }
+        value = Utils.getOption("arity-a", options);
+        if (value.length() != 0) {
+            this.setArityOfA(Integer.parseInt(value));
+        }
+        value = Utils.getOption("arity-b", options);
+        if (value.length() != 0) {
+            this.setArityOfB(Integer.parseInt(value));
+        }
+        value = Utils.getOption("fanout", options);
+        if (value.length() != 0) {
+            this.setFanOut(Integer.parseInt(value));
+        }
+        value = Utils.getOption("noise", options);
+        if (value.length() != 0) {
+            this.setNoise(Double.parseDouble(value));
+        }
+        value = Utils.getOption("seed", options);
+        if (value.length() != 0) {
+            this.setSeed(Long.parseLong(value));
+        }
+    }
+
+    private static Attribute createAttribute(String name, String valuePrefix, int arity) {
+        FastVector values = new FastVector(arity);
+        for (int i = 0; i < arity; ++i) {
+            values.addElement(valuePrefix + i);
+        }
+        return new Attribute(name, values);
+    }
+
+    /**
+     * @return An empty dataset with the attributes of the generated rows
+     */
+    public Instances createHeader() {
+        FastVector attributes = new FastVector(this.m_numAttributesOfA + this.m_numAttributesOfB);
+        for (int i = 0; i < this.m_numAttributesOfA; ++i) {
+            attributes.addElement(
+                    OCCTLinkageDataGenerator.createAttribute("A" + i, "a", this.m_arityOfA));
+        }
+        for (int i = 0; i < this.m_numAttributesOfB; ++i) {
+            attributes.addElement(
+                    OCCTLinkageDataGenerator.createAttribute("B" + i, "b", this.m_arityOfB));
+        }
+        return new Instances("occt-linkage-" + this.m_seed, attributes, this.m_numRows);
+    }
+
+    /**
+     * Generates a dataset of matching pairs
+     *
+     * @return The generated dataset
+     */
+    public Instances generate() {
+        if (this.m_numAttributesOfA < 1 || this.m_numAttributesOfB < 1) {
+            throw new IllegalArgumentException("Both A and B must have at least one attribute");
+        }
+        Random random = new Random(this.m_seed);
+        Instances toReturn = this.createHeader();
+        int numEntities = Math.max(1, this.m_numRows / Math.max(1, this.m_fanOut));
+        double[][] entities = new double[numEntities][this.m_numAttributesOfA];
+        for (double[] entity : entities) {
+            for (int i = 0; i < entity.length; ++i) {
+                entity[i] = random.nextInt(this.m_arityOfA);
+            }
+        }
+        for (int row = 0; row < this.m_numRows; ++row) {
+            double[] entity = entities[random.nextInt(numEntities)];
+            double[] values = new double[this.m_numAttributesOfA + this.m_numAttributesOfB];
+            System.arraycopy(entity, 0, values, 0, entity.length);
+            for (int j = 0; j < this.m_numAttributesOfB; ++j) {
+                if (random.nextDouble() < this.m_noise) {
+                    values[this.m_numAttributesOfA + j] = random.nextInt(this.m_arityOfB);
+                } else {
+                    // B_j depends on A_(j mod |A|) only
+                    int source = (int) entity[j % this.m_numAttributesOfA];
+                    values[this.m_numAttributesOfA + j] = (source * (j + 1) + j) % this.m_arityOfB;
+                }
+            }
+            toReturn.add(new Instance(1.0, values));
+        }
+        return toReturn;
+    }
+
+    /**
+     * Writes a generated dataset (in ARFF format) to the standard output
+     */
+    public static void main(String[] args) throws Exception {
+        OCCTLinkageDataGenerator generator = new OCCTLinkageDataGenerator();
+        generator.setOptions(args);
+        Utils.checkForRemainingOptions(args);
+        System.out.println(generator.generate());
+    }
+}
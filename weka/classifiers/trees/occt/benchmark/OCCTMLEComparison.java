@@ -0,0 +1,177 @@
+package weka.classifiers.trees.occt.benchmark;
+
+import weka.classifiers.trees.OCCT;
+import weka.classifiers.trees.occt.split.general.OCCTSplitModelFactory;
+import weka.classifiers.trees.occt.split.models.OCCTSingleAttributeSplitModel;
+import weka.classifiers.trees.occt.tree.OCCTBatchScores;
+import weka.core.Attribute;
+import weka.core.Instances;
+import weka.core.SelectedTag;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+
+/**
+ * Compares the Maximum-Likelihood Estimation split criterion which induces J48 models with the
+ * one which uses frequency tables: the time and the score of each candidate split of the root,
+ * and the decisions of the full trees built with both of the criteria.
+ *
+ * Usage: OCCTMLEComparison &lt;arff file&gt; &lt;first index of B (1-based)&gt;
+ *        [linkage threshold] [repetitions]
+ */
+public class OCCTMLEComparison {
+
+    private static final String J48_CRITERION = "Maximum-Likelihood Estimation";
+    private static final String COUNTING_CRITERION = "Counting Maximum-Likelihood Estimation";
+
+    /**
+     * Builds the model of a single candidate split a few times
+     *
+     * @return The score of the model (NaN if the model is invalid) and the average build time
+     *         in milliseconds
+     */
+    private static double[] scoreCandidate(String criterion, Attribute candidate,
+                                           List<Attribute> possibleAttributes,
+                                           List<Attribute> attributesOfB,
+                                           Instances data, int repetitions) throws Exception {
+        double score = Double.NaN;
+        long start = System.nanoTime();
+        for (int i = 0; i < repetitions; ++i) {
+            OCCTSingleAttributeSplitModel model = OCCTSplitModelFactory.getSplitModel(criterion,
+                    candidate, possibleAttributes, attributesOfB);
+            model.buildClassifier(data);
+            score = model.checkModel() ? model.score() : Double.NaN;
+        }
+        double averageMs = (System.nanoTime() - start) / 1000000.0 / repetitions;
+        return new double[] {score, averageMs};
+    }
+
+    /**
+     * @return For each value, its rank (0 for the highest value)
+     */
+    private static double[] ranks(double[] values) {
+        double[] toReturn = new double[values.length];
+        for (int i = 0; i < values.length; ++i) {
+            for (double other : values) {
+                if (other > values[i]) {
+                    ++toReturn[i];
+                }
+            }
+        }
+        return toReturn;
+    }
+
+    private static double spearmanCorrelation(double[] first, double[] second) {
+        double[] firstRanks = OCCTMLEComparison.ranks(first);
+        double[] secondRanks = OCCTMLEComparison.ranks(second);
+        int n = first.length;
+        if (n < 2) {
+            return Double.NaN;
+        }
+        double sumOfSquares = 0;
+        for (int i = 0; i < n; ++i) {
+            sumOfSquares += Math.pow(firstRanks[i] - secondRanks[i], 2);
+        }
+        return 1 - 6 * sumOfSquares / (n * ((double) n * n - 1));
+    }
+
+    private static int indexOfMax(double[] values) {
+        int toReturn = -1;
+        for (int i = 0; i < values.length; ++i) {
+            if (!Double.isNaN(values[i]) && (toReturn == -1 || values[i] >= values[toReturn])) {
+                toReturn = i;
+            }
+        }
+        return toReturn;
+    }
+
+    private static OCCT buildTree(int splitCriteria, Instances data, int firstIndexOfB,
+                                  double linkageThreshold) throws Exception {
+        OCCT occt = new OCCT();
+        occt.setSplitCriteria(new SelectedTag(splitCriteria, OCCT.TAGS_SPLIT_CRITERIA));
+        occt.setFirstAttributeIndexOfB("" + firstIndexOfB);
+        occt.setLinkageThreshold(linkageThreshold);
+        occt.buildClassifier(new Instances(data));
+        return occt;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("Usage: OCCTMLEComparison <arff file> <first index of B> " +
+                    "[linkage threshold] [repetitions]");
+            System.exit(1);
+        }
+        Instances data = new Instances(new BufferedReader(new FileReader(args[0])));
+        int firstIndexOfB = Integer.parseInt(args[1]);
+        double linkageThreshold = args.length > 2 ? Double.parseDouble(args[2]) : 1.0;
+        int repetitions = args.length > 3 ? Integer.parseInt(args[3]) : 3;
+
+        List<Attribute> possibleAttributes = new ArrayList<Attribute>();
+        List<Attribute> attributesOfB = new ArrayList<Attribute>();
+        List<Attribute> candidates = new ArrayList<Attribute>();
+        Enumeration<?> attributes = data.enumerateAttributes();
+        while (attributes.hasMoreElements()) {
+            Attribute attribute = (Attribute) attributes.nextElement();
+            possibleAttributes.add(attribute);
+            if (attribute.index() >= firstIndexOfB - 1) {
+                attributesOfB.add(attribute);
+            } else {
+                candidates.add(attribute);
+            }
+        }
+
+        System.out.println("Candidate splits of the root (" + data.numInstances() + " records)");
+        System.out.println("attribute\tJ48 score\tcounting score\tJ48 ms\tcounting ms");
+        double[] j48Scores = new double[candidates.size()];
+        double[] countingScores = new double[candidates.size()];
+        double j48Total = 0;
+        double countingTotal = 0;
+        for (int i = 0; i < candidates.size(); ++i) {
+            double[] j48 = OCCTMLEComparison.scoreCandidate(OCCTMLEComparison.J48_CRITERION,
+                    candidates.get(i), possibleAttributes, attributesOfB, data, repetitions);
+            double[] counting = OCCTMLEComparison.scoreCandidate(
+                    OCCTMLEComparison.COUNTING_CRITERION, candidates.get(i), possibleAttributes,
+                    attributesOfB, data, repetitions);
+            j48Scores[i] = j48[0];
+            countingScores[i] = counting[0];
+            j48Total += j48[1];
+            countingTotal += counting[1];
+            System.out.println(candidates.get(i).name() + "\t" + j48[0] + "\t" + counting[0] +
+                    "\t" + j48[1] + "\t" + counting[1]);
+        }
+        int j48Best = OCCTMLEComparison.indexOfMax(j48Scores);
+        int countingBest = OCCTMLEComparison.indexOfMax(countingScores);
+        System.out.println("Total ms: J48 " + j48Total + ", counting " + countingTotal);
+        System.out.println("Chosen attribute: J48 " +
+                (j48Best == -1 ? "none" : candidates.get(j48Best).name()) + ", counting " +
+                (countingBest == -1 ? "none" : candidates.get(countingBest).name()));
+        System.out.println("Spearman correlation of the scores: " +
+                OCCTMLEComparison.spearmanCorrelation(j48Scores, countingScores));
+
+        System.out.println();
+        System.out.println("Full trees (linkage threshold " + linkageThreshold + ")");
+        long start = System.nanoTime();
+        OCCT j48Tree = OCCTMLEComparison.buildTree(OCCT.SPLIT_MLE, data, firstIndexOfB,
+                linkageThreshold);
+        long j48BuildMs = (System.nanoTime() - start) / 1000000;
+        start = System.nanoTime();
+        OCCT countingTree = OCCTMLEComparison.buildTree(OCCT.SPLIT_COUNTING_MLE, data,
+                firstIndexOfB, linkageThreshold);
+        long countingBuildMs = (System.nanoTime() - start) / 1000000;
+        OCCTBatchScores j48Decisions = j48Tree.scoreInstances(data, 1);
+        OCCTBatchScores countingDecisions = countingTree.scoreInstances(data, 1);
+        int agreements = 0;
+        for (int i = 0; i < data.numInstances(); ++i) {
+            if (j48Decisions.isMatch(i) == countingDecisions.isMatch(i)) {
+                ++agreements;
+            }
+        }
+        System.out.println("Build ms: J48 " + j48BuildMs + ", counting " + countingBuildMs);
+        System.out.println("Matches: J48 " + j48Decisions.numMatches() + ", counting " +
+                countingDecisions.numMatches());
+        System.out.println("Agreeing decisions: " + agreements + " / " + data.numInstances());
+    }
+}
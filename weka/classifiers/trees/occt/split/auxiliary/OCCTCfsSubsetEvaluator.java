@@ -0,0 +1,363 @@
+package weka.classifiers.trees.occt.split.auxiliary;
+
+import weka.attributeSelection.ASEvaluation;
+import weka.attributeSelection.CfsSubsetEval;
+import weka.attributeSelection.SubsetEvaluator;
+import weka.classifiers.trees.occt.utils.OCCTColumnarData;
+import weka.core.Attribute;
+import weka.core.ContingencyTables;
+import weka.core.FastVector;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.RevisionUtils;
+import weka.core.Utils;
+
+import java.util.BitSet;
+
+/**
+ * A correlation-based feature subset evaluator which counts the values of the (nominal)
+ * attributes directly from the dataset of a node, instead of working on a filtered copy of it.
+ *
+ * The evaluated attributes are a projection of the dataset (given by their indexes), and the
+ * subsets are given by the positions in that projection. The merit of a subset and the locally
+ * predictive post-processing are the same like in {@link CfsSubsetEval} with its default
+ * options, where the correlation of two attributes is the symmetrical uncertainty of their
+ * contingency table. The correlations are calculated on demand and kept in a matrix, so each
+ * pair of attributes is counted at most once, no matter how many subsets contain it.
+ */
+public class OCCTCfsSubsetEvaluator extends ASEvaluation implements SubsetEvaluator {
+
+    private static final long serialVersionUID = -6213364916330826521L;
+
+    /** Marks a correlation which wasn't calculated yet (like in CfsSubsetEval) **/
+    private static final float NOT_CALCULATED = -999;
+
+    private final Instances m_data;
+    /** The encoded dataset and the rows of the instances in it (null if not encoded) **/
+    private final OCCTColumnarData m_columnarData;
+    private final int[] m_rows;
+    /** The index of each evaluated attribute in the dataset **/
+    private final int[] m_attributesIndexes;
+    private final int m_classIndex;
+    private final int m_numAttribs;
+    /** The instances whose class isn't missing (the only ones which are counted) **/
+    private final int[] m_positions;
+    /** The value indexes of each evaluated attribute (read on demand, missing = numValues) **/
+    private final int[][] m_values;
+    /** The correlations of each pair of attributes, m_corrMatrix[i][j] for j < i **/
+    private final float[][] m_corrMatrix;
+
+    /**
+     * @param data The dataset of the node
+     * @param columnarData The encoded training set (or null)
+     * @param rows The rows of the instances in the encoded training set (null if unknown)
+     * @param attributesIndexes The indexes of the evaluated attributes in the dataset
+     * @param classPosition The position of the class in the evaluated attributes
+     */
+    public OCCTCfsSubsetEvaluator(Instances data, OCCTColumnarData columnarData, int[] rows,
+                                  int[] attributesIndexes, int classPosition) {
+        this.m_data = data;
+        boolean encoded = columnarData != null && rows != null &&
+                rows.length == data.numInstances();
+        for (int i = 0; encoded && i < attributesIndexes.length; ++i) {
+            encoded = columnarData.hasColumn(attributesIndexes[i]);
+        }
+        this.m_columnarData = encoded ? columnarData : null;
+        this.m_rows = encoded ? rows : null;
+        this.m_attributesIndexes = attributesIndexes;
+        this.m_classIndex = classPosition;
+        this.m_numAttribs = attributesIndexes.length;
+        this.m_values = new int[this.m_numAttribs][];
+        this.m_positions = this.findPositionsWithClass();
+        this.m_corrMatrix = new float[this.m_numAttribs][];
+        for (int i = 0; i < this.m_numAttribs; ++i) {
+            this.m_corrMatrix[i] = new float[i + 1];
+            for (int j = 0; j < i; ++j) {
+                this.m_corrMatrix[i][j] = OCCTCfsSubsetEvaluator.NOT_CALCULATED;
+            }
+            this.m_corrMatrix[i][i] = 1.0f;
+        }
+    }
+
+    /**
+     * The counts are taken from the dataset which was given to the constructor
+     */
+    @Override
+    public void buildEvaluator(Instances data) throws Exception {
+    }
+
+    /**
+     * @return The value indexes of an evaluated attribute for all the instances
+     */
+    private int[] values(int position) {
+        if (this.m_values[position] == null) {
+            int attributeIndex = this.m_attributesIndexes[position];
+            int missing = this.m_data.attribute(attributeIndex).numValues();
+            int[] values = new int[this.m_data.numInstances()];
+            if (this.m_columnarData != null) {
+                int[] column = this.m_columnarData.column(attributeIndex);
+                for (int i = 0; i < values.length; ++i) {
+                    int value = column[this.m_rows[i]];
+                    values[i] = (value == OCCTColumnarData.MISSING) ? missing : value;
+                }
+            } else {
+                for (int i = 0; i < values.length; ++i) {
+                    Instance instance = this.m_data.instance(i);
+                    values[i] = instance.isMissing(attributeIndex) ?
+                            missing : (int) instance.value(attributeIndex);
+                }
+            }
+            this.m_values[position] = values;
+        }
+        return this.m_values[position];
+    }
+
+    private int[] findPositionsWithClass() {
+        int[] classValues = this.values(this.m_classIndex);
+        int missing = this.m_data.attribute(this.m_attributesIndexes[this.m_classIndex])
+                .numValues();
+        int count = 0;
+        for (int value : classValues) {
+            if (value != missing) {
+                ++count;
+            }
+        }
+        int[] toReturn = new int[count];
+        count = 0;
+        for (int i = 0; i < classValues.length; ++i) {
+            if (classValues[i] != missing) {
+                toReturn[count++] = i;
+            }
+        }
+        return toReturn;
+    }
+
+    /**
+     * @return The cached correlation of two attributes (calculated if required)
+     */
+    private float getCorrelation(int larger, int smaller, int first, int second) {
+        if (this.m_corrMatrix[larger][smaller] == OCCTCfsSubsetEvaluator.NOT_CALCULATED) {
+            this.m_corrMatrix[larger][smaller] = (float) this.symmUncertCorr(first, second);
+        }
+        return this.m_corrMatrix[larger][smaller];
+    }
+
+    /**
+     * @return The correlation of an attribute and the class
+     */
+    private float getClassCorrelation(int position) {
+        if (position > this.m_classIndex) {
+            return this.getCorrelation(position, this.m_classIndex, position, this.m_classIndex);
+        }
+        return this.getCorrelation(this.m_classIndex, position, position, this.m_classIndex);
+    }
+
+    /**
+     * Calculates the symmetrical uncertainty of two attributes from their contingency table,
+     * where the counts of the missing values are distributed like in CfsSubsetEval
+     */
+    private double symmUncertCorr(int att1, int att2) {
+        boolean flag = (att1 == this.m_classIndex) || (att2 == this.m_classIndex);
+        int ni = this.m_data.attribute(this.m_attributesIndexes[att1]).numValues() + 1;
+        int nj = this.m_data.attribute(this.m_attributesIndexes[att2]).numValues() + 1;
+        double[][] counts = new double[ni][nj];
+        double[] sumi = new double[ni];
+        double[] sumj = new double[nj];
+        double sum = 0.0;
+        int[] values1 = this.values(att1);
+        int[] values2 = this.values(att2);
+        // Fill the contingency table
+        for (int position : this.m_positions) {
+            counts[values1[position]][values2[position]]++;
+        }
+        for (int i = 0; i < ni; ++i) {
+            for (int j = 0; j < nj; ++j) {
+                sumi[i] += counts[i][j];
+                sum += counts[i][j];
+            }
+        }
+        for (int j = 0; j < nj; ++j) {
+            for (int i = 0; i < ni; ++i) {
+                sumj[j] += counts[i][j];
+            }
+        }
+        int numInstances = this.m_positions.length;
+        // Distribute the missing counts
+        if ((sumi[ni - 1] < numInstances) && (sumj[nj - 1] < numInstances)) {
+            double[] iCopy = sumi.clone();
+            double[] jCopy = sumj.clone();
+            double[][] countsCopy = new double[ni][];
+            for (int i = 0; i < ni; ++i) {
+                countsCopy[i] = counts[i].clone();
+            }
+            double totalMissing = (sumi[ni - 1] + sumj[nj - 1] - counts[ni - 1][nj - 1]);
+            // The missing i's
+            if (sumi[ni - 1] > 0.0) {
+                for (int j = 0; j < nj - 1; ++j) {
+                    if (counts[ni - 1][j] > 0.0) {
+                        for (int i = 0; i < ni - 1; ++i) {
+                            double temp = ((iCopy[i] / (sum - iCopy[ni - 1])) *
+                                    counts[ni - 1][j]);
+                            counts[i][j] += temp;
+                            sumi[i] += temp;
+                        }
+                        counts[ni - 1][j] = 0.0;
+                    }
+                }
+            }
+            sumi[ni - 1] = 0.0;
+            // The missing j's
+            if (sumj[nj - 1] > 0.0) {
+                for (int i = 0; i < ni - 1; ++i) {
+                    if (counts[i][nj - 1] > 0.0) {
+                        for (int j = 0; j < nj - 1; ++j) {
+                            double temp = ((jCopy[j] / (sum - jCopy[nj - 1])) *
+                                    counts[i][nj - 1]);
+                            counts[i][j] += temp;
+                            sumj[j] += temp;
+                        }
+                        counts[i][nj - 1] = 0.0;
+                    }
+                }
+            }
+            sumj[nj - 1] = 0.0;
+            // Both are missing
+            if (counts[ni - 1][nj - 1] > 0.0 && totalMissing != sum) {
+                for (int i = 0; i < ni - 1; ++i) {
+                    for (int j = 0; j < nj - 1; ++j) {
+                        double temp = (countsCopy[i][j] / (sum - totalMissing)) *
+                                countsCopy[ni - 1][nj - 1];
+                        counts[i][j] += temp;
+                        sumi[i] += temp;
+                        sumj[j] += temp;
+                    }
+                }
+                counts[ni - 1][nj - 1] = 0.0;
+            }
+        }
+        double corrMeasure = ContingencyTables.symmetricalUncertainty(counts);
+        if (Utils.eq(corrMeasure, 0.0)) {
+            return flag ? 0.0 : 1.0;
+        }
+        return corrMeasure;
+    }
+
+    /**
+     * Evaluates a subset of the attributes (given by their positions)
+     *
+     * @return The merit of the subset
+     */
+    @Override
+    public double evaluateSubset(BitSet subset) throws Exception {
+        double num = 0.0;
+        double denom = 0.0;
+        // The standard deviations of nominal attributes are 1
+        for (int i = 0; i < this.m_numAttribs; ++i) {
+            if (i != this.m_classIndex && subset.get(i)) {
+                num += this.getClassCorrelation(i);
+            }
+        }
+        for (int i = 0; i < this.m_numAttribs; ++i) {
+            if (i != this.m_classIndex && subset.get(i)) {
+                denom += 1.0;
+                for (int j = 0; j < i; ++j) {
+                    if (subset.get(j)) {
+                        denom += 2.0 * this.getCorrelation(i, j, i, j);
+                    }
+                }
+            }
+        }
+        if (denom < 0.0) {
+            denom *= -1.0;
+        }
+        if (denom == 0.0) {
+            return 0.0;
+        }
+        double merit = num / Math.sqrt(denom);
+        if (merit < 0.0) {
+            merit *= -1.0;
+        }
+        return merit;
+    }
+
+    /**
+     * Adds the attributes which are locally predictive: the attributes whose correlation with
+     * the class is higher than their correlation with each of the selected attributes
+     */
+    private void addLocallyPredictive(BitSet bestGroup) {
+        BitSet tempGroup = (BitSet) bestGroup.clone();
+        while (true) {
+            double tempBest = -1.0;
+            int best = 0;
+            // Find the best attribute which isn't already in the group
+            for (int i = 0; i < this.m_numAttribs; ++i) {
+                if (!tempGroup.get(i) && i != this.m_classIndex) {
+                    float corr = this.getClassCorrelation(i);
+                    if (corr > tempBest) {
+                        tempBest = corr;
+                        best = i;
+                    }
+                }
+            }
+            if (tempBest == -1.0) {
+                return;
+            }
+            boolean ok = true;
+            tempGroup.set(best);
+            // Check the best attribute against its correlations with the selected ones
+            for (int i = 0; i < this.m_numAttribs; ++i) {
+                if (bestGroup.get(i)) {
+                    float corr = (i > best) ?
+                            this.getCorrelation(i, best, i, best) :
+                            this.getCorrelation(best, i, i, best);
+                    if (corr > tempBest) {
+                        ok = false;
+                        break;
+                    }
+                }
+            }
+            if (ok) {
+                bestGroup.set(best);
+            }
+        }
+    }
+
+    /**
+     * @return The given attributes with the locally predictive ones (sorted by their positions)
+     */
+    @Override
+    public int[] postProcess(int[] attributeSet) throws Exception {
+        BitSet bestGroup = new BitSet(this.m_numAttribs);
+        for (int position : attributeSet) {
+            bestGroup.set(position);
+        }
+        this.addLocallyPredictive(bestGroup);
+        int[] toReturn = new int[bestGroup.cardinality()];
+        int index = 0;
+        for (int i = 0; i < this.m_numAttribs; ++i) {
+            if (bestGroup.get(i)) {
+                toReturn[index++] = i;
+            }
+        }
+        return toReturn;
+    }
+
+    /**
+     * @return A header of the evaluated attributes, whose class is the class of the evaluator
+     *         (used by the search methods in order to know the number of the attributes)
+     */
+    public Instances getEvaluatedHeader() {
+        FastVector attributes = new FastVector(this.m_numAttribs);
+        for (int index : this.m_attributesIndexes) {
+            attributes.addElement((Attribute) this.m_data.attribute(index).copy());
+        }
+        Instances toReturn = new Instances(this.m_data.relationName(), attributes, 0);
+        toReturn.setClassIndex(this.m_classIndex);
+        return toReturn;
+    }
+
+    @Override
+    public String getRevision() {
+        return RevisionUtils.extract("$Revision: 1.0 $");
+    }
+}
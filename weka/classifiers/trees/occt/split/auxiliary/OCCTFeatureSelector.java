@@ -1,19 +1,13 @@
 package weka.classifiers.trees.occt.split.auxiliary;
 
-import weka.attributeSelection.ASEvaluation;
-import weka.attributeSelection.ASSearch;
 import weka.attributeSelection.BestFirst;
-import weka.attributeSelection.CfsSubsetEval;
+import weka.classifiers.trees.occt.utils.OCCTColumnarData;
+import weka.classifiers.trees.occt.utils.OCCTDiagnostics;
 import weka.core.Attribute;
 import weka.core.Instances;
-import weka.core.UnassignedClassException;
-import weka.filters.Filter;
-import weka.filters.supervised.attribute.AttributeSelection;
-import weka.filters.unsupervised.attribute.Remove;
 
 import java.io.Serializable;
 import java.util.Arrays;
-import java.util.Enumeration;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -25,16 +19,25 @@ public class OCCTFeatureSelector implements Serializable {
 
     private static final long serialVersionUID = -2596337180687583510L;
 
+    private static final String DIAGNOSTICS_SUBSYSTEM = "feature-selection";
+    private static final OCCTDiagnostics.Counter SELECT_COUNTER =
+            OCCTDiagnostics.counter(OCCTFeatureSelector.DIAGNOSTICS_SUBSYSTEM);
+
     private Attribute m_selectedSplittingAttribute;
     private List<Attribute> m_attributesOfB;
     private boolean m_isBuilt;
     private List<Attribute> m_selectedFeatures;
+    /** The indexes of the attributes of B (found a single time) **/
+    private int[] m_indexesOfB;
+    /** The features which are selected by a search from an empty subset (null if not selected) **/
+    private List<Attribute> m_unseededFeatures;
 
-    private static int[] B_INDEXES;
-
-    static {
-        OCCTFeatureSelector.B_INDEXES = null;
-    }
+    // The data of a deferred selection, which is kept only until the selector is released
+    private transient Instances m_instances;
+    private transient OCCTColumnarData m_columnarData;
+    private transient int[] m_rows;
+    /** The selector of the parent node, whose features seed the search (or null) **/
+    private transient OCCTFeatureSelector m_parent;
 
     public OCCTFeatureSelector(Attribute selectedSplittingAttribute,
                                List<Attribute> attributesOfB) {
@@ -56,17 +59,64 @@ public class OCCTFeatureSelector implements Serializable {
     public OCCTFeatureSelector(Attribute selectedSplittingAttribute,
                                List<Attribute> attributesOfB,
                                Instances instances) throws Exception {
+        this(selectedSplittingAttribute, attributesOfB, instances, null, null);
+    }
+
+    /**
+     * Like {@link #OCCTFeatureSelector(Attribute, List, Instances)}, where the values of the
+     * instances may be read from the encoded training set
+     *
+     * @param columnarData The encoded training set (or null)
+     * @param rows The rows of the instances in the encoded training set (null if unknown)
+     */
+    public OCCTFeatureSelector(Attribute selectedSplittingAttribute,
+                               List<Attribute> attributesOfB,
+                               Instances instances,
+                               OCCTColumnarData columnarData,
+                               int[] rows) throws Exception {
         this.m_selectedSplittingAttribute = selectedSplittingAttribute;
         this.m_attributesOfB = attributesOfB;
-        this.selectFeatures(instances);
+        this.selectFeatures(instances, columnarData, rows);
+    }
+
+    /**
+     * This constructor defers the feature selection until the selected features are first
+     * requested (see {@link #getSelectedFeatures()}), so no selection is performed for a node
+     * whose features are never used.
+     *
+     * The search of the deferred selection starts from the features which the parent selector
+     * selects (by a search from an empty subset) instead of starting from an empty subset. The
+     * given data is kept until {@link #release()} is called.
+     *
+     * @param selectedSplittingAttribute The splitting attribute by which the current dataset is
+     *                                   splitted
+     * @param attributesOfB The attributes of T_B
+     * @param instances The instances to select the features from (they mustn't be modified
+     *                  until the selector is released)
+     * @param columnarData The encoded training set (or null)
+     * @param rows The rows of the instances in the encoded training set (null if unknown)
+     * @param parent The selector of the parent node (null for the root)
+     */
+    public OCCTFeatureSelector(Attribute selectedSplittingAttribute,
+                               List<Attribute> attributesOfB,
+                               Instances instances,
+                               OCCTColumnarData columnarData,
+                               int[] rows,
+                               OCCTFeatureSelector parent) {
+        this.m_selectedSplittingAttribute = selectedSplittingAttribute;
+        this.m_attributesOfB = attributesOfB;
+        this.m_instances = instances;
+        this.m_columnarData = columnarData;
+        this.m_rows = rows;
+        this.m_parent = parent;
     }
 
     private int[] getIndexesOfAttributesOfB() {
-        if (OCCTFeatureSelector.B_INDEXES == null) {
+        if (this.m_indexesOfB == null) {
             // Find all the indexes of B's attributes (perform this a single time)
-            OCCTFeatureSelector.B_INDEXES = this.getIndexesFromAttributesList(this.m_attributesOfB);
+            this.m_indexesOfB = this.getIndexesFromAttributesList(this.m_attributesOfB);
         }
-        return OCCTFeatureSelector.B_INDEXES;
+        return this.m_indexesOfB;
     }
 
     private int[] getIndexesFromAttributesList(List<Attribute> attributes) {
@@ -95,43 +145,41 @@ public class OCCTFeatureSelector implements Serializable {
         return toReturn;
     }
 
-    private Instances removeAttributesOfA(Instances instances, Attribute ... except)
+    private List<Attribute> selectFeaturesEx(Instances instances, OCCTColumnarData columnarData,
+                                             int[] rows, List<Attribute> seed)
             throws Exception {
-        List<Attribute> exceptList = Arrays.asList(except);
-        // A filter to remove unnecessary columns
-        Remove rm = new Remove();
-        // Only the specified attributes are kept
-        rm.setInvertSelection(true);
-        // Only B attributes should remain (+ the exception list)
-        int[] joinedIndexes = this.joinArrays(this.getIndexesOfAttributesOfB(),
-                this.getIndexesFromAttributesList(exceptList));
-        Arrays.sort(joinedIndexes);
-        rm.setAttributeIndicesArray(joinedIndexes);
-        rm.setInputFormat(instances);
-        return Filter.useFilter(instances, rm);
-    }
-
-    private List<Attribute> selectFeaturesEx(Instances instances) throws Exception {
-        instances.setClass(this.m_selectedSplittingAttribute);
-        // Remove all except the splitting attribute (and attributes of B)
-        Instances withOnlyNecessaryAttributes =
-                this.removeAttributesOfA(instances, this.m_selectedSplittingAttribute);
-        System.out.println("Selecting " + withOnlyNecessaryAttributes.classAttribute());
-        AttributeSelection filter = new AttributeSelection();
-        ASEvaluation evaluator = new CfsSubsetEval();
-        ASSearch search = new BestFirst();
-        filter.setEvaluator(evaluator);
-        filter.setSearch(search);
-        filter.setInputFormat(withOnlyNecessaryAttributes);
-        Instances withSelectedAttributes = Filter.useFilter(withOnlyNecessaryAttributes, filter);
+        // Only the attributes of B and the splitting attribute (which is the class) are evaluated
+        int[] evaluatedIndexes = this.joinArrays(this.getIndexesOfAttributesOfB(),
+                new int[] {this.m_selectedSplittingAttribute.index()});
+        Arrays.sort(evaluatedIndexes);
+        int classPosition = Arrays.binarySearch(evaluatedIndexes,
+                this.m_selectedSplittingAttribute.index());
+        if (OCCTDiagnostics.isEnabled(OCCTDiagnostics.Level.DEBUG)) {
+            OCCTDiagnostics.log(OCCTDiagnostics.Level.DEBUG,
+                    OCCTFeatureSelector.DIAGNOSTICS_SUBSYSTEM,
+                    "Selecting " + instances.attribute(this.m_selectedSplittingAttribute.index()));
+        }
+        // The evaluator counts the values of the given instances (which aren't copied)
+        OCCTCfsSubsetEvaluator evaluator = new OCCTCfsSubsetEvaluator(instances, columnarData,
+                rows, evaluatedIndexes, classPosition);
+        BestFirst search = new BestFirst();
+        if (seed != null && !seed.isEmpty()) {
+            // The start set is given by the (1-based) positions of the attributes in the header
+            StringBuilder startSet = new StringBuilder();
+            for (Attribute attribute : seed) {
+                int position = Arrays.binarySearch(evaluatedIndexes, attribute.index());
+                if (position >= 0 && position != classPosition) {
+                    startSet.append((startSet.length() > 0) ? "," : "").append(position + 1);
+                }
+            }
+            search.setStartSet(startSet.toString());
+        }
+        int[] selected = evaluator.postProcess(
+                search.search(evaluator, evaluator.getEvaluatedHeader()));
         List<Attribute> toReturn = new LinkedList<Attribute>();
-        Enumeration attributesEnum = withSelectedAttributes.enumerateAttributes();
-        while (attributesEnum.hasMoreElements()) {
-            Attribute currentAttribute = (Attribute)attributesEnum.nextElement();
-            if (!currentAttribute.equals(this.m_selectedSplittingAttribute)) {
-                // Note that we take the real attribute from instance since the index of
-                // currentAttribute is wrong
-                toReturn.add(instances.attribute(currentAttribute.name()));
+        for (int position : selected) {
+            if (position != classPosition) {
+                toReturn.add(instances.attribute(evaluatedIndexes[position]));
             }
         }
         return toReturn;
@@ -141,35 +189,102 @@ public class OCCTFeatureSelector implements Serializable {
      * The feature selection process is executed on the leaf dataset in order to choose the
      * attributes that will be finally represented
      *
+     * The given instances are only read (the splitting attribute is the class of the evaluator,
+     * and not of the instances), so they may be safely shared by other threads
+     *
      * @param instances The instances to select the features from
      * @return A list of the selected attributes
      *
      * @throws Exception In case something failed during the feature selection process
      */
     public List<Attribute> selectFeatures(Instances instances) throws Exception {
-        Attribute previousClass = null;
-        try {
-            previousClass = instances.classAttribute();
-        } catch (UnassignedClassException e) {
-            // Do nothing
-        }
-        this.m_selectedFeatures = this.selectFeaturesEx(instances);
+        return this.selectFeatures(instances, null, null);
+    }
+
+    /**
+     * Like {@link #selectFeatures(Instances)}, where the values of the instances may be read
+     * from the encoded training set
+     *
+     * @param instances The instances to select the features from
+     * @param columnarData The encoded training set (or null)
+     * @param rows The rows of the instances in the encoded training set (null if unknown)
+     * @return A list of the selected attributes
+     *
+     * @throws Exception In case something failed during the feature selection process
+     */
+    public List<Attribute> selectFeatures(Instances instances, OCCTColumnarData columnarData,
+                                          int[] rows) throws Exception {
+        long start = OCCTFeatureSelector.SELECT_COUNTER.start();
+        this.m_selectedFeatures = this.selectFeaturesEx(instances, columnarData, rows, null);
+        this.m_unseededFeatures = this.m_selectedFeatures;
         this.m_isBuilt = true;
-        if (previousClass != null) {
-            instances.setClass(previousClass);
-        }
+        OCCTFeatureSelector.SELECT_COUNTER.stop(start);
         return this.m_selectedFeatures;
     }
 
     /**
-     * The function returns the currently selected features which are internally stored
+     * Returns the features which a search from an empty subset selects, which seed the searches
+     * of the child selectors (the selection is performed on the first call)
+     *
+     * @return A list of the selected features
+     *
+     * @throws IllegalStateException In case the features weren't selected and the data of the
+     *                               selector was already released
+     * @throws Exception In case something failed during the feature selection process
+     */
+    private synchronized List<Attribute> getUnseededFeatures() throws Exception {
+        if (this.m_unseededFeatures == null) {
+            if (this.m_instances == null) {
+                throw new IllegalStateException("Feature-Selector wasn't built");
+            }
+            long start = OCCTFeatureSelector.SELECT_COUNTER.start();
+            this.m_unseededFeatures = this.selectFeaturesEx(this.m_instances,
+                    this.m_columnarData, this.m_rows, null);
+            OCCTFeatureSelector.SELECT_COUNTER.stop(start);
+        }
+        return this.m_unseededFeatures;
+    }
+
+    /**
+     * Releases the data of a deferred selection. Afterwards, the features can be requested only
+     * if they were already selected
+     */
+    public synchronized void release() {
+        this.m_instances = null;
+        this.m_columnarData = null;
+        this.m_rows = null;
+        this.m_parent = null;
+    }
+
+    /**
+     * The function returns the currently selected features which are internally stored (a
+     * deferred selection is performed on the first call, and may be requested concurrently)
      *
      * @return A list of the selected features
-     * @throws IllegalStateException In case the feature selector wasn't built
+     * @throws IllegalStateException In case the feature selector wasn't built (and its data was
+     *                               released)
+     * @throws Exception In case something failed during a deferred feature selection
      */
-    public List<Attribute> getSelectedFeatures() throws IllegalStateException {
+    public synchronized List<Attribute> getSelectedFeatures() throws Exception {
         if (!this.m_isBuilt) {
-            throw new IllegalStateException("Feature-Selector wasn't built");
+            if (this.m_instances == null) {
+                throw new IllegalStateException("Feature-Selector wasn't built");
+            }
+            // The parent's features are selected from a superset of the instances, so the search
+            // starts from them (the parent's data is kept until this node is built)
+            List<Attribute> seed = null;
+            if (this.m_parent != null) {
+                seed = this.m_parent.getUnseededFeatures();
+            }
+            if (seed == null || seed.isEmpty()) {
+                this.m_selectedFeatures = this.getUnseededFeatures();
+            } else {
+                long start = OCCTFeatureSelector.SELECT_COUNTER.start();
+                this.m_selectedFeatures = this.selectFeaturesEx(this.m_instances,
+                        this.m_columnarData, this.m_rows, seed);
+                OCCTFeatureSelector.SELECT_COUNTER.stop(start);
+            }
+            this.m_isBuilt = true;
         }
         return this.m_selectedFeatures;
     }
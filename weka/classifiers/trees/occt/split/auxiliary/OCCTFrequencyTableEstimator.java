@@ -0,0 +1,197 @@
+package weka.classifiers.trees.occt.split.auxiliary;
+
+import weka.classifiers.trees.occt.utils.OCCTColumnarData;
+import weka.classifiers.trees.occt.utils.OCCTRowKey;
+import weka.classifiers.trees.occt.utils.OCCTRowKeyEncoder;
+import weka.core.Attribute;
+import weka.core.Instance;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Estimates the probability of each of the values of a record, given its other values, from
+ * frequency tables (a count-based alternative to the J48 models of {@link OCCTProbModelsHandler}).
+ *
+ * For each attribute b_j, P(b_j = v | rest = r) is estimated with Laplace smoothing as
+ * (count(v, r) + 1) / (count(r) + |b_j|), where rest are all the other modelled attributes. The
+ * only statistics kept are the counts of the distinct records, so an estimator is built by a
+ * single pass over its records and the marginal counts are derived from the distinct records
+ * only. A missing value of the rest is considered as a value of its own, while a record whose
+ * b_j is missing doesn't take part in the table of b_j.
+ */
+public class OCCTFrequencyTableEstimator implements Serializable {
+
+    private static final long serialVersionUID = -1832640956106387254L;
+
+    /** Encodes the values of the modelled attributes **/
+    private OCCTRowKeyEncoder m_encoder;
+    /** The number of values of each of the modelled attributes (in the order of encoding) **/
+    private int[] m_numValues;
+    /** The count of each of the distinct records **/
+    private Map<OCCTRowKey, int[]> m_counts;
+    /**
+     * For each attribute, the counts of the records without that attribute (built lazily, and
+     * published safely since the estimator of a leaf may be used by concurrent scorers)
+     **/
+    private volatile List<Map<OCCTRowKey, int[]>> m_marginalCounts;
+    private int m_numRecords;
+
+    /**
+     * Creates an empty estimator
+     *
+     * @param attributes The modelled attributes (all of them must be nominal)
+     */
+    public OCCTFrequencyTableEstimator(List<Attribute> attributes) {
+        this.m_encoder = new OCCTRowKeyEncoder(attributes);
+        this.m_numValues = new int[attributes.size()];
+        int index = 0;
+        for (Attribute attribute : attributes) {
+            this.m_numValues[index++] = attribute.numValues();
+        }
+        this.m_counts = new HashMap<OCCTRowKey, int[]>();
+        this.m_marginalCounts = null;
+        this.m_numRecords = 0;
+    }
+
+    /**
+     * Creates an empty estimator of the same attributes like the given estimator (the encoder
+     * of the records is shared by both of the estimators)
+     *
+     * @param template The estimator whose attributes should be modelled
+     */
+    public OCCTFrequencyTableEstimator(OCCTFrequencyTableEstimator template) {
+        this.m_encoder = template.m_encoder;
+        this.m_numValues = template.m_numValues;
+        this.m_counts = new HashMap<OCCTRowKey, int[]>();
+        this.m_marginalCounts = null;
+        this.m_numRecords = 0;
+    }
+
+    /**
+     * @param instance An instance to encode
+     *
+     * @return The key of the instance, which may be given to {@link #add(OCCTRowKey, int)}
+     */
+    public OCCTRowKey encode(Instance instance) {
+        return this.m_encoder.encode(instance);
+    }
+
+    /**
+     * @param data A columnar dataset (all the modelled attributes must have columns)
+     * @param row The row to encode
+     *
+     * @return The key of the row, which may be given to {@link #add(OCCTRowKey, int)}
+     */
+    public OCCTRowKey encode(OCCTColumnarData data, int row) {
+        return this.m_encoder.encode(data, row);
+    }
+
+    public void add(Instance instance) {
+        this.add(this.encode(instance), 1);
+    }
+
+    /**
+     * Adds records to the statistics of the estimator
+     *
+     * @param key The key of the records (created by {@link #encode(Instance)})
+     * @param count The number of records to add
+     */
+    public void add(OCCTRowKey key, int count) {
+        int[] current = this.m_counts.get(key);
+        if (current == null) {
+            this.m_counts.put(key, new int[] {count});
+        } else {
+            current[0] += count;
+        }
+        this.m_numRecords += count;
+        this.m_marginalCounts = null;
+    }
+
+    /**
+     * @return The number of records which were added to the estimator
+     */
+    public int numRecords() {
+        return this.m_numRecords;
+    }
+
+    private List<Map<OCCTRowKey, int[]>> getMarginalCounts() {
+        if (this.m_marginalCounts != null) {
+            return this.m_marginalCounts;
+        }
+        List<Map<OCCTRowKey, int[]>> marginalCounts =
+                new ArrayList<Map<OCCTRowKey, int[]>>(this.m_numValues.length);
+        for (int position = 0; position < this.m_numValues.length; ++position) {
+            Map<OCCTRowKey, int[]> currentCounts = new HashMap<OCCTRowKey, int[]>();
+            for (Map.Entry<OCCTRowKey, int[]> entry : this.m_counts.entrySet()) {
+                // Records whose value is missing don't take part in the table of the attribute
+                if (this.m_encoder.valueCode(entry.getKey(), position) == 0) {
+                    continue;
+                }
+                OCCTRowKey rest = this.m_encoder.withoutAttribute(entry.getKey(), position);
+                int[] current = currentCounts.get(rest);
+                if (current == null) {
+                    currentCounts.put(rest, new int[] {entry.getValue()[0]});
+                } else {
+                    current[0] += entry.getValue()[0];
+                }
+            }
+            marginalCounts.add(currentCounts);
+        }
+        this.m_marginalCounts = marginalCounts;
+        return marginalCounts;
+    }
+
+    /**
+     * Calculates the log-likelihood of a single record, whose count (in the statistics of the
+     * estimator) is given
+     */
+    private double logLikelihood(OCCTRowKey key, int count,
+                                 List<Map<OCCTRowKey, int[]>> marginalCounts) {
+        double toReturn = 0;
+        for (int position = 0; position < this.m_numValues.length; ++position) {
+            if (this.m_encoder.valueCode(key, position) == 0) {
+                continue;
+            }
+            int[] restCount = marginalCounts.get(position).get(
+                    this.m_encoder.withoutAttribute(key, position));
+            double denominator = (restCount == null ? 0 : restCount[0]) +
+                    this.m_numValues[position];
+            toReturn += Math.log10((count + 1) / denominator);
+        }
+        return toReturn;
+    }
+
+    /**
+     * Calculates the sum of the log-likelihoods of all the records of the estimator (the
+     * likelihood of each record is calculated once for all its appearances)
+     *
+     * @return The calculated sum
+     */
+    public double logLikelihood() {
+        List<Map<OCCTRowKey, int[]>> marginalCounts = this.getMarginalCounts();
+        double toReturn = 0;
+        for (Map.Entry<OCCTRowKey, int[]> entry : this.m_counts.entrySet()) {
+            int count = entry.getValue()[0];
+            toReturn += count * this.logLikelihood(entry.getKey(), count, marginalCounts);
+        }
+        return toReturn;
+    }
+
+    /**
+     * Calculates the log-likelihood of a single instance: the sum of the log-probabilities of
+     * each of its values, given the other ones
+     *
+     * @param instance The instance to calculate the log-likelihood for
+     *
+     * @return The calculated log-likelihood
+     */
+    public double logLikelihood(Instance instance) {
+        OCCTRowKey key = this.encode(instance);
+        int[] count = this.m_counts.get(key);
+        return this.logLikelihood(key, count == null ? 0 : count[0], this.getMarginalCounts());
+    }
+}
@@ -0,0 +1,169 @@
+package weka.classifiers.trees.occt.split.auxiliary;
+
+import weka.core.Attribute;
+import weka.core.Instance;
+import weka.core.Instances;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Finds the pairs of records (one from each of two sets) which are likely to be similar, using
+ * MinHash signatures and LSH banding.
+ *
+ * A record is represented by the set of its (attribute, value) elements over the given
+ * attributes (a missing value isn't an element). The signature of a record holds bands * rows
+ * MinHash values and two records are candidates if all the rows of at least one of the bands are
+ * equal. The probability of two records to become candidates is 1 - (1 - s^rows)^bands, where
+ * s is the Jaccard similarity of their sets, so more rows make the blocking stricter and more
+ * bands make it looser.
+ */
+public class OCCTMinHashBlocker {
+
+    private final int[] m_attributesIndexes;
+    /** The id of the first element of each attribute (the ids of its values are consecutive) **/
+    private final int[] m_elementsOffsets;
+    private final int m_bands;
+    private final int m_rows;
+    /** A seed for each of the hash functions **/
+    private final long[] m_seeds;
+
+    /**
+     * @param attributes The attributes whose values are the elements of the records
+     * @param bands The number of LSH bands
+     * @param rows The number of MinHash values in each band
+     * @param seed The seed of the hash functions
+     */
+    public OCCTMinHashBlocker(List<Attribute> attributes, int bands, int rows, long seed) {
+        this.m_attributesIndexes = new int[attributes.size()];
+        this.m_elementsOffsets = new int[attributes.size()];
+        int offset = 0;
+        int index = 0;
+        for (Attribute attribute : attributes) {
+            this.m_attributesIndexes[index] = attribute.index();
+            this.m_elementsOffsets[index] = offset;
+            offset += attribute.numValues();
+            ++index;
+        }
+        this.m_bands = bands;
+        this.m_rows = rows;
+        this.m_seeds = new long[bands * rows];
+        long current = seed;
+        for (int i = 0; i < this.m_seeds.length; ++i) {
+            current = OCCTMinHashBlocker.mix(current + 0x9E3779B97F4A7C15L);
+            this.m_seeds[i] = current;
+        }
+    }
+
+    /**
+     * A 64-bit finalizer (of MurmurHash3), used as a family of hash functions
+     */
+    private static long mix(long value) {
+        value ^= value >>> 33;
+        value *= 0xFF51AFD7ED558CCDL;
+        value ^= value >>> 33;
+        value *= 0xC4CEB93FE1A85EC9L;
+        value ^= value >>> 33;
+        return value;
+    }
+
+    /**
+     * Calculates the keys of the bands of a single record
+     */
+    private long[] bandsKeys(Instance instance) {
+        long[] signature = new long[this.m_seeds.length];
+        Arrays.fill(signature, Long.MAX_VALUE);
+        for (int i = 0; i < this.m_attributesIndexes.length; ++i) {
+            double value = instance.value(this.m_attributesIndexes[i]);
+            if (Instance.isMissingValue(value)) {
+                continue;
+            }
+            long element = this.m_elementsOffsets[i] + (long) value;
+            for (int k = 0; k < signature.length; ++k) {
+                long hash = OCCTMinHashBlocker.mix(element ^ this.m_seeds[k]);
+                if (hash < signature[k]) {
+                    signature[k] = hash;
+                }
+            }
+        }
+        long[] toReturn = new long[this.m_bands];
+        for (int band = 0; band < this.m_bands; ++band) {
+            long key = band;
+            for (int row = 0; row < this.m_rows; ++row) {
+                key = OCCTMinHashBlocker.mix(key * 31 + signature[band * this.m_rows + row]);
+            }
+            toReturn[band] = key;
+        }
+        return toReturn;
+    }
+
+    /**
+     * Groups the records of a set by the keys of their bands
+     *
+     * @return A map for each band, from a key to the indexes of the records which have it
+     */
+    private List<Map<Long, List<Integer>>> buildBuckets(Instances instances) {
+        List<Map<Long, List<Integer>>> toReturn = new ArrayList<Map<Long, List<Integer>>>();
+        for (int band = 0; band < this.m_bands; ++band) {
+            toReturn.add(new HashMap<Long, List<Integer>>());
+        }
+        for (int i = 0; i < instances.numInstances(); ++i) {
+            long[] keys = this.bandsKeys(instances.instance(i));
+            for (int band = 0; band < this.m_bands; ++band) {
+                List<Integer> bucket = toReturn.get(band).get(keys[band]);
+                if (bucket == null) {
+                    bucket = new ArrayList<Integer>();
+                    toReturn.get(band).put(keys[band], bucket);
+                }
+                bucket.add(i);
+            }
+        }
+        return toReturn;
+    }
+
+    /**
+     * Finds the candidate pairs of two sets of records
+     *
+     * @param i1 The first set of records
+     * @param i2 The second set of records
+     *
+     * @return The distinct candidate pairs, each one is encoded as
+     *         (index in i1) * |i2| + (index in i2), ordered by the index in i2
+     */
+    public long[] candidatePairs(Instances i1, Instances i2) {
+        long[] pairs = new long[16];
+        int numPairs = 0;
+        if (i1.numInstances() > 0 && i2.numInstances() > 0) {
+            // Only the first set is kept in buckets, the second one probes them
+            List<Map<Long, List<Integer>>> buckets = this.buildBuckets(i1);
+            long secondSize = i2.numInstances();
+            // The last record of i2 which was paired with each record of i1 (used in order to
+            // report a pair which collides in a few bands only once)
+            int[] lastPaired = new int[i1.numInstances()];
+            Arrays.fill(lastPaired, -1);
+            for (int j = 0; j < i2.numInstances(); ++j) {
+                long[] keys = this.bandsKeys(i2.instance(j));
+                for (int band = 0; band < this.m_bands; ++band) {
+                    List<Integer> bucket = buckets.get(band).get(keys[band]);
+                    if (bucket == null) {
+                        continue;
+                    }
+                    for (int i : bucket) {
+                        if (lastPaired[i] == j) {
+                            continue;
+                        }
+                        lastPaired[i] = j;
+                        if (numPairs == pairs.length) {
+                            pairs = Arrays.copyOf(pairs, pairs.length * 2);
+                        }
+                        pairs[numPairs++] = i * secondSize + j;
+                    }
+                }
+            }
+        }
+        return Arrays.copyOf(pairs, numPairs);
+    }
+}
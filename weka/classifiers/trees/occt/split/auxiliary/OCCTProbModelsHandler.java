@@ -1,19 +1,20 @@
 package weka.classifiers.trees.occt.split.auxiliary;
 
 import weka.classifiers.Classifier;
-import weka.classifiers.meta.FilteredClassifier;
 import weka.classifiers.trees.J48;
+import weka.classifiers.trees.occt.utils.OCCTDiagnostics;
+import weka.classifiers.trees.occt.utils.OCCTLRUCache;
+import weka.classifiers.trees.occt.utils.OCCTRowKey;
+import weka.classifiers.trees.occt.utils.OCCTRowKeyEncoder;
 import weka.core.Attribute;
 import weka.core.Instance;
 import weka.core.Instances;
-import weka.core.UnassignedClassException;
+import weka.filters.Filter;
 import weka.filters.unsupervised.attribute.Remove;
 
 import java.io.Serializable;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 /**
  * Created by sepetnit on 31/01/15.
@@ -21,35 +22,69 @@ import java.util.Map;
  */
 public class OCCTProbModelsHandler implements Serializable {
 
-    /** for serialization */
-    static final long serialVersionUID = -4813820170237218194L;
+    /**
+     * for serialization. Changed when the models were kept in an array (by the order of the
+     * attributes to build from) instead of a map, so models which were serialized with the map
+     * are rejected by an InvalidClassException and must be trained again
+     */
+    static final long serialVersionUID = -4813820170237218195L;
+
+    private static final String DIAGNOSTICS_SUBSYSTEM = "prob-models";
+    private static final OCCTDiagnostics.Counter BUILD_COUNTER =
+            OCCTDiagnostics.counter(OCCTProbModelsHandler.DIAGNOSTICS_SUBSYSTEM + ".build");
+    private static final OCCTDiagnostics.Counter LVALUE_COUNTER =
+            OCCTDiagnostics.counter(OCCTProbModelsHandler.DIAGNOSTICS_SUBSYSTEM + ".lvalue");
+    private static final OCCTDiagnostics.Counter CACHE_HIT_COUNTER =
+            OCCTDiagnostics.counter(OCCTProbModelsHandler.DIAGNOSTICS_SUBSYSTEM + ".cache-hit");
 
     OCCTProbModelBasicCreator m_probModelInitializer;
     private List<Attribute> m_attributesToBuildFrom;
     private int[] m_attributesToBuildFromIndexes;
     // Indicated whether the probabilistic models were created
     private boolean m_built;
-    // Models for each of the attributes of B, given other attributes
-    private Map<Attribute, Classifier> m_probabilisticModels;
+    // Models for each of the attributes of B, given other attributes (in the order of
+    // m_attributesToBuildFrom)
+    private Classifier[] m_probabilisticModels;
+    // The indexes of the attributes kept by the projection (sorted, like the Remove filter does)
+    private int[] m_projectedIndexes;
+    // For each model, the position of its class attribute in the projected instances
+    private int[] m_projectedClassPositions;
+    // For each model, the header of the projected instances whose class is the predicted attribute
+    private Instances[] m_projectedHeaders;
+    // The maximal number of cached L-values (0 disables the cache)
+    private int m_lValuesCacheSize;
+    // The L-values of recently scored records, keyed by their values of the attributes to build from
+    private transient volatile OCCTLRUCache<OCCTRowKey, Double> m_lValuesCache;
+    private transient volatile OCCTRowKeyEncoder m_lValuesCacheKeyEncoder;
 
     private void initializeAttributesIndexes() {
         int index = 0;
         // Find all the indexes of B's attributes (perform this a single time)
         this.m_attributesToBuildFromIndexes = new int[this.m_attributesToBuildFrom.size()];
         for (Attribute attribute : this.m_attributesToBuildFrom) {
-            System.out.println("Will build from " + attribute.index());
+            OCCTDiagnostics.log(OCCTDiagnostics.Level.TRACE,
+                    OCCTProbModelsHandler.DIAGNOSTICS_SUBSYSTEM,
+                    "Will build from %d", attribute.index());
             this.m_attributesToBuildFromIndexes[index++] = attribute.index();
         }
+        this.m_projectedIndexes = this.m_attributesToBuildFromIndexes.clone();
+        Arrays.sort(this.m_projectedIndexes);
+        this.m_projectedClassPositions = new int[this.m_attributesToBuildFromIndexes.length];
+        for (int i = 0; i < this.m_attributesToBuildFromIndexes.length; ++i) {
+            this.m_projectedClassPositions[i] = Arrays.binarySearch(this.m_projectedIndexes,
+                    this.m_attributesToBuildFromIndexes[i]);
+        }
     }
 
     public OCCTProbModelsHandler(List<Attribute> attributesToBuildFrom,
                                  OCCTProbModelBasicCreator probModelInitializer) {
         this.m_probModelInitializer = probModelInitializer;
         this.m_attributesToBuildFrom = attributesToBuildFrom;
-        this.m_probabilisticModels = new HashMap<Attribute,
-                Classifier>(this.m_attributesToBuildFrom.size());
+        this.m_probabilisticModels = new Classifier[this.m_attributesToBuildFrom.size()];
+        this.m_projectedHeaders = new Instances[this.m_attributesToBuildFrom.size()];
         this.initializeAttributesIndexes();
         this.m_built = false;
+        this.m_lValuesCacheSize = 0;
     }
 
 
@@ -59,9 +94,6 @@ public class OCCTProbModelsHandler implements Serializable {
 
     private Remove getRemoveFilter() {
         // A filter to remove unnecessary columns
-        // A new filter is required for each attribute since the class index is specified for
-        // the filter using the dataset and cannot be changed by the API of the filtered
-        // classifier
         Remove rm = new Remove();
         // Only the specified attributes are kept
         rm.setInvertSelection(true);
@@ -70,77 +102,166 @@ public class OCCTProbModelsHandler implements Serializable {
         return rm;
     }
 
-    private void buildModelsEx(Instances instances) throws Exception {
-        // First, let's remove the unnecessary attributes
+    /**
+     * Builds the models using the given instances.
+     *
+     * The instances are projected a single time on the attributes to build from and the
+     * class index is changed only on that private projection, so the given instances are never
+     * modified and may be shared by other threads.
+     *
+     * @param instances The instances to build the models from
+     *
+     * @throws Exception If one of the models can't be built
+     */
+    public void buildModels(Instances instances) throws Exception {
+        long start = OCCTProbModelsHandler.BUILD_COUNTER.start();
         this.m_built = false;
-        this.m_probabilisticModels.clear();
-        for (Attribute currentAttribute : this.m_attributesToBuildFrom) {
-            instances.setClass(currentAttribute);
-            FilteredClassifier filteredClassifier = new FilteredClassifier();
-            filteredClassifier.setFilter(this.getRemoveFilter());
-            filteredClassifier.setClassifier(
-                    this.m_probModelInitializer.getClassifierForProbModel());
-            // Here, the Remove filter learns the class index
-            filteredClassifier.buildClassifier(instances);
-            this.m_probabilisticModels.put(currentAttribute, filteredClassifier);
+        this.m_lValuesCache = null;
+        Remove rm = this.getRemoveFilter();
+        rm.setInputFormat(instances);
+        Instances projected = Filter.useFilter(instances, rm);
+        for (int i = 0; i < this.m_probabilisticModels.length; ++i) {
+            projected.setClassIndex(this.m_projectedClassPositions[i]);
+            Classifier currentClassifier = this.m_probModelInitializer.getClassifierForProbModel();
+            currentClassifier.buildClassifier(projected);
+            this.m_probabilisticModels[i] = currentClassifier;
+            this.m_projectedHeaders[i] = new Instances(projected, 0);
         }
         this.m_built = true;
+        OCCTProbModelsHandler.BUILD_COUNTER.stop(start);
     }
 
-    public void buildModels(Instances instances) throws Exception {
-        Attribute previousClass = null;
-        try {
-            previousClass = instances.classAttribute();
-        } catch (UnassignedClassException e) {
-            // Do nothing
-        }
-        this.buildModelsEx(instances);
-        if (previousClass != null) {
-            instances.setClass(previousClass);
-        }
+    /**
+     * @return Whether the models were built (see {@link #buildModels(Instances)})
+     */
+    public boolean isBuilt() {
+        return this.m_built;
+    }
+
+    public List<Attribute> getAttributesToBuildFrom() {
+        return this.m_attributesToBuildFrom;
     }
 
     public double calculateLValueForSingleInstance(Instance currentInstance) throws Exception {
         return this.calculateLValueForSingleInstance(currentInstance.dataset(), currentInstance);
     }
 
-    private double calculateLValueForSingleInstanceEx(Instances allInstances,
-                                                      Instance currentInstance) throws Exception {
-        double toReturn = 0;
+    /**
+     * Projects the values of an instance on the attributes to build from
+     *
+     * @param instance The instance to project
+     *
+     * @return The values of the projected instance
+     */
+    private double[] projectValues(Instance instance) {
+        double[] projectedValues = new double[this.m_projectedIndexes.length];
+        for (int i = 0; i < this.m_projectedIndexes.length; ++i) {
+            projectedValues[i] = instance.value(this.m_projectedIndexes[i]);
+        }
+        return projectedValues;
+    }
+
+    /**
+     * Sets the maximal number of L-values which are cached (the least recently used ones are
+     * evicted). The cache is keyed by the values of the attributes to build from, so repeated
+     * records are scored a single time.
+     *
+     * @param lValuesCacheSize The maximal number of cached L-values (0 disables the cache)
+     */
+    public void setLValuesCacheSize(int lValuesCacheSize) {
+        this.m_lValuesCacheSize = Math.max(lValuesCacheSize, 0);
+        this.m_lValuesCache = null;
+    }
+
+    public int getLValuesCacheSize() {
+        return this.m_lValuesCacheSize;
+    }
+
+    /**
+     * @return The counts of the cache of the L-values or null if no L-value was cached yet
+     */
+    public OCCTLRUCache.Statistics getLValuesCacheStatistics() {
+        OCCTLRUCache<OCCTRowKey, Double> cache = this.m_lValuesCache;
+        return cache == null ? null : cache.getStatistics();
+    }
+
+    /**
+     * @return The cache of the L-values (created on first use) or null if the cache is disabled
+     */
+    private OCCTLRUCache<OCCTRowKey, Double> getLValuesCache() {
+        if (this.m_lValuesCacheSize == 0) {
+            return null;
+        }
+        OCCTLRUCache<OCCTRowKey, Double> cache = this.m_lValuesCache;
+        if (cache == null) {
+            synchronized (this) {
+                cache = this.m_lValuesCache;
+                if (cache == null) {
+                    this.m_lValuesCacheKeyEncoder =
+                            new OCCTRowKeyEncoder(this.m_attributesToBuildFrom);
+                    cache = new OCCTLRUCache<OCCTRowKey, Double>(this.m_lValuesCacheSize);
+                    this.m_lValuesCache = cache;
+                }
+            }
+        }
+        return cache;
+    }
+
+    public double calculateLValueForSingleInstance(Instances allInstances,
+                                                   Instance currentInstance) throws Exception {
         // Build the models if the user forgot to call the buildModels() method
         if (!this.m_built) {
             this.buildModels(allInstances);
         }
-        for (Map.Entry<Attribute, Classifier> entry : this.m_probabilisticModels.entrySet()) {
-            Attribute currentAttribute = entry.getKey();
-            Classifier currentClassifier = entry.getValue();
-            allInstances.setClass(currentAttribute);
-            double[] dist = currentClassifier.distributionForInstance(currentInstance);
-            System.out.println("******** dist is " + Arrays.toString(dist) + " ******** ");
-            System.out.println(Arrays.toString(dist));
-            System.out.println(currentAttribute);
-            System.out.println(currentInstance);
-            System.out.println(currentAttribute.index());
-            System.out.println(currentInstance.stringValue(currentAttribute));
-            int valueIndex = currentAttribute.indexOfValue(
-                    currentInstance.stringValue(currentAttribute));
-            toReturn += Math.log10(dist[valueIndex]);
+        OCCTLRUCache<OCCTRowKey, Double> cache = this.getLValuesCache();
+        if (cache == null) {
+            return this.calculateLValueForProjection(this.projectValues(currentInstance));
         }
+        OCCTRowKey key = this.m_lValuesCacheKeyEncoder.encode(currentInstance);
+        Double cached = cache.get(key);
+        if (cached != null) {
+            OCCTProbModelsHandler.CACHE_HIT_COUNTER.increment();
+            return cached;
+        }
+        double toReturn = this.calculateLValueForProjection(this.projectValues(currentInstance));
+        cache.put(key, toReturn);
         return toReturn;
     }
 
-    public double calculateLValueForSingleInstance(Instances allInstances,
-                                                   Instance currentInstance) throws Exception {
-        Attribute previousClass = null;
-        try {
-            previousClass = allInstances.classAttribute();
-        } catch (UnassignedClassException e) {
-            // Do nothing
-        }
-        double toReturn = this.calculateLValueForSingleInstanceEx(allInstances, currentInstance);
-        if (previousClass != null) {
-            allInstances.setClass(previousClass);
+    /**
+     * Calculates the L-value of an instance which was already projected on the attributes to
+     * build from: the sum of the log-probabilities of each of its values, given the other ones
+     *
+     * @param projectedValues The values of the instance, in the order of the projected indexes
+     *
+     * @return The calculated L-value
+     *
+     * @throws Exception If one of the models fails to calculate a distribution
+     */
+    private double calculateLValueForProjection(double[] projectedValues) throws Exception {
+        double toReturn = 0;
+        long start = OCCTProbModelsHandler.LVALUE_COUNTER.start();
+        for (int i = 0; i < this.m_probabilisticModels.length; ++i) {
+            // The projected values are shared by all the models, only the header differs
+            Instance projectedInstance = new Instance(1.0, projectedValues);
+            projectedInstance.setDataset(this.m_projectedHeaders[i]);
+            double[] dist = this.m_probabilisticModels[i].distributionForInstance(
+                    projectedInstance);
+            double value = projectedValues[this.m_projectedClassPositions[i]];
+            if (Instance.isMissingValue(value)) {
+                throw new IllegalArgumentException("Can't calculate the likelihood of a missing "
+                        + "value of " + this.m_attributesToBuildFrom.get(i).name());
+            }
+            if (OCCTDiagnostics.isEnabled(OCCTDiagnostics.Level.TRACE)) {
+                OCCTDiagnostics.log(OCCTDiagnostics.Level.TRACE,
+                        OCCTProbModelsHandler.DIAGNOSTICS_SUBSYSTEM,
+                        "P(%s = %s | rest) = %f", this.m_attributesToBuildFrom.get(i).name(),
+                        this.m_attributesToBuildFrom.get(i).value((int) value),
+                        dist[(int) value]);
+            }
+            toReturn += Math.log10(dist[(int) value]);
         }
+        OCCTProbModelsHandler.LVALUE_COUNTER.stop(start);
         return toReturn;
     }
 
@@ -43,6 +43,7 @@ public class OCCTSplitModelFactory {
         OCCTSplitModelFactory.addClass(OCCTFineGrainedJaccardSplitModel.class);
         OCCTSplitModelFactory.addClass(OCCTLeastProbableIntersectionsSplitModel.class);
         OCCTSplitModelFactory.addClass(OCCTMaximumLikelihoodEstimationSplitModel.class);
+        OCCTSplitModelFactory.addClass(OCCTCountingMaximumLikelihoodEstimationSplitModel.class);
     }
 
     private static Class<? extends OCCTSingleAttributeSplitModel> getClass(String criterion) {
@@ -55,6 +56,24 @@ public class OCCTSplitModelFactory {
         return OCCTSplitModelFactory.VALID_SPLIT_MODELS.containsKey(nameToLookFor);
     }
 
+    /**
+     * Creates a split model with the given parameters
+     *
+     * @return The created model or null if the criterion is unknown
+     */
+    public static OCCTSingleAttributeSplitModel getSplitModel(String criterion,
+                                                              Attribute attr,
+                                                              List<Attribute> possibleAttributes,
+                                                              List<Attribute> attributesOfB,
+                                                              OCCTSplitModelParameters parameters) {
+        OCCTSingleAttributeSplitModel toReturn = OCCTSplitModelFactory.getSplitModel(criterion,
+                attr, possibleAttributes, attributesOfB);
+        if (toReturn != null && parameters != null) {
+            toReturn.setParameters(parameters);
+        }
+        return toReturn;
+    }
+
     //use getShape method to get object of type shape
     public static OCCTSingleAttributeSplitModel getSplitModel(String criterion,
                                                               Attribute attr,
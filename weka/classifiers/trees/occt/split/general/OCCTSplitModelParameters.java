@@ -0,0 +1,66 @@
+package weka.classifiers.trees.occt.split.general;
+
+import java.io.Serializable;
+
+/**
+ * The tunable parameters of the split models. A single object is created by the classifier and
+ * is shared (read-only) by the model selection and all the split models it creates.
+ */
+public class OCCTSplitModelParameters implements Serializable {
+
+    private static final long serialVersionUID = -5217486309327465108L;
+
+    /** Fine-Grained Jaccard blocking: cluster the records with SimpleKMeans **/
+    public static final int FGJ_BLOCKING_KMEANS = 0;
+    /** Fine-Grained Jaccard blocking: MinHash signatures with LSH banding **/
+    public static final int FGJ_BLOCKING_MINHASH = 1;
+    /** Fine-Grained Jaccard without blocking: all the pairs, aggregated from value counts **/
+    public static final int FGJ_BLOCKING_EXACT = 2;
+
+    /** The blocking engine which is used by Fine-Grained Jaccard for large sets of records **/
+    private int m_fgjBlocking = OCCTSplitModelParameters.FGJ_BLOCKING_KMEANS;
+    /** The number of LSH bands of the MinHash blocking **/
+    private int m_minHashBands = 8;
+    /** The number of MinHash rows in each LSH band **/
+    private int m_minHashRows = 2;
+    /** The seed of the MinHash functions **/
+    private long m_minHashSeed = 1;
+
+    public int getFGJBlocking() {
+        return this.m_fgjBlocking;
+    }
+
+    public void setFGJBlocking(int fgjBlocking) {
+        this.m_fgjBlocking = fgjBlocking;
+    }
+
+    public int getMinHashBands() {
+        return this.m_minHashBands;
+    }
+
+    public void setMinHashBands(int minHashBands) {
+        if (minHashBands <= 0) {
+            throw new IllegalArgumentException("The number of bands must be positive");
+        }
+        this.m_minHashBands = minHashBands;
+    }
+
+    public int getMinHashRows() {
+        return this.m_minHashRows;
+    }
+
+    public void setMinHashRows(int minHashRows) {
+        if (minHashRows <= 0) {
+            throw new IllegalArgumentException("The number of rows must be positive");
+        }
+        this.m_minHashRows = minHashRows;
+    }
+
+    public long getMinHashSeed() {
+        return this.m_minHashSeed;
+    }
+
+    public void setMinHashSeed(long minHashSeed) {
+        this.m_minHashSeed = minHashSeed;
+    }
+}
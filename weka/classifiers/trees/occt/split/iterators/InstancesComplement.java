@@ -0,0 +1,77 @@
+package weka.classifiers.trees.occt.split.iterators;
+
+import weka.core.Instance;
+import weka.core.Instances;
+
+/**
+ * A view of all the buckets of a split except one of them (the complement of that bucket).
+ *
+ * The instances of the complement aren't copied into a new set of instances unless a split model
+ * explicitly requires them to be (see {@link #toInstances()}), so models which score a bucket
+ * against its complement using statistics of the buckets don't pay for the copying.
+ */
+public class InstancesComplement {
+    protected Instances allInstances;
+    protected Instances[] buckets;
+    protected int excludedIndex;
+    /** The complement as a single set of instances (created on demand) */
+    private Instances materialized;
+
+    /**
+     * @param allInstances All the instances of the split (used as the header and for the sizes)
+     * @param buckets The buckets of the split
+     * @param excludedIndex The index of the bucket whose complement is viewed
+     */
+    public InstancesComplement(Instances allInstances, Instances[] buckets, int excludedIndex) {
+        this.allInstances = allInstances;
+        this.buckets = buckets;
+        this.excludedIndex = excludedIndex;
+    }
+
+    /**
+     * @return The number of instances in the complement
+     */
+    public int numInstances() {
+        return this.allInstances.numInstances() - this.buckets[this.excludedIndex].numInstances();
+    }
+
+    /**
+     * @return The index of the bucket which isn't a part of the complement
+     */
+    public int getExcludedIndex() {
+        return this.excludedIndex;
+    }
+
+    /**
+     * @return All the buckets of the split (including the excluded one)
+     */
+    public Instances[] getBuckets() {
+        return this.buckets;
+    }
+
+    /**
+     * Returns the complement as a single set of instances. In case the split has only two
+     * buckets, the other bucket is returned as is (and mustn't be modified), otherwise the
+     * instances are copied (only once) in the order of the buckets.
+     *
+     * @return The instances of the complement
+     */
+    public Instances toInstances() {
+        if (this.buckets.length == 2) {
+            return this.buckets[1 - this.excludedIndex];
+        }
+        if (this.materialized == null) {
+            Instances complement = new Instances(this.allInstances, this.numInstances());
+            for (int j = 0; j < this.buckets.length; ++j) {
+                if (j != this.excludedIndex) {
+                    for (int i = 0; i < this.buckets[j].numInstances(); ++i) {
+                        Instance current = this.buckets[j].instance(i);
+                        complement.add(current);
+                    }
+                }
+            }
+            this.materialized = complement;
+        }
+        return this.materialized;
+    }
+}
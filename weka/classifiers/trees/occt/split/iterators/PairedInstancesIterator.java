@@ -1,10 +1,9 @@
 package weka.classifiers.trees.occt.split.iterators;
 
 import weka.classifiers.trees.occt.utils.OCCTPair;
-import weka.core.Instance;
 import weka.core.Instances;
 
-import java.util.Enumeration;
+import java.util.NoSuchElementException;
 
 public class PairedInstancesIterator extends GeneralInstancesIterator {
 
@@ -23,32 +22,45 @@ public class PairedInstancesIterator extends GeneralInstancesIterator {
         return this.currentInstancesIndex < this.splittedInstances.length;
     }
 
-    public OCCTPair<OCCTPair<Instances, Instances>, Double> _next() {
-        OCCTPair<Instances, Instances> instancesPair;
-        OCCTPair<OCCTPair<Instances, Instances>, Double> toReturn;
+    /**
+     * i1 contains all instances with ai == d and i2 is a view of all instances with ai != d
+     */
+    private OCCTPair<OCCTPair<Instances, InstancesComplement>, Double> currentWithComplement() {
+        OCCTPair<Instances, InstancesComplement> instancesPair =
+                new OCCTPair<Instances, InstancesComplement>(
+                        this.splittedInstances[this.currentInstancesIndex],
+                        new InstancesComplement(this.allInstances, this.splittedInstances,
+                                this.currentInstancesIndex));
         // Treat a special case of only two elements in the array
-        if (this.splittedInstances.length == 2) {
-            instancesPair = new OCCTPair<Instances, Instances>(this.splittedInstances[0],
-                    this.splittedInstances[1]);
-            toReturn = new OCCTPair<OCCTPair<Instances, Instances>, Double>(instancesPair, 1.0);
-        } else {
-            // i1 contains all instances with ai == d and i2 contains all instances with ai != d
-            Instances i1 = new Instances(this.splittedInstances[this.currentInstancesIndex]);
-            Instances i2 = new Instances(this.allInstances, this.allInstances.numInstances() -
-                    i1.numInstances());
-            for (int j = 0; j < this.splittedInstances.length; ++j) {
-                if (j != this.currentInstancesIndex) {
-                    Enumeration currentSplittedEnum = this.splittedInstances[j].enumerateInstances();
-                    while (currentSplittedEnum.hasMoreElements()) {
-                        Instance current = (Instance) currentSplittedEnum.nextElement();
-                        i2.add(current);
-                    }
-                }
-            }
-            instancesPair = new OCCTPair<Instances, Instances>(i1, i2);
-            toReturn = new OCCTPair<OCCTPair<Instances, Instances>, Double>(instancesPair,
-                    this.calculateCurrentWeight());
+        double weight = 1.0;
+        if (this.splittedInstances.length != 2) {
+            weight = this.calculateCurrentWeight();
+        }
+        return new OCCTPair<OCCTPair<Instances, InstancesComplement>, Double>(instancesPair,
+                weight);
+    }
+
+    /**
+     * Like {@link #next()}, but the second set of instances is given as a view of the complement
+     * of the first one, which isn't copied unless it is explicitly required
+     */
+    public OCCTPair<OCCTPair<Instances, InstancesComplement>, Double> nextWithComplement() {
+        // Assure there is next element
+        if (!this.hasNext()) {
+            throw new NoSuchElementException();
         }
+        OCCTPair<OCCTPair<Instances, InstancesComplement>, Double> toReturn =
+                this.currentWithComplement();
+        ++this.currentInstancesIndex;
         return toReturn;
     }
+
+    public OCCTPair<OCCTPair<Instances, Instances>, Double> _next() {
+        OCCTPair<OCCTPair<Instances, InstancesComplement>, Double> current =
+                this.currentWithComplement();
+        OCCTPair<Instances, Instances> instancesPair = new OCCTPair<Instances, Instances>(
+                current.getFirst().getFirst(), current.getFirst().getSecond().toInstances());
+        return new OCCTPair<OCCTPair<Instances, Instances>, Double>(instancesPair,
+                current.getSecond());
+    }
 }
@@ -1,13 +1,18 @@
 package weka.classifiers.trees.occt.split.models;
 
 import weka.classifiers.trees.occt.split.auxiliary.OCCTSplitModelComparators;
+import weka.classifiers.trees.occt.split.iterators.InstancesComplement;
+import weka.classifiers.trees.occt.utils.OCCTRowKey;
 import weka.core.Attribute;
 import weka.core.Instance;
 import weka.core.Instances;
 
+import java.util.ArrayList;
 import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -31,25 +36,30 @@ public class OCCTCoarseGrainedJaccardSplitModel extends OCCTSingleAttributeSplit
                 OCCTSplitModelComparators.LOWEST_SCORE_CHOOSER;
     }
 
+    /** The distinct records of each of the buckets of the split which is currently scored **/
+    private transient List<Set<OCCTRowKey>> m_bucketsRecords;
+    /** The number of buckets which contain each distinct record of the split **/
+    private transient Map<OCCTRowKey, int[]> m_bucketsCountsOfRecords;
+
     public OCCTCoarseGrainedJaccardSplitModel(Attribute attr,
                                               List<Attribute> possibleAttributes,
                                               List<Attribute> attributesOfB) {
         super(attr, possibleAttributes, attributesOfB);
     }
 
-    private Set<String> getDistinctInstancesRepresentations(Instances instances) {
-        Set<String> union = new HashSet<String>();
+    private Set<OCCTRowKey> getDistinctInstancesRepresentations(Instances instances) {
+        Set<OCCTRowKey> union = new HashSet<OCCTRowKey>();
         // Calculate the distance between each pair of instances
         Enumeration instancesEnum = instances.enumerateInstances();
         while (instancesEnum.hasMoreElements()) {
             Instance current = (Instance) instancesEnum.nextElement();
-            union.add(this.buildAttrValuesString(current));
+            union.add(this.buildAttrValuesKey(current));
         }
         return union;
     }
 
     private int getUnionSize(Instances i1, Instances i2) {
-        Set<String> union = new HashSet<String>();
+        Set<OCCTRowKey> union = new HashSet<OCCTRowKey>();
         union.addAll(this.getDistinctInstancesRepresentations(i1));
         union.addAll(this.getDistinctInstancesRepresentations(i2));
         return union.size();
@@ -67,4 +77,61 @@ public class OCCTCoarseGrainedJaccardSplitModel extends OCCTSingleAttributeSplit
         }
         return 0;
     }
+
+    @Override
+    protected void prepareBuckets(Instances allInstances, Instances[] buckets) {
+        this.m_bucketsRecords = new ArrayList<Set<OCCTRowKey>>(buckets.length);
+        this.m_bucketsCountsOfRecords = new HashMap<OCCTRowKey, int[]>();
+        for (int b = 0; b < buckets.length; ++b) {
+            Set<OCCTRowKey> records;
+            if (this.m_bucketsRows != null) {
+                // Scan the encoded rows of the bucket instead of its instances
+                records = new HashSet<OCCTRowKey>();
+                for (int row : this.m_bucketsRows[b]) {
+                    records.add(this.buildAttrValuesKey(allInstances, row, false));
+                }
+            } else {
+                records = this.getDistinctInstancesRepresentations(buckets[b]);
+            }
+            this.m_bucketsRecords.add(records);
+            for (OCCTRowKey record : records) {
+                int[] count = this.m_bucketsCountsOfRecords.get(record);
+                if (count == null) {
+                    count = new int[1];
+                    this.m_bucketsCountsOfRecords.put(record, count);
+                }
+                ++count[0];
+            }
+        }
+    }
+
+    @Override
+    protected void releaseBuckets() {
+        this.m_bucketsRecords = null;
+        this.m_bucketsCountsOfRecords = null;
+    }
+
+    /**
+     * Scores a bucket against its complement without copying it: a record of the bucket is in
+     * the intersection if some other bucket contains it too, and the union contains all the
+     * distinct records of the split
+     */
+    @Override
+    protected double calculateSplitScoreAgainstComplement(Instances bucket,
+                                                          InstancesComplement complement) {
+        // Handle empty case
+        if (bucket.numInstances() == 0 || complement.numInstances() == 0) {
+            return 0;
+        }
+        int intersectionSize = 0;
+        for (OCCTRowKey record : this.m_bucketsRecords.get(complement.getExcludedIndex())) {
+            if (this.m_bucketsCountsOfRecords.get(record)[0] > 1) {
+                ++intersectionSize;
+            }
+        }
+        if (intersectionSize > 0) {
+            return intersectionSize / (double) this.m_bucketsCountsOfRecords.size();
+        }
+        return 0;
+    }
 }
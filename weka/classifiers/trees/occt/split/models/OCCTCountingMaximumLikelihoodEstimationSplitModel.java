@@ -0,0 +1,155 @@
+package weka.classifiers.trees.occt.split.models;
+
+import weka.classifiers.trees.occt.split.auxiliary.OCCTFrequencyTableEstimator;
+import weka.classifiers.trees.occt.split.auxiliary.OCCTSplitModelComparators;
+import weka.classifiers.trees.occt.split.iterators.GeneralInstancesIterator;
+import weka.classifiers.trees.occt.split.iterators.SingleInstancesPairIterator;
+import weka.classifiers.trees.occt.utils.OCCTDiagnostics;
+import weka.core.Attribute;
+import weka.core.Instance;
+import weka.core.Instances;
+
+import java.util.Enumeration;
+import java.util.List;
+
+/**
+ * A Maximum-Likelihood Estimation split whose probabilistic models are frequency tables instead
+ * of J48 trees (see {@link OCCTFrequencyTableEstimator}).
+ *
+ * The score is the same like in {@link OCCTMaximumLikelihoodEstimationSplitModel}: the sum, over
+ * the subsets of the split, of the log-likelihoods of the records of each subset given models
+ * which were induced from that subset. Since the models are counts only, the statistics of all
+ * the subsets are gathered by a single pass over the records and no classifier is ever built.
+ */
+public class OCCTCountingMaximumLikelihoodEstimationSplitModel
+        extends OCCTSingleAttributeSplitModel {
+
+    private static final long serialVersionUID = 7019824516237762410L;
+
+    static {
+        OCCTCountingMaximumLikelihoodEstimationSplitModel.SCORES_COMPARATOR =
+                OCCTSplitModelComparators.HIGHEST_SCORE_CHOOSER;
+    }
+
+    public OCCTCountingMaximumLikelihoodEstimationSplitModel(Attribute splittingAttribute,
+                                                             List<Attribute> possibleAttributes,
+                                                             List<Attribute> attributesOfB) {
+        super(splittingAttribute, possibleAttributes, attributesOfB);
+    }
+
+    /**
+     * Gathers the statistics of all the subsets of the split by a single pass over the records
+     * and sums the log-likelihoods of the subsets (all of them have the same weight)
+     *
+     * @param trainInstances The instances for which the split score should be calculated
+     *
+     * @return The calculated score
+     */
+    @Override
+    protected double handleEnumeratedAttribute(Instances trainInstances) throws Exception {
+        OCCTFrequencyTableEstimator template =
+                new OCCTFrequencyTableEstimator(this.m_attributesOfB);
+        OCCTFrequencyTableEstimator[] estimators =
+                new OCCTFrequencyTableEstimator[this.m_splittingAttribute.numValues()];
+        int nonEmpty = 0;
+        if (this.hasColumnarData(trainInstances)) {
+            // Scan the encoded rows instead of the instances
+            int[] column = this.m_columnarData.column(this.m_splittingAttribute.index());
+            for (int row : this.m_rows) {
+                int value = Math.max(column[row], 0);
+                if (estimators[value] == null) {
+                    estimators[value] = new OCCTFrequencyTableEstimator(template);
+                    ++nonEmpty;
+                }
+                estimators[value].add(template.encode(this.m_columnarData, row), 1);
+            }
+        } else {
+            Enumeration<?> instancesEnum = trainInstances.enumerateInstances();
+            while (instancesEnum.hasMoreElements()) {
+                Instance currentInstance = (Instance) instancesEnum.nextElement();
+                // Like the split of the instances, a missing value goes to the first subset
+                int value = (int) currentInstance.value(this.m_splittingAttribute);
+                if (estimators[value] == null) {
+                    estimators[value] = new OCCTFrequencyTableEstimator(template);
+                    ++nonEmpty;
+                }
+                estimators[value].add(template.encode(currentInstance), 1);
+            }
+        }
+        if (nonEmpty <= 1) {
+            OCCTDiagnostics.log(OCCTDiagnostics.Level.TRACE,
+                    OCCTSingleAttributeSplitModel.DIAGNOSTICS_SUBSYSTEM,
+                    "Invalid model for %s", this.m_splittingAttribute.name());
+            // The model is invalid (like in the base class)
+            throw new NullPointerException();
+        }
+        return this.sumLogLikelihoods(estimators);
+    }
+
+    private double sumLogLikelihoods(OCCTFrequencyTableEstimator[] estimators) {
+        double toReturn = 0;
+        for (OCCTFrequencyTableEstimator estimator : estimators) {
+            if (estimator != null) {
+                toReturn += estimator.logLikelihood();
+            }
+        }
+        OCCTDiagnostics.log(OCCTDiagnostics.Level.DEBUG,
+                OCCTSingleAttributeSplitModel.DIAGNOSTICS_SUBSYSTEM,
+                "Overall split score for %s is %s", this.m_splittingAttribute.name(), toReturn);
+        return toReturn;
+    }
+
+    /**
+     * Builds the model from the statistics of the subsets of the split, which were gathered
+     * without keeping the instances (see {@link #handleEnumeratedAttribute(Instances)} for the
+     * score). The model is invalid unless at least two of the subsets have records.
+     *
+     * @param estimators The statistics of the records of each of the values of the splitting
+     *                   attribute (null or empty for a value without records)
+     */
+    public void buildClassifier(OCCTFrequencyTableEstimator[] estimators) {
+        int nonEmpty = 0;
+        for (OCCTFrequencyTableEstimator estimator : estimators) {
+            if (estimator != null && estimator.numRecords() > 0) {
+                ++nonEmpty;
+            }
+        }
+        this.buildFromScore((nonEmpty <= 1) ? null : this.sumLogLikelihoods(estimators));
+    }
+
+    /**
+     * @return Whether the modelled attributes of B are encoded as well
+     */
+    @Override
+    protected boolean hasColumnarData(Instances instances) {
+        if (!super.hasColumnarData(instances)) {
+            return false;
+        }
+        for (Attribute currentAttr : this.m_attributesOfB) {
+            if (!this.m_columnarData.hasColumn(currentAttr.index())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    protected double calculateSplitScore(Instances i1, Instances i2) throws Exception {
+        // Let's assert that the second instance is null
+        // (since we calculate score for a single instance only in MLE)
+        assert (i2 == null);
+        OCCTFrequencyTableEstimator estimator =
+                new OCCTFrequencyTableEstimator(this.m_attributesOfB);
+        Enumeration<?> instancesEnum = i1.enumerateInstances();
+        while (instancesEnum.hasMoreElements()) {
+            estimator.add((Instance) instancesEnum.nextElement());
+        }
+        return estimator.logLikelihood();
+    }
+
+    @Override
+    protected GeneralInstancesIterator getInstancesSetsIterator(
+            Instances trainInstances, Instances[] splittedTrainInstances) {
+        return new SingleInstancesPairIterator(trainInstances, splittedTrainInstances);
+    }
+}
@@ -1,6 +1,10 @@
 package weka.classifiers.trees.occt.split.models;
 
+import weka.classifiers.trees.occt.split.auxiliary.OCCTMinHashBlocker;
 import weka.classifiers.trees.occt.split.auxiliary.OCCTSplitModelComparators;
+import weka.classifiers.trees.occt.split.general.OCCTSplitModelParameters;
+import weka.classifiers.trees.occt.split.iterators.InstancesComplement;
+import weka.classifiers.trees.occt.utils.OCCTDiagnostics;
 import weka.classifiers.trees.occt.utils.OCCTPair;
 import weka.clusterers.Clusterer;
 import weka.clusterers.SimpleKMeans;
@@ -12,7 +16,6 @@ import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.logging.Logger;
 
 /**
  * Created by sepetnit on 17/01/15.
@@ -31,52 +34,39 @@ public class OCCTFineGrainedJaccardSplitModel extends OCCTSingleAttributeSplitMo
                 OCCTSplitModelComparators.LOWEST_SCORE_CHOOSER;
     }
 
-    // Logger will not be serialized!
-    private transient Logger logger;
+    /** The compared attributes of the split which is currently scored **/
+    private transient List<Attribute> m_comparedAttributes;
+    /** The number of appearances of each value of each compared attribute in all the buckets **/
+    private transient long[][] m_valuesCounts;
 
     public OCCTFineGrainedJaccardSplitModel(Attribute splittingAttribute,
                                             List<Attribute> possibleAttributes,
                                             List<Attribute> attributesOfB) {
         super(splittingAttribute, possibleAttributes, attributesOfB);
-        // For debugging issues initialize this logger
-        this.logger = Logger.getLogger(Logger.GLOBAL_LOGGER_NAME);
     }
 
     /**
-     * This function calculates the intersection between two instances. Which means, all the
-     * attributes that have same values and does not contain null
+     * Calculates the size of the intersection between two instances: the number of the possible
+     * attributes (except the splitting attribute) whose values are the same in both of the
+     * instances and aren't missing
      *
      * @param i1 The first instance
      * @param i2 The second instance
      *
-     * @return The set of attributes that contain the same values in both of the instances
+     * @return The size of the intersection
      */
-    private List<Attribute> calculateIntersection(Instance i1, Instance i2) {
-        List<Attribute> intersection = new LinkedList<Attribute>();
+    private int calculateIntersectionSize(Instance i1, Instance i2) {
+        int toReturn = 0;
         for (Attribute currentAttr : this.m_possibleAttributes) {
             if (!currentAttr.equals(this.m_splittingAttribute)) {
-                // It is sufficient to check only if the attribute is missing in the first instance
-                if (!i1.isMissing(currentAttr) && !i2.isMissing(currentAttr) &&
-                        (i1.stringValue(currentAttr).equals(i2.stringValue(currentAttr)))) {
-                    intersection.add(currentAttr);
+                // Both of the instances share the header, so equal values have equal indexes
+                double value = i1.value(currentAttr);
+                if (!Instance.isMissingValue(value) && value == i2.value(currentAttr)) {
+                    ++toReturn;
                 }
             }
         }
-        return intersection;
-    }
-
-    /**
-     * Calculates the size of the intersection between two instances.
-     *
-     * {@see calculateIntersection()}
-     *
-     * @param i1 The first instance
-     * @param i2 The second instance
-     *
-     * @return The size of the intersection
-     */
-    private int calculateIntersectionSize(Instance i1, Instance i2) {
-        return this.calculateIntersection(i1, i2).size();
+        return toReturn;
     }
 
 
@@ -122,6 +112,8 @@ public class OCCTFineGrainedJaccardSplitModel extends OCCTSingleAttributeSplitMo
      */
     private Instances joinInstances(Instances i1, Instances i2) {
         Instances toReturn = new Instances(i1);
+        // SimpleKMeans can't handle a class attribute (it is cleared on the copy only)
+        toReturn.setClassIndex(-1);
         Enumeration i2Enum = i2.enumerateInstances();
         while (i2Enum.hasMoreElements()) {
             Instance currentI2Instance = (Instance)i2Enum.nextElement();
@@ -192,7 +184,8 @@ public class OCCTFineGrainedJaccardSplitModel extends OCCTSingleAttributeSplitMo
         }
     }
 
-    private DataForSingleCluster[] clusterInstances(Instances i1, Instances i2) {
+    private DataForSingleCluster[] clusterInstances(Instances i1, Instances i2)
+            throws Exception {
         // This is the array which should be returned (contains single element for each cluster)
         DataForSingleCluster[] toReturn =
                 new DataForSingleCluster[OCCTFineGrainedJaccardSplitModel.NUM_OF_CLUSTERS];
@@ -200,22 +193,16 @@ public class OCCTFineGrainedJaccardSplitModel extends OCCTSingleAttributeSplitMo
         Instances joinedInstances = this.joinInstances(i1, i2);
         // TODO: Maybe allow various clustering algorithms
         SimpleKMeans kMeansClusterer = new SimpleKMeans();
-        try {
-            // Build the clusterer using the joined instances
-            kMeansClusterer.setNumClusters(OCCTFineGrainedJaccardSplitModel.NUM_OF_CLUSTERS);
-            kMeansClusterer.buildClusterer(joinedInstances);
-            // Initialize the array to return
-            for (int i = 0; i < toReturn.length; ++i) {
-                toReturn[i] = new DataForSingleCluster(i);
-            }
-            // Now, go over all the instances and separate them according their clustering result
-            this.clusterSingleInstances(i1, true, kMeansClusterer, toReturn);
-            this.clusterSingleInstances(i2, false, kMeansClusterer, toReturn);
-        } catch (Exception e) {
-            // TODO: What should we do in this case?
-            e.printStackTrace();
-            System.exit(-1);
+        // Build the clusterer using the joined instances (a failure fails the model)
+        kMeansClusterer.setNumClusters(OCCTFineGrainedJaccardSplitModel.NUM_OF_CLUSTERS);
+        kMeansClusterer.buildClusterer(joinedInstances);
+        // Initialize the array to return
+        for (int i = 0; i < toReturn.length; ++i) {
+            toReturn[i] = new DataForSingleCluster(i);
         }
+        // Now, go over all the instances and separate them according their clustering result
+        this.clusterSingleInstances(i1, true, kMeansClusterer, toReturn);
+        this.clusterSingleInstances(i2, false, kMeansClusterer, toReturn);
         return toReturn;
     }
 
@@ -294,12 +281,224 @@ public class OCCTFineGrainedJaccardSplitModel extends OCCTSingleAttributeSplitMo
             totalSumOfScores += internalSplitScoreElements.getFirst();
             totalNumOfComparisons += internalSplitScoreElements.getSecond();
         }
-        logger.fine("TOTAL " + totalSumOfScores / (double) totalNumOfComparisons);
+        // No cluster contains records of both of the sets, so no pair is similar
+        if (totalNumOfComparisons == 0) {
+            return 0;
+        }
+        OCCTDiagnostics.log(OCCTDiagnostics.Level.TRACE,
+                OCCTSingleAttributeSplitModel.DIAGNOSTICS_SUBSYSTEM,
+                "TOTAL %s", totalSumOfScores / (double) totalNumOfComparisons);
         return totalSumOfScores / (double)totalNumOfComparisons;
     }
 
+    /**
+     * Calculates the split score by comparing only the pairs of records which are found to be
+     * similar by MinHash/LSH blocking (see {@link OCCTMinHashBlocker})
+     *
+     * @param i1 The first set of instances
+     * @param i2 The second set of instances
+     *
+     * @return The average similarity of the compared pairs (0 if no pair was compared)
+     */
+    protected double calculateSplitScoreUsingMinHash(Instances i1, Instances i2) {
+        List<Attribute> attributes = new ArrayList<Attribute>();
+        for (Attribute currentAttr : this.m_possibleAttributes) {
+            if (!currentAttr.equals(this.m_splittingAttribute)) {
+                attributes.add(currentAttr);
+            }
+        }
+        OCCTMinHashBlocker blocker = new OCCTMinHashBlocker(attributes,
+                this.m_parameters.getMinHashBands(), this.m_parameters.getMinHashRows(),
+                this.m_parameters.getMinHashSeed());
+        long[] pairs = blocker.candidatePairs(i1, i2);
+        if (pairs.length == 0) {
+            return 0;
+        }
+        double sumOfScores = 0;
+        long secondSize = i2.numInstances();
+        for (long pair : pairs) {
+            sumOfScores += this.calculateSplitScoreForInstancesPair(
+                    i1.instance((int) (pair / secondSize)), i2.instance((int) (pair % secondSize)));
+        }
+        OCCTDiagnostics.log(OCCTDiagnostics.Level.TRACE,
+                OCCTSingleAttributeSplitModel.DIAGNOSTICS_SUBSYSTEM,
+                "Compared %d of %d pairs", pairs.length, i1.numInstances() * secondSize);
+        return sumOfScores / pairs.length;
+    }
+
+    /**
+     * @return Whether some of the compared attributes (all the possible attributes except the
+     *         splitting one) are missing in some of the records
+     */
+    private boolean hasMissingValues(Instances instances) {
+        for (Attribute currentAttr : this.m_possibleAttributes) {
+            if (!currentAttr.equals(this.m_splittingAttribute)) {
+                for (int i = 0; i < instances.numInstances(); ++i) {
+                    if (instances.instance(i).isMissing(currentAttr)) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Calculates the exact split score (the average similarity of all the pairs of records) from
+     * the counts of the values in each of the sets.
+     *
+     * The size of the union is the same for all the pairs, so the sum of the similarities is the
+     * sum of the intersections divided by it, and each value of an attribute contributes
+     * (count in i1) * (count in i2) to the sum of the intersections. Hence, the score is found in
+     * O(n*k) time instead of O(n1*n2*k).
+     *
+     * @param i1 The first set of instances (with no missing values)
+     * @param i2 The second set of instances (with no missing values)
+     *
+     * @return The average similarity of all the pairs (NaN if one of the sets is empty)
+     */
+    protected double calculateSplitScoreUsingValueCounts(Instances i1, Instances i2) {
+        long comparisonsCount = (long) i1.numInstances() * i2.numInstances();
+        long sumOfIntersections = 0;
+        for (Attribute currentAttr : this.m_possibleAttributes) {
+            if (!currentAttr.equals(this.m_splittingAttribute)) {
+                long[] counts = new long[Math.max(currentAttr.numValues(), 1)];
+                for (int i = 0; i < i1.numInstances(); ++i) {
+                    ++counts[(int) i1.instance(i).value(currentAttr)];
+                }
+                for (int i = 0; i < i2.numInstances(); ++i) {
+                    sumOfIntersections += counts[(int) i2.instance(i).value(currentAttr)];
+                }
+            }
+        }
+        if (comparisonsCount == 0) {
+            return Double.NaN;
+        }
+        // No need to calculate union if no pair intersects (like the pairwise calculation)
+        if (sumOfIntersections == 0) {
+            return 0;
+        }
+        int unionSize = this.calculateUnionSize(i1.instance(0), i2.instance(0));
+        return sumOfIntersections / (double) unionSize / (double) comparisonsCount;
+    }
+
+    /**
+     * @return Whether the exact (aggregated) score should be used for sets of instances of the
+     *         given total size
+     */
+    private boolean shouldUseValueCounts(int totalNumInstances) {
+        return totalNumInstances < OCCTFineGrainedJaccardSplitModel.NUM_OF_CLUSTERS ||
+                this.m_parameters.getFGJBlocking() == OCCTSplitModelParameters.FGJ_BLOCKING_EXACT;
+    }
+
+    /**
+     * Returns the value indexes of an attribute in a set of instances, which are read from the
+     * encoded training set if the rows of the instances are given
+     *
+     * @param instances The set of instances
+     * @param rows The rows of the instances in the encoded training set (or null)
+     * @param attribute The attribute whose values are required
+     *
+     * @return The index of the value of each instance (-1 for a missing value)
+     */
+    private int[] valuesOf(Instances instances, int[] rows, Attribute attribute) {
+        int[] toReturn = new int[instances.numInstances()];
+        if (rows != null) {
+            int[] column = this.m_columnarData.column(attribute.index());
+            for (int i = 0; i < toReturn.length; ++i) {
+                toReturn[i] = column[rows[i]];
+            }
+        } else {
+            for (int i = 0; i < toReturn.length; ++i) {
+                Instance current = instances.instance(i);
+                toReturn[i] = current.isMissing(attribute) ? -1 : (int) current.value(attribute);
+            }
+        }
+        return toReturn;
+    }
+
+    @Override
+    protected void prepareBuckets(Instances allInstances, Instances[] buckets) {
+        if (!this.shouldUseValueCounts(allInstances.numInstances())) {
+            return;
+        }
+        int[] rows = (this.m_bucketsRows != null) ? this.m_rows : null;
+        List<Attribute> comparedAttributes = new ArrayList<Attribute>();
+        for (Attribute currentAttr : this.m_possibleAttributes) {
+            if (!currentAttr.equals(this.m_splittingAttribute)) {
+                comparedAttributes.add(currentAttr);
+            }
+        }
+        long[][] valuesCounts = new long[comparedAttributes.size()][];
+        for (int a = 0; a < valuesCounts.length; ++a) {
+            Attribute currentAttr = comparedAttributes.get(a);
+            long[] counts = new long[Math.max(currentAttr.numValues(), 1)];
+            for (int value : this.valuesOf(allInstances, rows, currentAttr)) {
+                // Pairs of records with missing values are compared one by one
+                if (value < 0) {
+                    return;
+                }
+                ++counts[value];
+            }
+            valuesCounts[a] = counts;
+        }
+        this.m_comparedAttributes = comparedAttributes;
+        this.m_valuesCounts = valuesCounts;
+    }
+
+    @Override
+    protected void releaseBuckets() {
+        this.m_comparedAttributes = null;
+        this.m_valuesCounts = null;
+    }
+
+    /**
+     * Calculates the exact score of a bucket against its complement from the counts of the
+     * values in the bucket and in all the buckets (the complement contains the difference), so
+     * the complement isn't copied. The sets of instances are copied only when the score is
+     * approximated by blocking or when there are missing values.
+     */
+    @Override
+    protected double calculateSplitScoreAgainstComplement(Instances bucket,
+                                                          InstancesComplement complement)
+            throws Exception {
+        if (this.m_valuesCounts == null) {
+            return super.calculateSplitScoreAgainstComplement(bucket, complement);
+        }
+        long comparisonsCount = (long) bucket.numInstances() * complement.numInstances();
+        long sumOfIntersections = 0;
+        int[] rows = (this.m_bucketsRows != null) ?
+                this.m_bucketsRows[complement.getExcludedIndex()] : null;
+        for (int a = 0; a < this.m_valuesCounts.length; ++a) {
+            int[] values = this.valuesOf(bucket, rows, this.m_comparedAttributes.get(a));
+            long[] bucketCounts = new long[this.m_valuesCounts[a].length];
+            for (int value : values) {
+                ++bucketCounts[value];
+            }
+            // Each record of the bucket intersects all the records of the complement which
+            // have the same value
+            for (int value : values) {
+                sumOfIntersections += this.m_valuesCounts[a][value] - bucketCounts[value];
+            }
+        }
+        if (comparisonsCount == 0) {
+            return Double.NaN;
+        }
+        if (sumOfIntersections == 0) {
+            return 0;
+        }
+        Instance first = bucket.instance(0);
+        return sumOfIntersections / (double) this.calculateUnionSize(first, first) /
+                (double) comparisonsCount;
+    }
+
     protected double calculateSplitScoreWithoutClustering(Instances i1, Instances i2)
             throws Exception {
+        // Pairs of records with missing values may have different unions, so they are compared
+        // one by one
+        if (!this.hasMissingValues(i1) && !this.hasMissingValues(i2)) {
+            return this.calculateSplitScoreUsingValueCounts(i1, i2);
+        }
         OCCTPair<Double, Integer> internalSplitScoreElements =
                 this.calculateSplitScoreInternal(i1, i2);
         double sumOfScores = internalSplitScoreElements.getFirst();
@@ -315,7 +514,14 @@ public class OCCTFineGrainedJaccardSplitModel extends OCCTSingleAttributeSplitMo
         // Fine-Grained Jaccard
         if (i1.numInstances() + i2.numInstances() >=
                 OCCTFineGrainedJaccardSplitModel.NUM_OF_CLUSTERS) {
-            return this.calculateSplitScoreUsingClustering(i1, i2);
+            switch (this.m_parameters.getFGJBlocking()) {
+                case OCCTSplitModelParameters.FGJ_BLOCKING_MINHASH:
+                    return this.calculateSplitScoreUsingMinHash(i1, i2);
+                case OCCTSplitModelParameters.FGJ_BLOCKING_EXACT:
+                    return this.calculateSplitScoreWithoutClustering(i1, i2);
+                default:
+                    return this.calculateSplitScoreUsingClustering(i1, i2);
+            }
         }
         return this.calculateSplitScoreWithoutClustering(i1, i2);
     }
@@ -1,13 +1,20 @@
 package weka.classifiers.trees.occt.split.models;
 
 import weka.classifiers.trees.occt.split.auxiliary.OCCTSplitModelComparators;
+import weka.classifiers.trees.occt.split.iterators.InstancesComplement;
+import weka.classifiers.trees.occt.utils.OCCTDiagnostics;
+import weka.classifiers.trees.occt.utils.OCCTRowKey;
 import weka.core.Attribute;
 import weka.core.Instance;
 import weka.core.Instances;
 
+import java.util.ArrayList;
 import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -22,67 +29,84 @@ public class OCCTLeastProbableIntersectionsSplitModel extends OCCTSingleAttribut
                 OCCTSplitModelComparators.HIGHEST_SCORE_CHOOSER;
     }
 
+    /** The counts of the records (including the splitting attribute) of each of the buckets **/
+    private transient List<Map<OCCTRowKey, int[]>> m_bucketsCounts;
+    /** The counts of the records (excluding the splitting attribute) of each of the buckets **/
+    private transient List<Map<OCCTRowKey, int[]>> m_bucketsProjectedCounts;
+    /** The counts of the records (including the splitting attribute) in all the buckets **/
+    private transient Map<OCCTRowKey, int[]> m_totalCounts;
+    /** The number of buckets which contain each record (excluding the splitting attribute) **/
+    private transient Map<OCCTRowKey, int[]> m_projectedBucketsCounts;
+
     public OCCTLeastProbableIntersectionsSplitModel(Attribute attr,
                                                     List<Attribute> possibleAttributes,
                                                     List<Attribute> attributesOfB) {
         super(attr, possibleAttributes, attributesOfB);
     }
 
-    private int countAppearances(String instanceAttrsStr, Instances instances) {
-        int toReturn = 0;
-        // Calculate the distance between each pair of instances
-        Enumeration instEnum = instances.enumerateInstances();
-        while (instEnum.hasMoreElements()) {
-            Instance currentInstance = (Instance) instEnum.nextElement();
-            //System.out.println("is " + instanceAttrsStr);
-            if (instanceAttrsStr.equals(this.buildAttrValuesString(currentInstance, true))) {
-                ++toReturn;
-            }
+    /**
+     * Counts the appearances of each distinct record of a set of instances, in a single pass over
+     * the instances
+     *
+     * @param instances The set of instances to count
+     * @param withSplittingAttribute Updated with the counts of the records, where the keys
+     *                               include the splitting attribute
+     * @param withoutSplittingAttribute Updated with the counts of the records, where the keys
+     *                                  don't include the splitting attribute
+     */
+    private void countRecords(Instances instances,
+                              Map<OCCTRowKey, int[]> withSplittingAttribute,
+                              Map<OCCTRowKey, int[]> withoutSplittingAttribute) {
+        Enumeration instancesEnum = instances.enumerateInstances();
+        while (instancesEnum.hasMoreElements()) {
+            Instance currentInstance = (Instance) instancesEnum.nextElement();
+            OCCTLeastProbableIntersectionsSplitModel.increment(withSplittingAttribute,
+                    this.buildAttrValuesKey(currentInstance, true));
+            OCCTLeastProbableIntersectionsSplitModel.increment(withoutSplittingAttribute,
+                    this.buildAttrValuesKey(currentInstance, false));
         }
-        System.out.println("a");
-        return toReturn;
     }
 
     /**
-     * The function counts the number of appearances of some instance in a given set of instances
-     *
-     * @param instance The instance to look for
-     * @param instances The set of instances to look in
-     *
-     * @return The number of appearances of i in instances
+     * Like {@link #countRecords(Instances, Map, Map)}, for rows of the encoded training set
      */
-    private int countAppearances(Instance instance, Instances instances) {
-        // Include the current splitting attribute
-        return this.countAppearances(this.buildAttrValuesString(instance, true), instances);
+    private void countRecords(Instances header, int[] rows,
+                              Map<OCCTRowKey, int[]> withSplittingAttribute,
+                              Map<OCCTRowKey, int[]> withoutSplittingAttribute) {
+        for (int row : rows) {
+            OCCTLeastProbableIntersectionsSplitModel.increment(withSplittingAttribute,
+                    this.buildAttrValuesKey(header, row, true));
+            OCCTLeastProbableIntersectionsSplitModel.increment(withoutSplittingAttribute,
+                    this.buildAttrValuesKey(header, row, false));
+        }
+    }
+
+    private static void increment(Map<OCCTRowKey, int[]> counts, OCCTRowKey key) {
+        int[] count = counts.get(key);
+        if (count == null) {
+            count = new int[1];
+            counts.put(key, count);
+        }
+        ++count[0];
     }
 
     /**
-     * Calculates single probability of an instance being a part of the intersection of
+     * Calculates single probability of a record being a part of the intersection of
      * a random split of instances to sets of the same sizes like the given sets of instances
      *
-     * @param instance An instance whose probability should be calculated
-     * @param allInstancesSets All the sets of instances to calculate according too
+     * @param oi The number of appearances of the record in all the sets
+     * @param setsSizes The sizes of all the sets of instances
+     * @param totalInstancesCount The sum of the sizes of the sets
      *
      * @return The calculated probability (a number in [0, 1])
      */
-    private double calculateSingleProbability(Instance instance,
-                                              Instances[] allInstancesSets) {
-        int oi = 0;
-        int totalInstancesCount = 0;
-        // First, let's calculate the total number of instances
-        for (Instances instances: allInstancesSets) {
-            //System.out.println(instances);
-            oi += this.countAppearances(instance, instances);
-            //System.out.println("Current oi is " + oi);
-            totalInstancesCount += instances.numInstances();
-        }
+    private static double calculateSingleProbability(int oi, int[] setsSizes,
+                                                     int totalInstancesCount) {
         // The final Pi value
         double toReturn = 1.0;
         // Now, calculate the value of Pi
-        for (Instances instances: allInstancesSets) {
-            System.out.println(allInstancesSets.length);
-            //System.out.println("num: " + instances.numInstances() + " total " + totalInstancesCount + " oi " + oi);
-            toReturn -= Math.pow(instances.numInstances() / (double)totalInstancesCount, oi);
+        for (int setSize : setsSizes) {
+            toReturn -= Math.pow(setSize / (double)totalInstancesCount, oi);
         }
         return toReturn;
     }
@@ -93,54 +117,189 @@ public class OCCTLeastProbableIntersectionsSplitModel extends OCCTSingleAttribut
      * split of the unified set to sets of same sizes. For further explanation look at the
      * description of {@see calculateSingleProbability}
      *
-     * @param allInstancesSets The sets of instances (divided)
+     * @param recordsCounts The counts of the distinct records (including the splitting
+     *                      attribute) of the sets, in the order of their first appearances
+     * @param totalCounts The counts of the records in all the sets (null if they should be
+     *                    summed from recordsCounts)
+     * @param setsSizes The sizes of the sets of instances
      *
      * @return The calculated value of lambda
      */
-    private double calculateLambda(Instances[] allInstancesSets) {
+    private double calculateLambda(List<Map<OCCTRowKey, int[]>> recordsCounts,
+                                   Map<OCCTRowKey, int[]> totalCounts, int[] setsSizes) {
+        int totalInstancesCount = 0;
+        for (int setSize : setsSizes) {
+            totalInstancesCount += setSize;
+        }
         double lambdaValue = 0;
         // Used in order to calculate p-values for each distinct record only
-        Set<String> distinctStringRepresentations = new HashSet<String>();
-        for (Instances instances: allInstancesSets) {
-            Enumeration instancesEnum = instances.enumerateInstances();
-            while (instancesEnum.hasMoreElements()) {
-                Instance currentInstance = (Instance)instancesEnum.nextElement();
-                //String currentInstanceStr = currentInstance.toString(currentInstance.numAttributes() - 2) +
-                //        currentInstance.toString(currentInstance.numAttributes() - 1);
-                // Use all attributes, including the splitting attribute
-                String currentInstanceStr = this.buildAttrValuesString(currentInstance, true);
-                if (!distinctStringRepresentations.contains(currentInstanceStr)) {
-                    double value = this.calculateSingleProbability(currentInstance, allInstancesSets);
-                    System.out.println(currentInstanceStr + " is " + value);
-                    lambdaValue += value;
-                    distinctStringRepresentations.add(currentInstanceStr);
+        Set<OCCTRowKey> distinctRepresentations = new HashSet<OCCTRowKey>();
+        for (Map<OCCTRowKey, int[]> counts : recordsCounts) {
+            for (OCCTRowKey currentKey : counts.keySet()) {
+                if (!distinctRepresentations.add(currentKey)) {
+                    continue;
+                }
+                // The number of appearances of the record in all the sets
+                int oi = 0;
+                if (totalCounts != null) {
+                    oi = totalCounts.get(currentKey)[0];
+                } else {
+                    for (Map<OCCTRowKey, int[]> otherCounts : recordsCounts) {
+                        int[] count = otherCounts.get(currentKey);
+                        if (count != null) {
+                            oi += count[0];
+                        }
+                    }
                 }
+                double value = OCCTLeastProbableIntersectionsSplitModel.calculateSingleProbability(
+                        oi, setsSizes, totalInstancesCount);
+                if (OCCTDiagnostics.isEnabled(OCCTDiagnostics.Level.TRACE)) {
+                    OCCTDiagnostics.log(OCCTDiagnostics.Level.TRACE,
+                            OCCTSingleAttributeSplitModel.DIAGNOSTICS_SUBSYSTEM,
+                            currentKey + " is " + value);
+                }
+                lambdaValue += value;
             }
             // If you want to run only on instances where vi = di (the first table),
             // break here.
             // break;
         }
-        //System.out.println("And total is " + lambdaValue);
         return lambdaValue;
     }
 
-    protected double calculateSplitScore(Instances i1, Instances i2) {
+    /**
+     * Calculates the number of distinct records (without the splitting attribute) which appear
+     * in both of the sets
+     */
+    private static int calculateIntersectionSize(Map<OCCTRowKey, int[]> first,
+                                                 Map<OCCTRowKey, int[]> second) {
+        // Go over the smaller set and look for its records in the larger one
+        if (second.size() < first.size()) {
+            Map<OCCTRowKey, int[]> temp = first;
+            first = second;
+            second = temp;
+        }
+        int toReturn = 0;
+        for (OCCTRowKey key : first.keySet()) {
+            if (second.containsKey(key)) {
+                ++toReturn;
+            }
+        }
+        return toReturn;
+    }
+
+    /**
+     * Calculates the final score from lambda and the size of the intersection
+     */
+    private static double calculateStdev(double sumOfPi, int j) {
         double stdevToReturn = 0;
-        double sumOfPi = this.calculateLambda(new Instances[] {i1, i2});
-        System.out.println("lambda is " + sumOfPi);
+        OCCTDiagnostics.log(OCCTDiagnostics.Level.TRACE,
+                OCCTSingleAttributeSplitModel.DIAGNOSTICS_SUBSYSTEM, "lambda is %s", sumOfPi);
         if (sumOfPi >= 0) {
-            int j = this.calculateIntersectionSize(i1, i2);
-            System.out.println("J is " + j);
+            OCCTDiagnostics.log(OCCTDiagnostics.Level.TRACE,
+                    OCCTSingleAttributeSplitModel.DIAGNOSTICS_SUBSYSTEM, "J is %d", j);
             if (j > 0) {
                 stdevToReturn = Math.abs((j - sumOfPi) / Math.sqrt(sumOfPi));
             } else {
-                System.out.println("Negative ...");
                 stdevToReturn = sumOfPi - j;
             }
 
         }
-        System.out.println("Stdev is " + Math.abs(stdevToReturn));
+        OCCTDiagnostics.log(OCCTDiagnostics.Level.TRACE,
+                OCCTSingleAttributeSplitModel.DIAGNOSTICS_SUBSYSTEM,
+                "Stdev is %s", Math.abs(stdevToReturn));
         return Math.abs(stdevToReturn);
     }
 
+    /**
+     * Calculates the split score from a single frequency table of each of the sets (with and
+     * without the splitting attribute), so the score is calculated in a linear time
+     */
+    protected double calculateSplitScore(Instances i1, Instances i2) {
+        Map<OCCTRowKey, int[]> firstCounts = new LinkedHashMap<OCCTRowKey, int[]>();
+        Map<OCCTRowKey, int[]> secondCounts = new LinkedHashMap<OCCTRowKey, int[]>();
+        Map<OCCTRowKey, int[]> firstProjectedCounts = new HashMap<OCCTRowKey, int[]>();
+        Map<OCCTRowKey, int[]> secondProjectedCounts = new HashMap<OCCTRowKey, int[]>();
+        this.countRecords(i1, firstCounts, firstProjectedCounts);
+        this.countRecords(i2, secondCounts, secondProjectedCounts);
+
+        List<Map<OCCTRowKey, int[]>> recordsCounts = new ArrayList<Map<OCCTRowKey, int[]>>();
+        recordsCounts.add(firstCounts);
+        recordsCounts.add(secondCounts);
+        double sumOfPi = this.calculateLambda(recordsCounts, null,
+                new int[] {i1.numInstances(), i2.numInstances()});
+        int j = OCCTLeastProbableIntersectionsSplitModel.calculateIntersectionSize(
+                firstProjectedCounts, secondProjectedCounts);
+        return OCCTLeastProbableIntersectionsSplitModel.calculateStdev(sumOfPi, j);
+    }
+
+    @Override
+    protected void prepareBuckets(Instances allInstances, Instances[] buckets) {
+        this.m_bucketsCounts = new ArrayList<Map<OCCTRowKey, int[]>>(buckets.length);
+        this.m_bucketsProjectedCounts = new ArrayList<Map<OCCTRowKey, int[]>>(buckets.length);
+        this.m_totalCounts = new HashMap<OCCTRowKey, int[]>();
+        this.m_projectedBucketsCounts = new HashMap<OCCTRowKey, int[]>();
+        for (int b = 0; b < buckets.length; ++b) {
+            Map<OCCTRowKey, int[]> counts = new LinkedHashMap<OCCTRowKey, int[]>();
+            Map<OCCTRowKey, int[]> projectedCounts = new HashMap<OCCTRowKey, int[]>();
+            if (this.m_bucketsRows != null) {
+                this.countRecords(allInstances, this.m_bucketsRows[b], counts, projectedCounts);
+            } else {
+                this.countRecords(buckets[b], counts, projectedCounts);
+            }
+            this.m_bucketsCounts.add(counts);
+            this.m_bucketsProjectedCounts.add(projectedCounts);
+            for (Map.Entry<OCCTRowKey, int[]> entry : counts.entrySet()) {
+                int[] total = this.m_totalCounts.get(entry.getKey());
+                if (total == null) {
+                    total = new int[1];
+                    this.m_totalCounts.put(entry.getKey(), total);
+                }
+                total[0] += entry.getValue()[0];
+            }
+            for (OCCTRowKey key : projectedCounts.keySet()) {
+                OCCTLeastProbableIntersectionsSplitModel.increment(
+                        this.m_projectedBucketsCounts, key);
+            }
+        }
+    }
+
+    @Override
+    protected void releaseBuckets() {
+        this.m_bucketsCounts = null;
+        this.m_bucketsProjectedCounts = null;
+        this.m_totalCounts = null;
+        this.m_projectedBucketsCounts = null;
+    }
+
+    /**
+     * Calculates the split score of a bucket against its complement from the frequency tables
+     * of the buckets, without copying the complement: the tables of the complement are the
+     * tables of all the other buckets, and a record of the bucket is in the intersection if
+     * some other bucket contains it too
+     */
+    @Override
+    protected double calculateSplitScoreAgainstComplement(Instances bucket,
+                                                          InstancesComplement complement) {
+        int bucketIndex = complement.getExcludedIndex();
+        // The records of the bucket come first, then the records of the complement
+        List<Map<OCCTRowKey, int[]>> recordsCounts =
+                new ArrayList<Map<OCCTRowKey, int[]>>(this.m_bucketsCounts.size());
+        recordsCounts.add(this.m_bucketsCounts.get(bucketIndex));
+        for (int i = 0; i < this.m_bucketsCounts.size(); ++i) {
+            if (i != bucketIndex) {
+                recordsCounts.add(this.m_bucketsCounts.get(i));
+            }
+        }
+        double sumOfPi = this.calculateLambda(recordsCounts, this.m_totalCounts,
+                new int[] {bucket.numInstances(), complement.numInstances()});
+        int j = 0;
+        for (OCCTRowKey key : this.m_bucketsProjectedCounts.get(bucketIndex).keySet()) {
+            if (this.m_projectedBucketsCounts.get(key)[0] > 1) {
+                ++j;
+            }
+        }
+        return OCCTLeastProbableIntersectionsSplitModel.calculateStdev(sumOfPi, j);
+    }
+
 }
@@ -70,6 +70,14 @@ public class OCCTMaximumLikelihoodEstimationSplitModel extends OCCTSingleAttribu
         return this.calculateSplitScore(instances, null);
     }
 
+    /**
+     * @return The probabilistic models which were built by the last calculation of a score (the
+     *         models of the whole given instances in case of {@link #calculateMLEScore})
+     */
+    public OCCTProbModelsHandler getProbModels() {
+        return this.probModelsBuilder;
+    }
+
     @Override
     protected GeneralInstancesIterator getInstancesSetsIterator(
             Instances trainInstances, Instances[] splittedTrainInstances) {
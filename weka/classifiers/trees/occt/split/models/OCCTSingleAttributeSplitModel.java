@@ -1,9 +1,16 @@
 package weka.classifiers.trees.occt.split.models;
 
+import weka.classifiers.trees.occt.split.general.OCCTSplitModelParameters;
 import weka.classifiers.trees.occt.split.iterators.GeneralInstancesIterator;
+import weka.classifiers.trees.occt.split.iterators.InstancesComplement;
 import weka.classifiers.trees.occt.split.iterators.PairedInstancesIterator;
+import weka.classifiers.trees.occt.utils.OCCTColumnarData;
+import weka.classifiers.trees.occt.utils.OCCTDiagnostics;
 import weka.classifiers.trees.occt.utils.OCCTNotImplementedException;
 import weka.classifiers.trees.occt.utils.OCCTPair;
+import weka.classifiers.trees.occt.utils.OCCTRowKey;
+import weka.classifiers.trees.occt.utils.OCCTRowKeyEncoder;
+import weka.classifiers.trees.occt.utils.OCCTRowPartition;
 import weka.core.Attribute;
 import weka.core.Instance;
 import weka.core.Instances;
@@ -26,6 +33,9 @@ public abstract class OCCTSingleAttributeSplitModel extends OCCTSplitModel {
     /** for serialization */
     private static final long serialVersionUID = 3064079330067903161L;
 
+    /** The name of the split models in the diagnostics messages **/
+    protected static final String DIAGNOSTICS_SUBSYSTEM = "split-model";
+
     protected Attribute m_splittingAttribute;
     private int m_complexityIndex;
     private double m_splittingScore;
@@ -33,6 +43,21 @@ public abstract class OCCTSingleAttributeSplitModel extends OCCTSplitModel {
     protected List<Attribute> m_possibleAttributes;
     protected List<Attribute> m_attributesOfB;
 
+    /** The tunable parameters of the model **/
+    protected OCCTSplitModelParameters m_parameters;
+
+    /** Encodes the values of the possible attributes, except the splitting attribute **/
+    private transient OCCTRowKeyEncoder m_valuesEncoder;
+    /** Encodes the values of the possible attributes, including the splitting attribute **/
+    private transient OCCTRowKeyEncoder m_valuesWithSplittingAttributeEncoder;
+
+    /** The encoded training set (null if the model works on the instances only) **/
+    protected transient OCCTColumnarData m_columnarData;
+    /** The rows of the encoded training set which are the instances given to the model **/
+    protected transient int[] m_rows;
+    /** The rows of each of the buckets of the split which is currently scored (if encoded) **/
+    protected transient int[][] m_bucketsRows;
+
     public static Comparator<Double> SCORES_COMPARATOR;
 
     public OCCTSingleAttributeSplitModel(Attribute splittingAttribute,
@@ -42,56 +67,175 @@ public abstract class OCCTSingleAttributeSplitModel extends OCCTSplitModel {
         this.m_splittingAttribute = splittingAttribute;
         this.m_attributesOfB = attributesOfB;
         this.m_possibleAttributes = possibleAttributes;
+        this.m_parameters = new OCCTSplitModelParameters();
     }
 
     /**
-     * The function builds a string representation of the values of an instances, based on the
-     * values of the possible attributes for that model and except the splitting attribute.
+     * Sets the tunable parameters of the model (must be called before the model is built)
      *
-     * @param instance The instance whose string representation should be returned
-     * @param includeSplittingAttribute Whether the splitting attribute should be includes in the
-     *                                  the created string
+     * @param parameters The parameters to use
+     */
+    public void setParameters(OCCTSplitModelParameters parameters) {
+        this.m_parameters = parameters;
+    }
+
+    public OCCTSplitModelParameters getParameters() {
+        return this.m_parameters;
+    }
+
+    /**
+     * Sets the encoded training set, so the model can scan the values of its attributes over the
+     * given rows instead of the instances (must be called before the model is built)
      *
-     * @return The created string representation
+     * @param columnarData The encoded training set
+     * @param rows The rows of the encoded set, in the order of the instances which will be given
+     *             to the model
      */
-    protected String buildAttrValuesString(Instance instance,
-                                           boolean includeSplittingAttribute) {
-        StringBuilder toReturn = new StringBuilder();
-        Enumeration attributes = instance.enumerateAttributes();
+    public void setColumnarData(OCCTColumnarData columnarData, int[] rows) {
+        this.m_columnarData = columnarData;
+        this.m_rows = rows;
+    }
+
+    @Override
+    public void releaseTrainingData() {
+        this.m_columnarData = null;
+        this.m_rows = null;
+        this.m_bucketsRows = null;
+    }
+
+    /**
+     * @return Whether the given instances can be scanned using the encoded training set (all the
+     *         used attributes are encoded and there is a row for each instance)
+     */
+    protected boolean hasColumnarData(Instances instances) {
+        if (this.m_columnarData == null || this.m_rows == null ||
+                this.m_rows.length != instances.numInstances() ||
+                !this.m_columnarData.hasColumn(this.m_splittingAttribute.index())) {
+            return false;
+        }
+        for (Attribute currentAttr : this.m_possibleAttributes) {
+            if (!this.m_columnarData.hasColumn(currentAttr.index())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The function builds the encoder of the values of the possible attributes for that model,
+     * in the order of the attributes in the header (the class attribute is never encoded).
+     *
+     * @param header The header of the instances whose values will be encoded
+     * @param includeSplittingAttribute Whether the splitting attribute should be encoded
+     *
+     * @return The created encoder
+     */
+    private OCCTRowKeyEncoder createValuesEncoder(Instances header,
+                                                  boolean includeSplittingAttribute) {
+        List<Attribute> toEncode = new LinkedList<Attribute>();
+        Enumeration attributes = header.enumerateAttributes();
         while (attributes.hasMoreElements()) {
             Attribute currentAttr = (Attribute) attributes.nextElement();
             if (currentAttr.equals(this.m_splittingAttribute)) {
                 if (includeSplittingAttribute) {
-                    toReturn.append(instance.stringValue(currentAttr));
+                    toEncode.add(currentAttr);
                 }
             } else if (this.m_possibleAttributes.contains(currentAttr)) {
-                toReturn.append(instance.stringValue(currentAttr));
+                toEncode.add(currentAttr);
             }
         }
-        return toReturn.toString();
+        return new OCCTRowKeyEncoder(toEncode);
+    }
+
+    private OCCTRowKeyEncoder getValuesEncoder(Instances header,
+                                               boolean includeSplittingAttribute) {
+        if (includeSplittingAttribute) {
+            if (this.m_valuesWithSplittingAttributeEncoder == null) {
+                this.m_valuesWithSplittingAttributeEncoder =
+                        this.createValuesEncoder(header, true);
+            }
+            return this.m_valuesWithSplittingAttributeEncoder;
+        }
+        if (this.m_valuesEncoder == null) {
+            this.m_valuesEncoder = this.createValuesEncoder(header, false);
+        }
+        return this.m_valuesEncoder;
+    }
+
+    /**
+     * The function builds a key which represents the values of an instance, based on the
+     * values of the possible attributes for that model and except the splitting attribute.
+     *
+     * @param instance The instance whose key should be returned
+     * @param includeSplittingAttribute Whether the splitting attribute should be included in the
+     *                                  the created key
+     *
+     * @return The created key
+     */
+    protected OCCTRowKey buildAttrValuesKey(Instance instance,
+                                            boolean includeSplittingAttribute) {
+        return this.getValuesEncoder(instance.dataset(), includeSplittingAttribute)
+                .encode(instance);
     }
 
-    protected String buildAttrValuesString(Instance instance) {
-        return this.buildAttrValuesString(instance, false);
+    protected OCCTRowKey buildAttrValuesKey(Instance instance) {
+        return this.buildAttrValuesKey(instance, false);
     }
 
-    protected Set<String> calculateIntersection(Instances i1, Instances i2) {
+    /**
+     * Like {@link #buildAttrValuesKey(Instance, boolean)}, for a row of the encoded training set
+     *
+     * @param header The header of the instances of the model
+     * @param row The row whose key should be returned
+     * @param includeSplittingAttribute Whether the splitting attribute should be included in the
+     *                                  the created key
+     *
+     * @return The created key
+     */
+    protected OCCTRowKey buildAttrValuesKey(Instances header, int row,
+                                            boolean includeSplittingAttribute) {
+        return this.getValuesEncoder(header, includeSplittingAttribute)
+                .encode(this.m_columnarData, row);
+    }
+
+    /**
+     * Calculates the distinct records (represented by their values keys) which appear in both
+     * of the given sets of instances.
+     *
+     * The smaller set is projected a single time into a hash set which is then probed by every
+     * record of the other set, so the calculation is linear in the sizes of the sets.
+     *
+     * @param i1 The first set of instances
+     * @param i2 The second set of instances
+     *
+     * @return The set of values keys shared by both of the sets
+     */
+    protected Set<OCCTRowKey> calculateIntersection(Instances i1, Instances i2) {
         // Used to avoid duplicates
-        Set<String> intersection = new HashSet<String>();
-        // Calculate the distance between each pair of instances
-        Enumeration inst1Enum = i1.enumerateInstances();
-        while (inst1Enum.hasMoreElements()) {
-            Instance currentI1 = (Instance) inst1Enum.nextElement();
-            Enumeration inst2Enum = i2.enumerateInstances();
-            while (inst2Enum.hasMoreElements()) {
-                Instance currentI2 = (Instance) inst2Enum.nextElement();
-                // Build values strings
-                String currentI1String = this.buildAttrValuesString(currentI1);
-                String currentI2String = this.buildAttrValuesString(currentI2);
-                // Compare the strings and update the intersection
-                if (currentI1String.equals(currentI2String)) {
-                    intersection.add(currentI1String);
-                }
+        Set<OCCTRowKey> intersection = new HashSet<OCCTRowKey>();
+        if (i1.numInstances() == 0 || i2.numInstances() == 0) {
+            return intersection;
+        }
+        // Hash the smaller set and probe it using the larger one
+        Instances toProject = i1;
+        Instances toProbe = i2;
+        if (i2.numInstances() < i1.numInstances()) {
+            toProject = i2;
+            toProbe = i1;
+        }
+        Set<OCCTRowKey> projection = new HashSet<OCCTRowKey>(toProject.numInstances() * 2);
+        Enumeration projectedEnum = toProject.enumerateInstances();
+        while (projectedEnum.hasMoreElements()) {
+            Instance current = (Instance) projectedEnum.nextElement();
+            projection.add(this.buildAttrValuesKey(current));
+        }
+        Enumeration probingEnum = toProbe.enumerateInstances();
+        while (probingEnum.hasMoreElements()) {
+            Instance current = (Instance) probingEnum.nextElement();
+            OCCTRowKey currentKey = this.buildAttrValuesKey(current);
+            // Update the intersection only with records that exist in both of the sets
+            if (projection.contains(currentKey)) {
+                intersection.add(currentKey);
             }
         }
         return intersection;
@@ -110,28 +254,77 @@ public abstract class OCCTSingleAttributeSplitModel extends OCCTSplitModel {
      * @return the sets of instances produced by the weka.trees.classifiers.occt.split
      */
     protected static Instances[] splitInstancesByAttribute(Instances data, Attribute attr) {
-        Instances[] splitted = new Instances[attr.numValues()];
-        // Will contain only non-empty instances
-        List<Instances> nonEmpty = new LinkedList<Instances>();
+        return OCCTSingleAttributeSplitModel.splitInstancesByAttribute(data,
+                OCCTRowPartition.byAttribute(data, attr));
+    }
 
-        // Create a single array of instances for each value of the attribute attr
-        for (int j = 0; j < attr.numValues(); j++) {
-            splitted[j] = new Instances(data, data.numInstances());
+    /**
+     * Creates the non-empty sets of instances of a partition of a dataset. Each set is created
+     * with the exact size of its part, so the allocated memory is linear in the size of the
+     * dataset (and not in the number of values times that size)
+     *
+     * @param data The partitioned dataset
+     * @param partition The partition of the rows of the dataset
+     *
+     * @return The non-empty sets of instances, in the order of the values
+     */
+    protected static Instances[] splitInstancesByAttribute(Instances data,
+                                                           OCCTRowPartition partition) {
+        Instances[] nonEmpty = new Instances[partition.numNonEmptyParts()];
+        int index = 0;
+        for (int part = 0; part < partition.numParts(); ++part) {
+            if (partition.partSize(part) > 0) {
+                nonEmpty[index++] = partition.toInstances(data, part);
+            }
         }
-        // Go over all instances and divide them to the buckets
-        Enumeration instEnum = data.enumerateInstances();
-        while (instEnum.hasMoreElements()) {
-            Instance inst = (Instance) instEnum.nextElement();
-            splitted[(int) inst.value(attr)].add(inst);
+        return nonEmpty;
+    }
+
+    /**
+     * Splits the instances into a set of instances for each value of the splitting attribute
+     * (including empty sets) using a partition of the rows, like {@link #split(Instances)} but
+     * without allocating the full size of the data for each of the values
+     */
+    @Override
+    public Instances[] splitInstances(Instances data) throws Exception {
+        // Missing values are distributed by the weights of the model
+        if (!this.m_splittingAttribute.isNominal() ||
+                data.attributeStats(this.m_splittingAttribute.index()).missingCount > 0) {
+            return super.splitInstances(data);
         }
-        // Finally, make each bucket to be of size which is equal to its real capacity
-        for (Instances instances : splitted) {
-            instances.compactify();
-            if (instances.numInstances() > 0) {
-                nonEmpty.add(instances);
+        OCCTRowPartition partition = OCCTRowPartition.byAttribute(data, this.m_splittingAttribute);
+        Instances[] toReturn = new Instances[this.m_numSubsets];
+        for (int j = 0; j < toReturn.length; ++j) {
+            toReturn[j] = partition.toInstances(data, j);
+        }
+        return toReturn;
+    }
+
+    /**
+     * Splits a slice of rows of the encoded training set like {@link #splitInstances} splits the
+     * instances of those rows
+     */
+    @Override
+    public int[][] splitRows(Instances data, OCCTColumnarData columnarData, int[] rows) {
+        int attrIndex = this.m_splittingAttribute.index();
+        if (!this.m_splittingAttribute.isNominal() || !columnarData.hasColumn(attrIndex) ||
+                rows.length != data.numInstances()) {
+            return null;
+        }
+        int[] column = columnarData.column(attrIndex);
+        for (int row : rows) {
+            // The instances are split by the weights of the model
+            if (column[row] == OCCTColumnarData.MISSING) {
+                return null;
             }
         }
-        return nonEmpty.toArray(new Instances[nonEmpty.size()]);
+        OCCTRowPartition partition = OCCTRowPartition.byColumn(column, rows,
+                this.m_splittingAttribute.numValues());
+        int[][] toReturn = new int[this.m_numSubsets][];
+        for (int j = 0; j < toReturn.length; ++j) {
+            toReturn[j] = partition.slice(j, rows);
+        }
+        return toReturn;
     }
 
     protected double calculateSplitScore(OCCTPair<Instances, Instances> instancesSetsPair)
@@ -153,6 +346,41 @@ public abstract class OCCTSingleAttributeSplitModel extends OCCTSplitModel {
      */
     protected abstract double calculateSplitScore(Instances i1, Instances i2) throws Exception;
 
+    /**
+     * Scores a bucket of a split against its complement (all the other buckets of the split).
+     * By default, the complement is copied into a single set of instances, but models which can
+     * score the bucket using statistics of the buckets (see {@link #prepareBuckets}) should
+     * avoid it.
+     *
+     * @param bucket The bucket to score
+     * @param complement A view of all the other buckets
+     *
+     * @return The calculated similarity score
+     */
+    protected double calculateSplitScoreAgainstComplement(Instances bucket,
+                                                          InstancesComplement complement)
+            throws Exception {
+        return this.calculateSplitScore(bucket, complement.toInstances());
+    }
+
+    /**
+     * Called a single time before the buckets of a split are scored against their complements,
+     * so the model can calculate statistics of all the buckets (to be used by
+     * {@link #calculateSplitScoreAgainstComplement(Instances, InstancesComplement)})
+     *
+     * @param allInstances All the instances of the split
+     * @param buckets The (non-empty) buckets of the split
+     */
+    protected void prepareBuckets(Instances allInstances, Instances[] buckets) throws Exception {
+    }
+
+    /**
+     * Called after all the buckets of a split were scored, in order to release the statistics
+     * calculated by {@link #prepareBuckets}
+     */
+    protected void releaseBuckets() {
+    }
+
     protected GeneralInstancesIterator getInstancesSetsIterator(
             Instances trainInstances, Instances[] splittedTrainInstances) {
         return new PairedInstancesIterator(trainInstances, splittedTrainInstances);
@@ -168,29 +396,76 @@ public abstract class OCCTSingleAttributeSplitModel extends OCCTSplitModel {
      * @exception Exception if something goes wrong
      */
     protected double handleEnumeratedAttribute(Instances trainInstances) throws Exception {
-        System.out.println("Handling splitting " + this.m_splittingAttribute.name());
+        OCCTDiagnostics.log(OCCTDiagnostics.Level.TRACE,
+                OCCTSingleAttributeSplitModel.DIAGNOSTICS_SUBSYSTEM,
+                "Handling splitting %s", this.m_splittingAttribute.name());
         double toReturn = 0;
-        // Split the instances according to the attribute (single set for each value)
-        Instances[] splitted = OCCTSingleAttributeSplitModel.splitInstancesByAttribute(
-                trainInstances, this.m_splittingAttribute);
-        if (splitted.length == 1) {
+        // Partition the rows according to the attribute (single part for each value), the
+        // instances are copied only if the model is valid
+        boolean columnar = this.hasColumnarData(trainInstances);
+        OCCTRowPartition partition;
+        if (columnar) {
+            partition = OCCTRowPartition.byColumn(
+                    this.m_columnarData.column(this.m_splittingAttribute.index()), this.m_rows,
+                    this.m_splittingAttribute.numValues());
+        } else {
+            partition = OCCTRowPartition.byAttribute(trainInstances, this.m_splittingAttribute);
+        }
+        if (partition.numNonEmptyParts() == 1) {
             // TODO: Throw some better exception ...
             // The model as invalid!
-            System.out.println("Invalid model ...");
+            OCCTDiagnostics.log(OCCTDiagnostics.Level.TRACE,
+                    OCCTSingleAttributeSplitModel.DIAGNOSTICS_SUBSYSTEM,
+                    "Invalid model for %s", this.m_splittingAttribute.name());
             throw new NullPointerException();
         } else {
+            Instances[] splitted = OCCTSingleAttributeSplitModel.splitInstancesByAttribute(
+                    trainInstances, partition);
             GeneralInstancesIterator instancesSetsIter =
                     this.getInstancesSetsIterator(trainInstances, splitted);
-            while (instancesSetsIter.hasNext()) {
-                OCCTPair<OCCTPair<Instances, Instances>, Double> instancesAndWeights =
-                        instancesSetsIter.next();
-                OCCTPair<Instances, Instances> instancesSetsToCompare = instancesAndWeights.getFirst();
-                double weight = instancesAndWeights.getSecond();
-                // Calculate the relative part of this binary weka.trees.classifiers.occt.split
-                toReturn += weight * this.calculateSplitScore(instancesSetsToCompare);
+            if (instancesSetsIter instanceof PairedInstancesIterator) {
+                // Each bucket is compared to a view of its complement (which isn't copied)
+                PairedInstancesIterator pairedIter = (PairedInstancesIterator) instancesSetsIter;
+                if (columnar) {
+                    this.m_bucketsRows = new int[splitted.length][];
+                    int bucket = 0;
+                    for (int part = 0; part < partition.numParts(); ++part) {
+                        if (partition.partSize(part) > 0) {
+                            this.m_bucketsRows[bucket++] = partition.slice(part, this.m_rows);
+                        }
+                    }
+                }
+                this.prepareBuckets(trainInstances, splitted);
+                try {
+                    while (pairedIter.hasNext()) {
+                        OCCTPair<OCCTPair<Instances, InstancesComplement>, Double>
+                                instancesAndWeights = pairedIter.nextWithComplement();
+                        OCCTPair<Instances, InstancesComplement> instancesSetsToCompare =
+                                instancesAndWeights.getFirst();
+                        double weight = instancesAndWeights.getSecond();
+                        toReturn += weight * this.calculateSplitScoreAgainstComplement(
+                                instancesSetsToCompare.getFirst(),
+                                instancesSetsToCompare.getSecond());
+                    }
+                } finally {
+                    this.releaseBuckets();
+                    this.m_bucketsRows = null;
+                }
+            } else {
+                while (instancesSetsIter.hasNext()) {
+                    OCCTPair<OCCTPair<Instances, Instances>, Double> instancesAndWeights =
+                            instancesSetsIter.next();
+                    OCCTPair<Instances, Instances> instancesSetsToCompare =
+                            instancesAndWeights.getFirst();
+                    double weight = instancesAndWeights.getSecond();
+                    // Calculate the relative part of this binary weka.trees.classifiers.occt.split
+                    toReturn += weight * this.calculateSplitScore(instancesSetsToCompare);
+                }
             }
         }
-        System.out.println("Overall split score for " + this.m_splittingAttribute.name() + " is " + toReturn);
+        OCCTDiagnostics.log(OCCTDiagnostics.Level.DEBUG,
+                OCCTSingleAttributeSplitModel.DIAGNOSTICS_SUBSYSTEM,
+                "Overall split score for %s is %s", this.m_splittingAttribute.name(), toReturn);
         return toReturn;
     }
 
@@ -212,7 +487,6 @@ public abstract class OCCTSingleAttributeSplitModel extends OCCTSplitModel {
             if (this.m_splittingAttribute.isNominal()) {
                 this.m_complexityIndex = this.m_splittingAttribute.numValues();
                 this.m_splittingScore = this.handleEnumeratedAttribute(instances);
-                System.out.println("Splitting score " + this.m_splittingScore);
                 // TODO: m_minNoObj?
                 if (instances.numInstances() > 0) {
                     this.m_numSubsets = m_complexityIndex;
@@ -228,6 +502,22 @@ public abstract class OCCTSingleAttributeSplitModel extends OCCTSplitModel {
         }
     }
 
+    /**
+     * Builds the model from a score which was calculated without the instances (e.g. from
+     * statistics which were gathered by a pass over records which aren't kept in memory)
+     *
+     * @param score The score of the split or null if the split is invalid
+     */
+    protected void buildFromScore(Double score) {
+        this.m_complexityIndex = this.m_splittingAttribute.numValues();
+        if (score == null) {
+            this.m_numSubsets = 0;
+        } else {
+            this.m_splittingScore = score;
+            this.m_numSubsets = this.m_complexityIndex;
+        }
+    }
+
     public int getSplittingAttributeIndex() {
         return this.m_splittingAttribute.index();
     }
@@ -1,6 +1,7 @@
 package weka.classifiers.trees.occt.split.models;
 
 import weka.classifiers.trees.j48.ClassifierSplitModel;
+import weka.classifiers.trees.occt.utils.OCCTColumnarData;
 import weka.core.Attribute;
 import weka.core.Instances;
 
@@ -26,4 +27,39 @@ public abstract class OCCTSplitModel extends ClassifierSplitModel {
     public double score() {
         return 0;
     }
+
+    /**
+     * Splits the instances into the subsets of the model (a set of instances for each subset)
+     *
+     * @param data The instances to split
+     *
+     * @return The sets of instances of the subsets
+     *
+     * @throws Exception If the instances can't be split
+     */
+    public Instances[] splitInstances(Instances data) throws Exception {
+        return this.split(data);
+    }
+
+    /**
+     * Splits a slice of rows of an encoded dataset in the same way that
+     * {@link #splitInstances(Instances)} splits the instances of those rows
+     *
+     * @param data The instances of the rows
+     * @param columnarData The encoded dataset
+     * @param rows The rows to split, in the order of the instances
+     *
+     * @return The rows of each of the subsets (null if the rows can't be split this way)
+     */
+    public int[][] splitRows(Instances data, OCCTColumnarData columnarData, int[] rows) {
+        return null;
+    }
+
+    /**
+     * Releases the references to the training data which were required only while the model was
+     * built and scored (e.g. the encoded training set), once the model was selected and the
+     * subsets of its node were derived
+     */
+    public void releaseTrainingData() {
+    }
 }
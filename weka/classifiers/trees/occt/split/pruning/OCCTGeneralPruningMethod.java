@@ -1,13 +1,17 @@
 package weka.classifiers.trees.occt.split.pruning;
 
 import weka.classifiers.trees.occt.split.general.OCCTSplitModelFactory;
+import weka.classifiers.trees.occt.split.general.OCCTSplitModelParameters;
 import weka.classifiers.trees.occt.split.models.OCCTSingleAttributeSplitModel;
+import weka.classifiers.trees.occt.tree.OCCTSplitEvaluations;
 import weka.classifiers.trees.occt.tree.OCCTSplitModelSelection;
+import weka.classifiers.trees.occt.utils.OCCTColumnarData;
 import weka.core.Attribute;
 import weka.core.Instances;
 
 import java.io.Serializable;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * Created by sepetnit on 14/02/15.
@@ -41,11 +45,65 @@ public abstract class OCCTGeneralPruningMethod implements Serializable {
 
     public abstract boolean shouldPrune(Instances data) throws Exception;
 
+    /**
+     * Like {@link #shouldPrune(Instances)}, for a dataset whose instances are the given rows of
+     * the encoded training set (see {@link #setColumnarData})
+     *
+     * @param data The dataset of the node
+     * @param rows The rows of the instances in the encoded training set (null if unknown)
+     */
+    public boolean shouldPrune(Instances data, int[] rows) throws Exception {
+        return this.shouldPrune(data, rows, null);
+    }
+
+    /**
+     * Like {@link #shouldPrune(Instances, int[])}, where the split models which are built in
+     * order to decide are shared with the model selection of the node
+     *
+     * @param data The dataset of the node
+     * @param rows The rows of the instances in the encoded training set (null if unknown)
+     * @param evaluations The evaluations of the node (null if they shouldn't be shared)
+     */
+    public boolean shouldPrune(Instances data, int[] rows, OCCTSplitEvaluations evaluations)
+            throws Exception {
+        return this.shouldPrune(data);
+    }
+
+    /**
+     * Sets the encoded training set, which is scanned by the internal model selection
+     *
+     * @param columnarData The encoded training set or null in order to scan the instances only
+     */
+    public void setColumnarData(OCCTColumnarData columnarData) {
+        this.m_internalModelSelection.setColumnarData(columnarData);
+    }
+
+    /**
+     * Sets the parameters of the split models of the internal model selection. In order to
+     * share the evaluations of a node with its model selection, both of them must have the same
+     * parameters.
+     *
+     * @param parameters The parameters to use or null for the default parameters
+     */
+    public void setParameters(OCCTSplitModelParameters parameters) {
+        this.m_internalModelSelection.setParameters(parameters);
+    }
+
+    /**
+     * Sets the pool on which the internal model selection evaluates the candidate attributes
+     *
+     * @param pool The pool to use or null in order to evaluate the candidates sequentially
+     */
+    public void setPool(ForkJoinPool pool) {
+        this.m_internalModelSelection.setPool(pool);
+    }
+
     /**
      * Sets reference to training data to null.
      */
     public void cleanup() {
         this.m_allData = null;
+        this.m_internalModelSelection.cleanup();
     }
 
 }
@@ -2,6 +2,7 @@ package weka.classifiers.trees.occt.split.pruning;
 
 import weka.classifiers.trees.occt.split.models.OCCTLeastProbableIntersectionsSplitModel;
 import weka.classifiers.trees.occt.split.models.OCCTSplitModel;
+import weka.classifiers.trees.occt.tree.OCCTSplitEvaluations;
 import weka.core.Attribute;
 import weka.core.Instances;
 
@@ -34,8 +35,15 @@ public class OCCTLeastProbableIntersectionsPruning extends OCCTGeneralPruningMet
      */
     @Override
     public boolean shouldPrune(Instances data) throws Exception {
+        return this.shouldPrune(data, null, null);
+    }
+
+    @Override
+    public boolean shouldPrune(Instances data, int[] rows, OCCTSplitEvaluations evaluations)
+            throws Exception {
         // Select the best model using the internal split model instance
-        OCCTSplitModel bestModel = this.m_internalModelSelection.selectModel(data);
+        OCCTSplitModel bestModel =
+                this.m_internalModelSelection.selectModel(data, rows, evaluations);
         // In case of no split we of course want to prune
         return bestModel.score() <= this.m_pruningThreshold;
     }
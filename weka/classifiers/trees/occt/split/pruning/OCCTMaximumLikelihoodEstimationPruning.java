@@ -2,6 +2,7 @@ package weka.classifiers.trees.occt.split.pruning;
 
 import weka.classifiers.trees.occt.split.models.OCCTMaximumLikelihoodEstimationSplitModel;
 import weka.classifiers.trees.occt.split.models.OCCTSplitModel;
+import weka.classifiers.trees.occt.tree.OCCTSplitEvaluations;
 import weka.core.Attribute;
 import weka.core.Instances;
 
@@ -15,17 +16,21 @@ public class OCCTMaximumLikelihoodEstimationPruning extends OCCTGeneralPruningMe
 
     private static final long serialVersionUID = 4235510347757174457L;
 
-    private OCCTMaximumLikelihoodEstimationSplitModel m_currentMLEScoreEstimator;
-
     public OCCTMaximumLikelihoodEstimationPruning(Instances instances,
                                                   List<Attribute> attributesOfB,
                                                   double pruningThreshold) {
         super(instances, attributesOfB,
                 OCCTMaximumLikelihoodEstimationSplitModel.class, pruningThreshold);
+    }
+
+    /**
+     * A new estimator is created for each node, since the estimator keeps the models it builds
+     * and sibling nodes may be pruned concurrently
+     */
+    private OCCTMaximumLikelihoodEstimationSplitModel createMLEScoreEstimator() {
         // We don't need the splitting attribute (the first parameter) as well as possible
         // attributes for splitting
-        this.m_currentMLEScoreEstimator =
-                new OCCTMaximumLikelihoodEstimationSplitModel(null, null, this.m_attributesOfB);
+        return new OCCTMaximumLikelihoodEstimationSplitModel(null, null, this.m_attributesOfB);
     }
 
     /**
@@ -40,9 +45,21 @@ public class OCCTMaximumLikelihoodEstimationPruning extends OCCTGeneralPruningMe
      * @throws Exception if something goes wrong
      */
     public boolean shouldPrune(Instances data) throws Exception {
-        double currentScore = this.m_currentMLEScoreEstimator.calculateMLEScore(data);
+        return this.shouldPrune(data, null, null);
+    }
+
+    @Override
+    public boolean shouldPrune(Instances data, int[] rows, OCCTSplitEvaluations evaluations)
+            throws Exception {
+        OCCTMaximumLikelihoodEstimationSplitModel estimator = this.createMLEScoreEstimator();
+        double currentScore = estimator.calculateMLEScore(data);
+        // The models of the node may be used by its leaf (in case it is pruned)
+        if (evaluations != null) {
+            evaluations.setLeafModels(estimator.getProbModels());
+        }
         // Select the best model using the internal split model instance
-        OCCTSplitModel bestModel = this.m_internalModelSelection.selectModel(data);
+        OCCTSplitModel bestModel =
+                this.m_internalModelSelection.selectModel(data, rows, evaluations);
         // In case of no split we of course want to prune
         return bestModel.numSubsets() == 0 || bestModel.score() <= currentScore;
     }
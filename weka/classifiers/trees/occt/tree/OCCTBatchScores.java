@@ -0,0 +1,75 @@
+package weka.classifiers.trees.occt.tree;
+
+/**
+ * The result of scoring a block of candidate pairs: for each pair (in the order of the scored
+ * instances) its L-value and whether it was classified as a match.
+ *
+ * The L-value is the value which is compared against the linkage threshold, i.e. the absolute
+ * likelihood multiplied by the cardinality (if cardinality is used). It is NaN in case the pair
+ * couldn't be scored (e.g. it reached an empty leaf), and such a pair is never a match.
+ */
+public class OCCTBatchScores {
+
+    private final double[] m_lValues;
+    private final boolean[] m_matches;
+    private final double m_linkageThreshold;
+
+    public OCCTBatchScores(double[] lValues, boolean[] matches, double linkageThreshold) {
+        if (lValues.length != matches.length) {
+            throw new IllegalArgumentException("Got " + lValues.length + " L-values for " +
+                    matches.length + " decisions");
+        }
+        this.m_lValues = lValues;
+        this.m_matches = matches;
+        this.m_linkageThreshold = linkageThreshold;
+    }
+
+    /**
+     * @return The number of scored pairs
+     */
+    public int numInstances() {
+        return this.m_lValues.length;
+    }
+
+    public double getLValue(int index) {
+        return this.m_lValues[index];
+    }
+
+    public boolean isMatch(int index) {
+        return this.m_matches[index];
+    }
+
+    /**
+     * @return The L-values of all the pairs (the array itself, not a copy)
+     */
+    public double[] getLValues() {
+        return this.m_lValues;
+    }
+
+    /**
+     * @return The decisions of all the pairs (the array itself, not a copy)
+     */
+    public boolean[] getMatches() {
+        return this.m_matches;
+    }
+
+    /**
+     * @return The number of pairs which were classified as a match
+     */
+    public int numMatches() {
+        int toReturn = 0;
+        for (boolean match : this.m_matches) {
+            if (match) {
+                ++toReturn;
+            }
+        }
+        return toReturn;
+    }
+
+    /**
+     * @return The linkage threshold which the decisions were made with
+     */
+    public double getLinkageThreshold() {
+        return this.m_linkageThreshold;
+    }
+}
@@ -1,5 +1,8 @@
 package weka.classifiers.trees.occt.tree;
 
+import weka.classifiers.trees.occt.utils.OCCTDiagnostics;
+import weka.classifiers.trees.occt.utils.OCCTRowKey;
+import weka.classifiers.trees.occt.utils.OCCTRowKeyEncoder;
 import weka.core.Attribute;
 import weka.core.Instance;
 import weka.core.Instances;
@@ -8,6 +11,7 @@ import java.io.Serializable;
 import java.util.Arrays;
 import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 
@@ -17,10 +21,21 @@ import java.util.Map;
  */
 public class OCCTCardinalityHandler implements Serializable {
 
-    private static final long serialVersionUID = 1971843965121510087L;
+    /**
+     * Changed when the records were keyed by OCCTRowKey instead of String. The encoder of the keys
+     * can't be rebuilt once the training set is released, so handlers which were serialized with
+     * String keys are rejected by an InvalidClassException and must be built again
+     */
+    private static final long serialVersionUID = 1971843965121510088L;
+
+    private static final String DIAGNOSTICS_SUBSYSTEM = "cardinality";
+    private static final OCCTDiagnostics.Counter LOOKUP_COUNTER =
+            OCCTDiagnostics.counter(OCCTCardinalityHandler.DIAGNOSTICS_SUBSYSTEM);
 
     /** The computed cardinality **/
-    protected Map<String, Double> m_cardinality;
+    protected Map<OCCTRowKey, Double> m_cardinality;
+    /** Encodes the values of the B's attributes of a record **/
+    protected OCCTRowKeyEncoder m_bRecordEncoder;
     /** The train dataset **/
     protected Instances m_train;
     /** The first index of the B's attributes **/
@@ -48,20 +63,24 @@ public class OCCTCardinalityHandler implements Serializable {
         this.m_exceptionAttributes = Arrays.asList(except);
     }
 
-    private String getBRecordAsString(Instance instance, int firstIndexOfB) {
-        StringBuilder second = new StringBuilder();
-        for (int i = firstIndexOfB; i < instance.numAttributes(); ++i) {
-            if (!this.m_exceptionAttributes.contains(instance.attribute(i))) {
-                second.append(instance.stringValue(i));
+    private OCCTRowKeyEncoder createBRecordEncoder(Instances instances, int firstIndexOfB) {
+        List<Attribute> toEncode = new LinkedList<Attribute>();
+        for (int i = firstIndexOfB; i < instances.numAttributes(); ++i) {
+            if (!this.m_exceptionAttributes.contains(instances.attribute(i))) {
+                toEncode.add(instances.attribute(i));
             }
         }
-        return second.toString();
+        return new OCCTRowKeyEncoder(toEncode);
+    }
+
+    private OCCTRowKey getBRecordKey(Instance instance) {
+        return this.m_bRecordEncoder.encode(instance);
     }
 
     private void finalizeCardinality() {
         if (this.m_cardinality != null) {
-            Map<String, Double> updatedCardinality = new HashMap<String, Double>();
-            for (Map.Entry<String, Double> entry : this.m_cardinality.entrySet()) {
+            Map<OCCTRowKey, Double> updatedCardinality = new HashMap<OCCTRowKey, Double>();
+            for (Map.Entry<OCCTRowKey, Double> entry : this.m_cardinality.entrySet()) {
                 updatedCardinality.put(entry.getKey(),
                         entry.getValue() / this.m_train.numInstances());
             }
@@ -86,33 +105,42 @@ public class OCCTCardinalityHandler implements Serializable {
     public void buildCardinality(Instances instances, int firstIndexOfB)
             throws IllegalArgumentException {
         this.checkInput(instances, firstIndexOfB);
-        this.m_cardinality = new HashMap<String, Double>();
+        this.m_cardinality = new HashMap<OCCTRowKey, Double>();
+        this.m_bRecordEncoder = this.createBRecordEncoder(instances, firstIndexOfB);
         Enumeration instancesEnum = instances.enumerateInstances();
         while (instancesEnum.hasMoreElements()) {
             Instance currentInstance = (Instance)instancesEnum.nextElement();
-            String bRecordAsString = this.getBRecordAsString(currentInstance, firstIndexOfB);
+            OCCTRowKey bRecordKey = this.getBRecordKey(currentInstance);
             // We can't use getOrDefault (since it exists only in Java >= 1.8)
             double currentCount = 0.0;
-            if (this.m_cardinality.containsKey(bRecordAsString)) {
-                currentCount = this.m_cardinality.get(bRecordAsString);
+            if (this.m_cardinality.containsKey(bRecordKey)) {
+                currentCount = this.m_cardinality.get(bRecordKey);
             }
-            this.m_cardinality.put(bRecordAsString, currentCount + 1);
+            this.m_cardinality.put(bRecordKey, currentCount + 1);
         }
         this.finalizeCardinality();
     }
 
     public double getCardinalityValue(Instance instance) {
         if (this.m_cardinality == null) {
-            System.out.println("no");
+            OCCTDiagnostics.log(OCCTDiagnostics.Level.DEBUG,
+                    OCCTCardinalityHandler.DIAGNOSTICS_SUBSYSTEM,
+                    "The cardinality wasn't built");
             return 0;
         }
-        String bRecordAsString = this.getBRecordAsString(instance, this.m_firstIndexOfB);
-        System.out.println("Str " + bRecordAsString);
-        if (!this.m_cardinality.containsKey(bRecordAsString)) {
-            System.out.println("noooo");
+        long start = OCCTCardinalityHandler.LOOKUP_COUNTER.start();
+        OCCTRowKey bRecordKey = this.getBRecordKey(instance);
+        Double cardinality = this.m_cardinality.get(bRecordKey);
+        OCCTCardinalityHandler.LOOKUP_COUNTER.stop(start);
+        if (cardinality == null) {
+            if (OCCTDiagnostics.isEnabled(OCCTDiagnostics.Level.TRACE)) {
+                OCCTDiagnostics.log(OCCTDiagnostics.Level.TRACE,
+                        OCCTCardinalityHandler.DIAGNOSTICS_SUBSYSTEM,
+                        "No cardinality for the B record of " + instance);
+            }
             return 0;
         }
-        return this.m_cardinality.get(bRecordAsString);
+        return cardinality;
     }
 
     public void cleanup() {
@@ -122,6 +150,7 @@ public class OCCTCardinalityHandler implements Serializable {
     public void fullCleanup() {
         this.cleanup();
         this.m_cardinality = null;
+        this.m_bRecordEncoder = null;
         this.m_firstIndexOfB = -1;
     }
 }
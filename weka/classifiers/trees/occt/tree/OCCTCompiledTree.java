@@ -0,0 +1,151 @@
+package weka.classifiers.trees.occt.tree;
+
+import weka.core.Attribute;
+import weka.core.Instance;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A flat, array-based representation of a trained OCCT, used for scoring.
+ *
+ * Each node of the tree is represented by an index. For an internal node, the arrays hold the
+ * index of the tested attribute and the offset of its sons in the sons array, such that the son
+ * for the value whose index is v is found at offset + v. Routing an instance to its leaf is
+ * therefore integer indexing only (no string is created and no map is looked up).
+ */
+public class OCCTCompiledTree implements Serializable {
+
+    private static final long serialVersionUID = -6384017652297751309L;
+
+    /** The value of the attribute index of a leaf **/
+    private static final int LEAF = -1;
+
+    /** Returned by the routing methods in case the instance reaches an empty leaf **/
+    public static final int EMPTY_LEAF = -1;
+
+    /** For each node, the index of the tested attribute (or LEAF) **/
+    private int[] m_attributesIndexes;
+    /**
+     * For an internal node, the offset of its sons in m_sons. For a leaf, the index of the leaf
+     * in m_leaves (or EMPTY_LEAF if no training instance reached the leaf)
+     */
+    private int[] m_offsets;
+    /** The nodes indexes of the sons of all the internal nodes **/
+    private int[] m_sons;
+    /** The models of all the non-empty leaves **/
+    private OCCTLeafNode[] m_leaves;
+
+    private OCCTCompiledTree() {
+    }
+
+    /**
+     * Flattens a trained tree
+     *
+     * @param root The root of the tree
+     *
+     * @return The compiled tree
+     */
+    public static OCCTCompiledTree compile(OCCTInternalClassifierNode root) {
+        List<OCCTInternalClassifierNode> nodes = new ArrayList<OCCTInternalClassifierNode>();
+        nodes.add(root);
+        int sonsCount = 0;
+        // Numbers all the nodes in a breadth-first order
+        for (int i = 0; i < nodes.size(); ++i) {
+            OCCTInternalClassifierNode current = nodes.get(i);
+            if (!current.m_isLeaf) {
+                Attribute chosen = current.getChosenAttribute();
+                for (int value = 0; value < chosen.numValues(); ++value) {
+                    nodes.add(current.m_sons.get(chosen.value(value)));
+                }
+                sonsCount += chosen.numValues();
+            }
+        }
+        OCCTCompiledTree compiled = new OCCTCompiledTree();
+        compiled.m_attributesIndexes = new int[nodes.size()];
+        compiled.m_offsets = new int[nodes.size()];
+        compiled.m_sons = new int[sonsCount];
+        List<OCCTLeafNode> leaves = new ArrayList<OCCTLeafNode>();
+        // The sons of each internal node were numbered consecutively, right after the sons of the
+        // previous internal node
+        int nextSon = 1;
+        int sonsOffset = 0;
+        for (int i = 0; i < nodes.size(); ++i) {
+            OCCTInternalClassifierNode current = nodes.get(i);
+            if (current.m_isLeaf) {
+                compiled.m_attributesIndexes[i] = OCCTCompiledTree.LEAF;
+                if (current.m_isEmpty || current.m_leafModel == null) {
+                    compiled.m_offsets[i] = OCCTCompiledTree.EMPTY_LEAF;
+                } else {
+                    compiled.m_offsets[i] = leaves.size();
+                    leaves.add(current.m_leafModel);
+                }
+            } else {
+                int numValues = current.getChosenAttribute().numValues();
+                compiled.m_attributesIndexes[i] = current.getChosenAttribute().index();
+                compiled.m_offsets[i] = sonsOffset;
+                for (int value = 0; value < numValues; ++value) {
+                    compiled.m_sons[sonsOffset + value] = nextSon++;
+                }
+                sonsOffset += numValues;
+            }
+        }
+        compiled.m_leaves = leaves.toArray(new OCCTLeafNode[leaves.size()]);
+        return compiled;
+    }
+
+    /**
+     * @return The number of non-empty leaves
+     */
+    public int numLeaves() {
+        return this.m_leaves.length;
+    }
+
+    /**
+     * @param leafIndex The index of the leaf (as returned by the routing methods)
+     *
+     * @return The model of the leaf
+     */
+    public OCCTLeafNode getLeaf(int leafIndex) {
+        return this.m_leaves[leafIndex];
+    }
+
+    /**
+     * Routes an instance to its leaf
+     *
+     * @param instance The instance to route
+     *
+     * @return The index of the reached leaf or EMPTY_LEAF if the reached leaf is empty or the
+     *         instance has a missing value for one of the tested attributes
+     */
+    public int leafIndex(Instance instance) {
+        int node = 0;
+        while (this.m_attributesIndexes[node] != OCCTCompiledTree.LEAF) {
+            double value = instance.value(this.m_attributesIndexes[node]);
+            if (Instance.isMissingValue(value)) {
+                return OCCTCompiledTree.EMPTY_LEAF;
+            }
+            node = this.m_sons[this.m_offsets[node] + (int) value];
+        }
+        return this.m_offsets[node];
+    }
+
+    /**
+     * Calculates the likelihood for a match
+     *
+     * @param instance The instance to calculate the probability for
+     *
+     * @return The calculated value or NaN if the value can't be calculated (the instance reaches
+     *         an empty leaf or has a missing value for one of the tested attributes)
+     *
+     * @throws Exception If something bad occurred
+     */
+    public double classifyInstance(Instance instance) throws Exception {
+        int leafIndex = this.leafIndex(instance);
+        if (leafIndex == OCCTCompiledTree.EMPTY_LEAF) {
+            return Double.NaN;
+        }
+        return this.m_leaves[leafIndex].classifyInstance(instance);
+    }
+}
@@ -3,7 +3,9 @@ package weka.classifiers.trees.occt.tree;
 import weka.classifiers.trees.occt.split.auxiliary.OCCTFeatureSelector;
 import weka.classifiers.trees.occt.split.models.OCCTSplitModel;
 import weka.classifiers.trees.occt.split.pruning.OCCTGeneralPruningMethod;
+import weka.classifiers.trees.occt.utils.OCCTColumnarData;
 import weka.classifiers.trees.occt.utils.OCCTPair;
+import weka.classifiers.trees.occt.utils.OCCTParallelTasks;
 import weka.classifiers.trees.occt.utils.OCCTStringBuffer;
 import weka.core.Attribute;
 import weka.core.Capabilities;
@@ -22,6 +24,7 @@ import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
 
 
 /**
@@ -92,6 +95,22 @@ public class OCCTInternalClassifierNode implements Drawable, Serializable,
 
     protected OCCTLeafNode m_leafModel;
 
+    /**
+     * The pool on which sibling subtrees are built concurrently (null for sequential growth).
+     */
+    protected transient ForkJoinPool m_pool;
+
+    /**
+     * Subtrees with less training instances than this size are built on the current thread.
+     */
+    protected int m_minParallelNodeSize;
+
+    /**
+     * The rows of the encoded training set which are the training instances of the node (null if
+     * unknown), released once the node is built.
+     */
+    protected transient int[] m_rows;
+
     /**
      * Constructor
      */
@@ -107,6 +126,9 @@ public class OCCTInternalClassifierNode implements Drawable, Serializable,
         this.m_featureSelector = null;
         // This is not a leaf until specified
         this.m_leafModel = null;
+        this.m_pool = null;
+        this.m_minParallelNodeSize = 0;
+        this.m_rows = null;
     }
 
     public OCCTInternalClassifierNode(OCCTSplitModelSelection modelSelectionMethod,
@@ -181,6 +203,30 @@ public class OCCTInternalClassifierNode implements Drawable, Serializable,
         return null;
     }
 
+    /**
+     * Sets the parallel tree-growth mode, in which sibling subtrees are built as fork-join tasks.
+     * The mode is inherited by all the subtrees that are created from now on.
+     *
+     * @param pool The pool on which subtrees are built (null for sequential growth)
+     * @param minParallelNodeSize Subtrees with less training instances than this size are built
+     *                            on the current thread
+     */
+    public void setParallelism(ForkJoinPool pool, int minParallelNodeSize) {
+        this.m_pool = pool;
+        this.m_minParallelNodeSize = minParallelNodeSize;
+    }
+
+    /**
+     * Sets the rows of the encoded training set (see
+     * {@link OCCTSplitModelSelection#setColumnarData}) which are the instances the node will be
+     * built from, in their order. The rows of the subtrees are derived from them.
+     *
+     * @param rows The rows of the training instances or null if they aren't encoded
+     */
+    public void setRows(int[] rows) {
+        this.m_rows = rows;
+    }
+
     /**
      * Cleanup in order to save memory.
      *
@@ -188,6 +234,7 @@ public class OCCTInternalClassifierNode implements Drawable, Serializable,
      */
     public final void cleanup(Instances justHeaderInfo) {
         this.m_train = justHeaderInfo;
+        this.m_pool = null;
         if (!this.m_isLeaf) {
             for (OCCTInternalClassifierNode son : this.m_sons.values()) {
                 son.cleanup(justHeaderInfo);
@@ -241,10 +288,12 @@ public class OCCTInternalClassifierNode implements Drawable, Serializable,
      * Returns a newly created tree.
      *
      * @param data the training data
+     * @param rows the rows of the training data in the encoded training set (or null)
      * @return the generated tree
      * @throws Exception if something goes wrong
      */
-    protected OCCTInternalClassifierNode getNewTree(Instances data) throws Exception {
+    protected OCCTInternalClassifierNode getNewTree(Instances data, int[] rows)
+            throws Exception {
         // Call copy constructor (since different attributes may be chosen for each child ...)
         OCCTSplitModelSelection newModelSelection =
                 new OCCTSplitModelSelection(this.m_modelSelectionMethod,
@@ -252,26 +301,111 @@ public class OCCTInternalClassifierNode implements Drawable, Serializable,
         // The pruning method remains the same
         OCCTInternalClassifierNode newTree =
                 new OCCTInternalClassifierNode(newModelSelection, this, this.m_pruningMethod);
+        newTree.setParallelism(this.m_pool, this.m_minParallelNodeSize);
+        newTree.setRows(rows);
         newTree.buildTree(data, false);
         return newTree;
     }
 
-    private void buildLeaf(Instances instances, List<Attribute> selectedAttributesOfB)
+    /**
+     * Makes the node a leaf whose model was built without the training instances of the node
+     * (see {@link OCCTLevelWiseTrainer})
+     *
+     * @param leafModel The built model of the leaf or null for an empty leaf
+     */
+    void setLeaf(OCCTLeafNode leafModel) {
+        this.m_isLeaf = true;
+        this.m_isEmpty = (leafModel == null);
+        this.m_leafModel = leafModel;
+        this.m_sons = null;
+    }
+
+    /**
+     * Makes the node an internal node whose split was built without the training instances of
+     * the node (see {@link OCCTLevelWiseTrainer}). A son is created for each of the values of the
+     * splitting attribute, and should be built by the caller.
+     *
+     * @param localModel The built split of the node
+     * @return The created sons, in the order of the values
+     */
+    OCCTInternalClassifierNode[] setSplit(OCCTSplitModel localModel) {
+        this.m_isLeaf = false;
+        this.m_localModel = localModel;
+        Attribute chosenAttribute = localModel.getChosenAttribute();
+        OCCTInternalClassifierNode[] sons =
+                new OCCTInternalClassifierNode[chosenAttribute.numValues()];
+        this.m_sons = new HashMap<String, OCCTInternalClassifierNode>(sons.length);
+        for (int i = 0; i < sons.length; ++i) {
+            sons[i] = new OCCTInternalClassifierNode(this.m_modelSelectionMethod, this,
+                    this.m_pruningMethod);
+            this.m_sons.put(chosenAttribute.value(i), sons[i]);
+        }
+        return sons;
+    }
+
+    /**
+     * Builds the subtrees of all the subsets of the split.
+     *
+     * In the parallel tree-growth mode, each subset which is large enough is built as a separate
+     * fork-join task, while smaller subsets are built on the current thread. The sons are
+     * returned in the order of the subsets, regardless of the order in which they were built.
+     *
+     * @param localSplittedTrain the training data of each subset (released once used)
+     * @param localSplittedRows the encoded rows of each subset (null if not encoded)
+     * @return the built sons
+     * @throws Exception if something goes wrong
+     */
+    private OCCTInternalClassifierNode[] buildSons(final Instances[] localSplittedTrain,
+                                                   final int[][] localSplittedRows)
+            throws Exception {
+        final OCCTInternalClassifierNode[] sons =
+                new OCCTInternalClassifierNode[localSplittedTrain.length];
+        List<OCCTParallelTasks.Task> parallelTasks = new ArrayList<OCCTParallelTasks.Task>();
+        List<Integer> sequentialSons = new ArrayList<Integer>();
+        for (int i = 0; i < localSplittedTrain.length; ++i) {
+            if (this.m_pool != null &&
+                    localSplittedTrain[i].numInstances() >= this.m_minParallelNodeSize) {
+                final int sonIndex = i;
+                parallelTasks.add(new OCCTParallelTasks.Task() {
+                    @Override
+                    public void run() throws Exception {
+                        sons[sonIndex] = OCCTInternalClassifierNode.this.getNewTree(
+                                localSplittedTrain[sonIndex],
+                                (localSplittedRows != null) ? localSplittedRows[sonIndex] : null);
+                        localSplittedTrain[sonIndex] = null;
+                    }
+                });
+            } else {
+                sequentialSons.add(i);
+            }
+        }
+        OCCTParallelTasks.invokeAll(this.m_pool, parallelTasks);
+        for (int i : sequentialSons) {
+            sons[i] = this.getNewTree(localSplittedTrain[i],
+                    (localSplittedRows != null) ? localSplittedRows[i] : null);
+            localSplittedTrain[i] = null;
+        }
+        return sons;
+    }
+
+    private void buildLeaf(Instances instances, OCCTSplitEvaluations evaluations)
             throws Exception {
         this.m_isLeaf = true;
         // TODO? Do we really need this?
         if (instances.numInstances() == 0) {
             this.m_isEmpty = true;
         } else {
-            // We reach a leaf - thus, models for that leaf should be created
+            // We reach a leaf - thus, models for that leaf should be created (the features of the
+            // parent are selected only when a non-empty leaf requires them)
             this.m_leafModel =
                     new OCCTLeafNode(this.m_modelSelectionMethod.getAttributesOfB(),
-                                     selectedAttributesOfB);
-            this.m_leafModel.buildLeaf(instances);
+                                     this.getCurrentSelectedFeatures());
+            this.m_leafModel.buildLeaf(instances,
+                    (evaluations != null) ? evaluations.getLeafModels() : null);
         }
     }
 
-    private List<Attribute> getCurrentSelectedFeatures() {
+    private List<Attribute> getCurrentSelectedFeatures() throws Exception {
         if (this.m_parent == null || this.m_parent.m_featureSelector == null) {
             return null;
         }
@@ -296,43 +430,70 @@ public class OCCTInternalClassifierNode implements Drawable, Serializable,
         // Currently that is not a leaf and there are no sons
         this.m_isLeaf = false;
         this.m_sons = null;
+        // The rows are required only while the node is built
+        int[] rows = this.m_rows;
+        this.m_rows = null;
+        // The candidate splits of the node are shared by the pruning and the model selection,
+        // so a candidate which is evaluated by both of them (the same criterion) is built once
+        OCCTSplitEvaluations evaluations = this.m_modelSelectionMethod.createEvaluations();
         // First, let's check if we should perform pruning here - without continuing to branch
         if (this.m_pruningMethod != null) {
-            if (this.m_pruningMethod.shouldPrune(instances)) {
-                this.buildLeaf(instances, this.getCurrentSelectedFeatures());
+            if (this.m_pruningMethod.shouldPrune(instances, rows, evaluations)) {
+                this.buildLeaf(instances, evaluations);
                 return;
             }
         }
         // In any other case, create the leafs
-        this.m_localModel = this.m_modelSelectionMethod.selectModel(instances);
+        this.m_localModel =
+                this.m_modelSelectionMethod.selectModel(instances, rows, evaluations);
         // Continue to perform splits only if more that one subset was extracted, otherwise, this
         // is a leaf
         if (this.m_localModel.numSubsets() > 1) {
             Attribute chosenAttribute = this.m_localModel.getChosenAttribute();
-            // Select the features for the leaf dataset
+            // The features for the leaf dataset are selected only if a son becomes a leaf
             this.m_featureSelector =
                     new OCCTFeatureSelector(chosenAttribute,
                                             this.m_modelSelectionMethod.getAttributesOfB(),
-                                            instances);
+                                            instances,
+                                            this.m_modelSelectionMethod.getColumnarData(),
+                                            rows,
+                                            (this.m_parent != null) ?
+                                                    this.m_parent.m_featureSelector : null);
+            // The models of the candidates aren't required anymore
+            evaluations = null;
             // Perform the actual split
-            Instances[] localSplittedTrain = this.m_localModel.split(instances);
-            //((OCCTSingleAttributeSplitModel)this.m_localModel).splitInstances(instances);
+            Instances[] localSplittedTrain = this.m_localModel.splitInstances(instances);
+            // The rows of the subsets are split the same way (unless they can't be)
+            OCCTColumnarData columnarData = this.m_modelSelectionMethod.getColumnarData();
+            int[][] localSplittedRows = null;
+            if (rows != null && columnarData != null) {
+                localSplittedRows = this.m_localModel.splitRows(instances, columnarData, rows);
+            }
+            // The kept model must not hold the encoded training set after the tree is built
+            this.m_localModel.releaseTrainingData();
             // Initialize sons and continue splitting
+            OCCTInternalClassifierNode[] sons =
+                    this.buildSons(localSplittedTrain, localSplittedRows);
+            // The sons are always inserted in the order of the values, so the iteration order
+            // of the map (and hence assignIDs()) doesn't depend on the order of building
             this.m_sons = new HashMap<String, OCCTInternalClassifierNode>(
                     this.m_localModel.numSubsets());
-            for (int i = 0; i < localSplittedTrain.length; ++i) {
-                this.m_sons.put(chosenAttribute.value(i), this.getNewTree(localSplittedTrain[i]));
-                localSplittedTrain[i] = null;
+            for (int i = 0; i < sons.length; ++i) {
+                this.m_sons.put(chosenAttribute.value(i), sons[i]);
             }
             Enumeration possibleValues = chosenAttribute.enumerateValues();
             while (possibleValues.hasMoreElements()) {
                 String currentValue = (String)possibleValues.nextElement();
                 if (!this.m_sons.containsKey(currentValue)) {
-                    this.m_sons.put(currentValue, this.getNewTree(new Instances(instances, 0)));
+                    this.m_sons.put(currentValue, this.getNewTree(new Instances(instances, 0),
+                            (localSplittedRows != null) ? new int[0] : null));
                 }
             }
+            // All the sons are built, so no more features can be requested from this node
+            this.m_featureSelector.release();
         } else {
-            this.buildLeaf(instances, this.getCurrentSelectedFeatures());
+            this.m_localModel.releaseTrainingData();
+            this.buildLeaf(instances, evaluations);
         }
     }
 
@@ -1,6 +1,8 @@
 package weka.classifiers.trees.occt.tree;
 
+import weka.classifiers.trees.occt.split.auxiliary.OCCTFrequencyTableEstimator;
 import weka.classifiers.trees.occt.split.auxiliary.OCCTProbModelsHandler;
+import weka.classifiers.trees.occt.utils.OCCTLRUCache;
 import weka.core.Attribute;
 import weka.core.Instance;
 import weka.core.Instances;
@@ -18,6 +20,8 @@ public class OCCTLeafNode implements Serializable {
 
 
     private OCCTProbModelsHandler m_probModels;
+    /** The counts of the records of the leaf, used instead of the models (or null) **/
+    private OCCTFrequencyTableEstimator m_frequencyTable;
 
     private List<Attribute> m_attributesOfB;
     private List<Attribute> m_selectedAttributesOfB;
@@ -38,15 +42,67 @@ public class OCCTLeafNode implements Serializable {
     }
 
     public void buildLeaf(Instances instances) throws Exception {
+        this.buildLeaf(instances, null);
+    }
+
+    /**
+     * Builds the leaf, reusing probabilistic models which were already built from the same
+     * instances (e.g. by the pruning method) if they model the attributes of the leaf
+     *
+     * @param instances The instances of the leaf
+     * @param builtModels Models which were built from the instances (may be null)
+     *
+     * @throws Exception If the models can't be built
+     */
+    public void buildLeaf(Instances instances, OCCTProbModelsHandler builtModels)
+            throws Exception {
         this.m_trainInstancesCount = instances.numInstances();
         // In case no selected features - use all the attributes of B
         if (this.m_selectedAttributesOfB == null) {
             this.m_selectedAttributesOfB = this.m_attributesOfB;
         }
+        if (builtModels != null && builtModels.isBuilt() &&
+                builtModels.getAttributesToBuildFrom().equals(this.m_selectedAttributesOfB)) {
+            this.m_probModels = builtModels;
+            return;
+        }
         this.m_probModels = new OCCTProbModelsHandler(this.m_selectedAttributesOfB);
         this.m_probModels.buildModels(instances);
     }
 
+    /**
+     * Builds the leaf from the counts of its records (which were gathered without keeping the
+     * instances), which are then used instead of the probabilistic models. All the attributes of
+     * B are modelled.
+     *
+     * @param frequencyTable The counts of the records of the leaf (over the attributes of B)
+     */
+    public void buildLeaf(OCCTFrequencyTableEstimator frequencyTable) {
+        this.m_trainInstancesCount = frequencyTable.numRecords();
+        this.m_selectedAttributesOfB = this.m_attributesOfB;
+        this.m_probModels = null;
+        this.m_frequencyTable = frequencyTable;
+    }
+
+    /**
+     * Sets the maximal number of L-values which are cached by the leaf
+     *
+     * @param lValuesCacheSize The maximal number of cached L-values (0 disables the cache)
+     */
+    public void setLValuesCacheSize(int lValuesCacheSize) {
+        if (this.m_probModels != null) {
+            this.m_probModels.setLValuesCacheSize(lValuesCacheSize);
+        }
+    }
+
+    /**
+     * @return The counts of the L-values cache of the leaf or null if the leaf has no cache (or
+     *         didn't cache any L-value yet)
+     */
+    public OCCTLRUCache.Statistics getLValuesCacheStatistics() {
+        return this.m_probModels == null ? null : this.m_probModels.getLValuesCacheStatistics();
+    }
+
     @Override
     public String toString() {
         StringBuilder names = new StringBuilder();
@@ -75,6 +131,9 @@ public class OCCTLeafNode implements Serializable {
      * @throws Exception If something bad occurred
      */
     public double classifyInstance(Instance instance) throws Exception {
+        if (this.m_frequencyTable != null) {
+            return this.m_frequencyTable.logLikelihood(instance);
+        }
         return this.m_probModels.calculateLValueForSingleInstance(instance);
     }
 }
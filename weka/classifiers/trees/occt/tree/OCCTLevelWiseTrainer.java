@@ -0,0 +1,277 @@
+package weka.classifiers.trees.occt.tree;
+
+import weka.classifiers.trees.occt.split.auxiliary.OCCTFrequencyTableEstimator;
+import weka.classifiers.trees.occt.split.auxiliary.OCCTSplitModelComparators;
+import weka.classifiers.trees.occt.split.models.OCCTCountingMaximumLikelihoodEstimationSplitModel;
+import weka.classifiers.trees.occt.utils.OCCTDiagnostics;
+import weka.classifiers.trees.occt.utils.OCCTRowKey;
+import weka.core.Attribute;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.NoSupportForMissingValuesException;
+import weka.core.converters.IncrementalConverter;
+import weka.core.converters.Loader;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Grows a tree breadth-first over a training set which is streamed by an incremental loader, so
+ * the instances of the training set are never kept in memory.
+ *
+ * Each level of the tree is grown by a single sequential pass over the records: each record is
+ * routed to its node on the current level, and its values of B are counted in the statistics of
+ * the node - a frequency table of all the records of the node and a frequency table for each
+ * value of each of the candidate attributes of the node (see
+ * {@link OCCTFrequencyTableEstimator}). After the pass, the splits of all the nodes of the level
+ * are decided from their statistics by the counting MLE criterion (see
+ * {@link OCCTCountingMaximumLikelihoodEstimationSplitModel}), so the splits are the same like the
+ * splits of a tree which is built from the whole data by that criterion. A node which isn't split
+ * becomes a leaf whose frequency table is its probabilistic model (no feature selection is
+ * performed, so all the attributes of B are modelled).
+ *
+ * The statistics of a node are the counts of its distinct B records, so the memory depends on
+ * the size of the tree, the arity of the attributes and the number of distinct records, but not
+ * on the number of records of the training set.
+ */
+public class OCCTLevelWiseTrainer {
+
+    private static final String DIAGNOSTICS_SUBSYSTEM = "level-wise";
+    private static final OCCTDiagnostics.Counter PASS_COUNTER =
+            OCCTDiagnostics.counter(OCCTLevelWiseTrainer.DIAGNOSTICS_SUBSYSTEM + ".pass");
+
+    /** Streams the training records (must be an incremental loader) **/
+    private Loader m_loader;
+    /** The header of the tree (the records of the loader have the same attributes, in the
+     *  same order, and possibly without the class attribute which is the last one) **/
+    private Instances m_header;
+    private List<Attribute> m_attributesOfB;
+    /** Whether a node is pruned when no split has a higher likelihood than the node itself **/
+    private boolean m_prune;
+    /** Creates the frequency tables (all of them share its encoder of the records of B) **/
+    private OCCTFrequencyTableEstimator m_template;
+    /** The root of the tree which is currently built **/
+    private OCCTInternalClassifierNode m_root;
+
+    /**
+     * The statistics of a node of the current level, which are gathered by a pass over the
+     * records and released once the node is decided
+     */
+    private static class NodeStatistics {
+
+        private final OCCTInternalClassifierNode m_node;
+        /** The attributes which may split the node (in the order of the header) **/
+        private final List<Attribute> m_candidates;
+        /** The counts of all the records of the node **/
+        private final OCCTFrequencyTableEstimator m_records;
+        /** The counts of the records of each value of each candidate (created lazily) **/
+        private final OCCTFrequencyTableEstimator[][] m_recordsByValue;
+
+        private NodeStatistics(OCCTInternalClassifierNode node, List<Attribute> candidates,
+                               OCCTFrequencyTableEstimator template) {
+            this.m_node = node;
+            this.m_candidates = candidates;
+            this.m_records = new OCCTFrequencyTableEstimator(template);
+            this.m_recordsByValue = new OCCTFrequencyTableEstimator[candidates.size()][];
+            for (int i = 0; i < this.m_recordsByValue.length; ++i) {
+                this.m_recordsByValue[i] =
+                        new OCCTFrequencyTableEstimator[candidates.get(i).numValues()];
+            }
+        }
+    }
+
+    /**
+     * @param loader Streams the training records (must be an incremental loader, which can be
+     *               reset for each pass)
+     * @param header The header of the trained tree: the header of the loader with an optional
+     *               class attribute as the last attribute
+     * @param attributesOfB The attributes of T_B
+     * @param prune Whether a node should become a leaf when none of its splits has a higher
+     *              likelihood than the node itself
+     */
+    public OCCTLevelWiseTrainer(Loader loader, Instances header, List<Attribute> attributesOfB,
+                                boolean prune) {
+        if (!(loader instanceof IncrementalConverter)) {
+            throw new IllegalArgumentException("The training records must be read by an " +
+                    "incremental loader (e.g. of an ARFF file)");
+        }
+        this.m_loader = loader;
+        this.m_header = header;
+        this.m_attributesOfB = attributesOfB;
+        this.m_prune = prune;
+        this.m_template = new OCCTFrequencyTableEstimator(attributesOfB);
+    }
+
+    /**
+     * @return The attributes of the header which may split the root (all the attributes except
+     *         the attributes of B and the class attribute)
+     */
+    private List<Attribute> getRootCandidates() {
+        List<Attribute> candidates = new ArrayList<Attribute>();
+        Enumeration<?> attributes = this.m_header.enumerateAttributes();
+        while (attributes.hasMoreElements()) {
+            Attribute nextAttribute = (Attribute) attributes.nextElement();
+            if (!this.m_attributesOfB.contains(nextAttribute)) {
+                candidates.add(nextAttribute);
+            }
+        }
+        return candidates;
+    }
+
+    /**
+     * Builds the tree, with a pass over the records for each of its levels
+     *
+     * @return The root of the built tree
+     *
+     * @throws Exception If the records can't be read or contain missing values
+     */
+    public OCCTInternalClassifierNode buildTree() throws Exception {
+        this.m_root = new OCCTInternalClassifierNode(null, null, null);
+        List<NodeStatistics> level = new ArrayList<NodeStatistics>();
+        level.add(new NodeStatistics(this.m_root, this.getRootCandidates(), this.m_template));
+        int depth = 0;
+        while (!level.isEmpty()) {
+            this.gatherStatistics(level);
+            OCCTDiagnostics.log(OCCTDiagnostics.Level.DEBUG,
+                    OCCTLevelWiseTrainer.DIAGNOSTICS_SUBSYSTEM,
+                    "Deciding %d nodes of level %d", level.size(), depth++);
+            level = this.decideLevel(level);
+        }
+        OCCTInternalClassifierNode toReturn = this.m_root;
+        this.m_root = null;
+        toReturn.cleanup(new Instances(this.m_header, 0));
+        return toReturn;
+    }
+
+    /**
+     * Routes a record from the root to its node on the current level
+     *
+     * @return The node of the record or null if the record reaches a leaf of an upper level
+     */
+    private NodeStatistics route(OCCTInternalClassifierNode root, Instance record,
+                                 Map<OCCTInternalClassifierNode, NodeStatistics> level) {
+        OCCTInternalClassifierNode current = root;
+        while (true) {
+            NodeStatistics toReturn = level.get(current);
+            if (toReturn != null) {
+                return toReturn;
+            }
+            if (current.m_isLeaf) {
+                return null;
+            }
+            Attribute chosen = current.getChosenAttribute();
+            current = current.m_sons.get(chosen.value((int) record.value(chosen.index())));
+        }
+    }
+
+    /**
+     * Performs a pass over all the records, and adds each record which reaches a node of the
+     * level to the statistics of that node
+     */
+    private void gatherStatistics(List<NodeStatistics> level) throws Exception {
+        long start = OCCTLevelWiseTrainer.PASS_COUNTER.start();
+        Map<OCCTInternalClassifierNode, NodeStatistics> nodes =
+                new IdentityHashMap<OCCTInternalClassifierNode, NodeStatistics>();
+        for (NodeStatistics statistics : level) {
+            nodes.put(statistics.m_node, statistics);
+        }
+        this.m_loader.reset();
+        Instances structure = this.m_loader.getStructure();
+        int numAttributes = Math.min(structure.numAttributes(), this.m_header.numAttributes());
+        Instance record;
+        while ((record = this.m_loader.getNextInstance(structure)) != null) {
+            for (int i = 0; i < numAttributes; ++i) {
+                if (i != this.m_header.classIndex() && record.isMissing(i)) {
+                    throw new NoSupportForMissingValuesException(
+                            "Cannot handle missing values (" + structure.attribute(i).name() +
+                                    ")");
+                }
+            }
+            NodeStatistics statistics = this.route(this.m_root, record, nodes);
+            if (statistics == null) {
+                continue;
+            }
+            // All the tables share the encoder of the template, so the record is encoded once
+            OCCTRowKey key = this.m_template.encode(record);
+            statistics.m_records.add(key, 1);
+            for (int i = 0; i < statistics.m_candidates.size(); ++i) {
+                int value = (int) record.value(statistics.m_candidates.get(i).index());
+                OCCTFrequencyTableEstimator[] byValue = statistics.m_recordsByValue[i];
+                if (byValue[value] == null) {
+                    byValue[value] = new OCCTFrequencyTableEstimator(this.m_template);
+                }
+                byValue[value].add(key, 1);
+            }
+        }
+        OCCTLevelWiseTrainer.PASS_COUNTER.stop(start);
+    }
+
+    /**
+     * Selects the split of a node like {@link OCCTSplitModelSelection} does: ties are broken in
+     * favour of the last candidate
+     *
+     * @return The best valid split or null if there is no valid split
+     */
+    private OCCTCountingMaximumLikelihoodEstimationSplitModel selectModel(
+            NodeStatistics statistics) {
+        // The comparator of the counting MLE models
+        Comparator<Double> splitModelComparator = OCCTSplitModelComparators.HIGHEST_SCORE_CHOOSER;
+        OCCTCountingMaximumLikelihoodEstimationSplitModel bestModel = null;
+        for (int i = 0; i < statistics.m_candidates.size(); ++i) {
+            Attribute candidate = statistics.m_candidates.get(i);
+            OCCTCountingMaximumLikelihoodEstimationSplitModel currentModel =
+                    new OCCTCountingMaximumLikelihoodEstimationSplitModel(candidate,
+                            statistics.m_candidates, this.m_attributesOfB);
+            currentModel.buildClassifier(statistics.m_recordsByValue[i]);
+            if (currentModel.checkModel() && (bestModel == null ||
+                    splitModelComparator.compare(currentModel.score(), bestModel.score()) >= 0)) {
+                bestModel = currentModel;
+            }
+        }
+        return bestModel;
+    }
+
+    /**
+     * Decides the splits of all the nodes of a level (using their gathered statistics)
+     *
+     * @return The statistics of the nodes of the next level (which weren't gathered yet)
+     */
+    private List<NodeStatistics> decideLevel(List<NodeStatistics> level) {
+        List<NodeStatistics> nextLevel = new ArrayList<NodeStatistics>();
+        for (NodeStatistics statistics : level) {
+            OCCTInternalClassifierNode node = statistics.m_node;
+            if (statistics.m_records.numRecords() == 0) {
+                node.setLeaf(null);
+                continue;
+            }
+            OCCTCountingMaximumLikelihoodEstimationSplitModel bestModel =
+                    this.selectModel(statistics);
+            if (bestModel == null || (this.m_prune &&
+                    bestModel.score() <= statistics.m_records.logLikelihood())) {
+                OCCTLeafNode leaf = new OCCTLeafNode(this.m_attributesOfB);
+                leaf.buildLeaf(statistics.m_records);
+                node.setLeaf(leaf);
+                continue;
+            }
+            Attribute chosenAttribute = bestModel.getChosenAttribute();
+            OCCTFrequencyTableEstimator[] sonsRecords =
+                    statistics.m_recordsByValue[statistics.m_candidates.indexOf(chosenAttribute)];
+            List<Attribute> sonsCandidates = new ArrayList<Attribute>(statistics.m_candidates);
+            sonsCandidates.remove(chosenAttribute);
+            OCCTInternalClassifierNode[] sons = node.setSplit(bestModel);
+            for (int i = 0; i < sons.length; ++i) {
+                // The sons without records are known to be empty without another pass
+                if (sonsRecords[i] == null) {
+                    sons[i].setLeaf(null);
+                } else {
+                    nextLevel.add(new NodeStatistics(sons[i], sonsCandidates, this.m_template));
+                }
+            }
+        }
+        return nextLevel;
+    }
+}
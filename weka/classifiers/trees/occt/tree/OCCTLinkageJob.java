@@ -0,0 +1,476 @@
+package weka.classifiers.trees.occt.tree;
+
+import weka.classifiers.trees.occt.utils.OCCTDiagnostics;
+import weka.classifiers.trees.occt.utils.OCCTParallelTasks;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.converters.Loader;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Links the records of table A to the records of table B by a trained tree, without creating
+ * their cross product.
+ *
+ * The internal nodes of the tree test only attributes of A and the leaves model only attributes
+ * of B, so the L-value of a pair depends only on the leaf which its A record reaches and on its
+ * B record. Hence the job routes each A record to its leaf a single time, groups the A records
+ * by their leaves, and scores each B record a single time for each leaf which was reached by any
+ * A record. The scores of a leaf are then fanned out to all the A records of the leaf, so the
+ * number of model evaluations is at most (number of leaves) * |B| instead of |A| * |B|.
+ *
+ * Only the row numbers of the A records are kept by their groups. A group whose number of rows
+ * exceeds the buffer size is spilled to a temporary file, so large tables may be linked with a
+ * bounded memory.
+ */
+public class OCCTLinkageJob {
+
+    private static final String DIAGNOSTICS_SUBSYSTEM = "linkage";
+    private static final OCCTDiagnostics.Counter LEAF_COUNTER =
+            OCCTDiagnostics.counter(OCCTLinkageJob.DIAGNOSTICS_SUBSYSTEM + ".leaf");
+    private static final OCCTDiagnostics.Counter SPILL_COUNTER =
+            OCCTDiagnostics.counter(OCCTLinkageJob.DIAGNOSTICS_SUBSYSTEM + ".spill");
+
+    /** The minimal number of B records which are scored by a single task **/
+    private static final int MIN_CHUNK_SIZE = 256;
+
+    /**
+     * Receives the linked pairs, in the order of the leaves and then of the A records of each
+     * leaf. The pairs are passed from the thread which runs the job.
+     */
+    public interface Sink {
+        /**
+         * @param rowOfA The index of the A record in table A
+         * @param rowOfB The index of the B record in table B
+         * @param lValue The L-value of the pair (NaN if the pair can't be scored)
+         * @param isMatch Whether the pair was classified as a match
+         *
+         * @throws Exception If the pair can't be handled (the job is then stopped)
+         */
+        void pair(int rowOfA, int rowOfB, double lValue, boolean isMatch) throws Exception;
+    }
+
+    /**
+     * The row numbers of the A records which reached a single leaf
+     */
+    private class LeafGroup {
+
+        private int[] m_buffer;
+        private int m_size;
+        /** The rows which were spilled (null if the group was never spilled) **/
+        private File m_spillFile;
+        private DataOutputStream m_spill;
+        private int m_numSpilled;
+
+        private LeafGroup() {
+            this.m_buffer = new int[16];
+        }
+
+        private void add(int row) throws IOException {
+            if (this.m_size == OCCTLinkageJob.this.m_maxBufferedRows) {
+                this.spill();
+            }
+            if (this.m_size == this.m_buffer.length) {
+                this.m_buffer = Arrays.copyOf(this.m_buffer, Math.min(this.m_buffer.length * 2,
+                        OCCTLinkageJob.this.m_maxBufferedRows));
+            }
+            this.m_buffer[this.m_size++] = row;
+        }
+
+        private void spill() throws IOException {
+            if (this.m_spill == null) {
+                this.m_spillFile = File.createTempFile("occt-linkage-", ".tmp",
+                        OCCTLinkageJob.this.m_tempDirectory);
+                this.m_spill = new DataOutputStream(new BufferedOutputStream(
+                        new FileOutputStream(this.m_spillFile)));
+            }
+            OCCTLinkageJob.SPILL_COUNTER.increment();
+            for (int i = 0; i < this.m_size; ++i) {
+                this.m_spill.writeInt(this.m_buffer[i]);
+            }
+            this.m_numSpilled += this.m_size;
+            this.m_size = 0;
+        }
+
+        /**
+         * Passes the pairs of all the rows of the group with the given B records to the sink
+         */
+        private void fanOut(int[] rowsOfB, int numRowsOfB, double[] lValues, boolean[] matches,
+                            Sink sink) throws Exception {
+            if (this.m_spill != null) {
+                this.m_spill.close();
+                DataInputStream input = new DataInputStream(new BufferedInputStream(
+                        new FileInputStream(this.m_spillFile)));
+                try {
+                    for (int i = 0; i < this.m_numSpilled; ++i) {
+                        OCCTLinkageJob.fanOut(input.readInt(), rowsOfB, numRowsOfB, lValues,
+                                matches, sink);
+                    }
+                } finally {
+                    input.close();
+                }
+            }
+            for (int i = 0; i < this.m_size; ++i) {
+                OCCTLinkageJob.fanOut(this.m_buffer[i], rowsOfB, numRowsOfB, lValues, matches,
+                        sink);
+            }
+        }
+
+        private void release() throws IOException {
+            this.m_buffer = null;
+            if (this.m_spill != null) {
+                this.m_spill.close();
+                this.m_spill = null;
+                this.m_spillFile.delete();
+            }
+        }
+    }
+
+    private final OCCTCompiledTree m_tree;
+    /** Calculates the cardinality of the B records (null if cardinality isn't used) **/
+    private final OCCTCardinalityHandler m_cardinalityHandler;
+    /** The index of the first attribute of B in the training data (the A attributes precede
+     *  it, and the class attribute is the last attribute) **/
+    private final int m_firstIndexOfB;
+    /** The number of attributes of the training data, including the class attribute **/
+    private final int m_numTrainAttributes;
+    private final double m_linkageThreshold;
+
+    /** Whether only the matching pairs are passed to the sink **/
+    private boolean m_matchesOnly;
+    /** The maximal number of rows which are kept in memory by a group before it is spilled **/
+    private int m_maxBufferedRows;
+    /** The directory of the spilled groups (null for the default temporary directory) **/
+    private File m_tempDirectory;
+    private int m_numThreads;
+
+    /**
+     * @param tree The compiled trained tree
+     * @param cardinalityHandler Calculates the cardinality of the B records (null if cardinality
+     *                           isn't used)
+     * @param firstIndexOfB The index of the first attribute of B in the training data
+     * @param numTrainAttributes The number of attributes of the training data, including the
+     *                           class attribute
+     * @param linkageThreshold The minimal L-value of a match
+     */
+    public OCCTLinkageJob(OCCTCompiledTree tree, OCCTCardinalityHandler cardinalityHandler,
+                          int firstIndexOfB, int numTrainAttributes, double linkageThreshold) {
+        this.m_tree = tree;
+        this.m_cardinalityHandler = cardinalityHandler;
+        this.m_firstIndexOfB = firstIndexOfB;
+        this.m_numTrainAttributes = numTrainAttributes;
+        this.m_linkageThreshold = linkageThreshold;
+        this.m_matchesOnly = true;
+        this.m_maxBufferedRows = 1 << 16;
+        this.m_tempDirectory = null;
+        this.m_numThreads = 1;
+    }
+
+    /**
+     * @param matchesOnly Whether only the matching pairs are passed to the sink (otherwise all
+     *                    the pairs of the cross product are passed)
+     */
+    public void setMatchesOnly(boolean matchesOnly) {
+        this.m_matchesOnly = matchesOnly;
+    }
+
+    public boolean getMatchesOnly() {
+        return this.m_matchesOnly;
+    }
+
+    /**
+     * @param maxBufferedRows The maximal number of A rows which are kept in memory by the group
+     *                        of a leaf, before they are spilled to disk
+     */
+    public void setMaxBufferedRows(int maxBufferedRows) {
+        if (maxBufferedRows < 1) {
+            throw new IllegalArgumentException("At least a single row must be buffered");
+        }
+        this.m_maxBufferedRows = maxBufferedRows;
+    }
+
+    public int getMaxBufferedRows() {
+        return this.m_maxBufferedRows;
+    }
+
+    /**
+     * @param tempDirectory The directory of the spilled groups (null for the default temporary
+     *                      directory)
+     */
+    public void setTempDirectory(File tempDirectory) {
+        this.m_tempDirectory = tempDirectory;
+    }
+
+    public File getTempDirectory() {
+        return this.m_tempDirectory;
+    }
+
+    /**
+     * @param numThreads The number of threads which score the B records of a leaf (0 or less
+     *                   for all the available processors)
+     */
+    public void setNumThreads(int numThreads) {
+        this.m_numThreads = numThreads;
+    }
+
+    public int getNumThreads() {
+        return this.m_numThreads;
+    }
+
+    private void checkTables(Instances structureOfA, Instances tableB) {
+        if (structureOfA.numAttributes() != this.m_firstIndexOfB) {
+            throw new IllegalArgumentException("Expected " + this.m_firstIndexOfB +
+                    " attributes of A but got " + structureOfA.numAttributes());
+        }
+        this.checkTableB(tableB);
+    }
+
+    private void checkTableB(Instances tableB) {
+        // The class attribute follows the attributes of B
+        if (this.m_firstIndexOfB + tableB.numAttributes() + 1 != this.m_numTrainAttributes) {
+            throw new IllegalArgumentException("Expected " +
+                    (this.m_numTrainAttributes - this.m_firstIndexOfB - 1) +
+                    " attributes of B but got " + tableB.numAttributes());
+        }
+    }
+
+    /**
+     * Links all the records of two tables
+     *
+     * @param tableA The A records (the attributes of A of the training data, in their order)
+     * @param tableB The B records (the attributes of B of the training data, in their order)
+     * @param sink Receives the linked pairs
+     *
+     * @return The number of pairs which were passed to the sink
+     *
+     * @throws Exception If the pairs can't be scored or the sink fails
+     */
+    public long run(Instances tableA, Instances tableB, Sink sink) throws Exception {
+        this.checkTables(tableA, tableB);
+        LeafGroup[] groups = new LeafGroup[this.m_tree.numLeaves() + 1];
+        try {
+            for (int row = 0; row < tableA.numInstances(); ++row) {
+                this.addToGroup(groups, tableA.instance(row), row);
+            }
+            return this.link(groups, tableB, sink);
+        } finally {
+            OCCTLinkageJob.release(groups);
+        }
+    }
+
+    /**
+     * Links all the records of two tables, where the A records are streamed by a loader (so they
+     * are read a single time and never kept in memory). The rows of A are numbered in the order
+     * of the loader.
+     *
+     * @param loaderOfA Reads the A records (incrementally if possible)
+     * @param tableB The B records (the attributes of B of the training data, in their order)
+     * @param sink Receives the linked pairs
+     *
+     * @return The number of pairs which were passed to the sink
+     *
+     * @throws Exception If the A records can't be read, the pairs can't be scored or the sink
+     *                   fails
+     */
+    public long run(Loader loaderOfA, Instances tableB, Sink sink) throws Exception {
+        Instances structureOfA = loaderOfA.getStructure();
+        this.checkTables(structureOfA, tableB);
+        LeafGroup[] groups = new LeafGroup[this.m_tree.numLeaves() + 1];
+        try {
+            int row = 0;
+            Instance recordOfA;
+            while ((recordOfA = loaderOfA.getNextInstance(structureOfA)) != null) {
+                this.addToGroup(groups, recordOfA, row++);
+            }
+            return this.link(groups, tableB, sink);
+        } finally {
+            OCCTLinkageJob.release(groups);
+        }
+    }
+
+    /**
+     * Adds a row to the group of the leaf which its record reaches (the records which reach an
+     * empty leaf are grouped after all the leaves)
+     */
+    private void addToGroup(LeafGroup[] groups, Instance recordOfA, int row) throws IOException {
+        int leafIndex = this.m_tree.leafIndex(recordOfA);
+        if (leafIndex == OCCTCompiledTree.EMPTY_LEAF) {
+            // No such pair is a match
+            if (this.m_matchesOnly) {
+                return;
+            }
+            leafIndex = groups.length - 1;
+        }
+        if (groups[leafIndex] == null) {
+            groups[leafIndex] = new LeafGroup();
+        }
+        groups[leafIndex].add(row);
+    }
+
+    private static void release(LeafGroup[] groups) throws IOException {
+        for (LeafGroup group : groups) {
+            if (group != null) {
+                group.release();
+            }
+        }
+    }
+
+    /**
+     * Creates the pairs which are scored by the leaves for all the B records: the values of B are
+     * placed at their indexes in the training data, while the attributes of A (which the leaves
+     * don't use) and the class attribute are missing
+     */
+    private Instance[] createPairs(Instances tableB) {
+        int numAttributes = this.m_firstIndexOfB + tableB.numAttributes() + 1;
+        Instance[] pairs = new Instance[tableB.numInstances()];
+        for (int row = 0; row < pairs.length; ++row) {
+            double[] values = new double[numAttributes];
+            Arrays.fill(values, Instance.missingValue());
+            Instance recordOfB = tableB.instance(row);
+            for (int i = 0; i < tableB.numAttributes(); ++i) {
+                values[this.m_firstIndexOfB + i] = recordOfB.value(i);
+            }
+            pairs[row] = new Instance(1.0, values);
+        }
+        return pairs;
+    }
+
+    /**
+     * Calculates the cardinality of each pair, which depends only on its B record (so it is
+     * calculated once for all the leaves)
+     */
+    private double[] calculateCardinalities(Instance[] pairs) {
+        double[] cardinalities = new double[pairs.length];
+        for (int row = 0; row < pairs.length; ++row) {
+            cardinalities[row] = (this.m_cardinalityHandler == null) ?
+                    1 : this.m_cardinalityHandler.getCardinalityValue(pairs[row]);
+        }
+        return cardinalities;
+    }
+
+    /**
+     * Scores the B records by each leaf which has a group, and fans the scores out to the group
+     */
+    private long link(LeafGroup[] groups, Instances tableB, Sink sink) throws Exception {
+        final Instance[] pairs = this.createPairs(tableB);
+        final double[] cardinalities = this.calculateCardinalities(pairs);
+        final double[] lValues = new double[pairs.length];
+        final boolean[] matches = new boolean[pairs.length];
+        int[] rowsOfB = new int[pairs.length];
+        long numLinked = 0;
+        ForkJoinPool pool = OCCTParallelTasks.createPool(this.m_numThreads);
+        try {
+            for (int leafIndex = 0; leafIndex < groups.length; ++leafIndex) {
+                LeafGroup group = groups[leafIndex];
+                if (group == null) {
+                    continue;
+                }
+                if (leafIndex == groups.length - 1) {
+                    Arrays.fill(lValues, Double.NaN);
+                    Arrays.fill(matches, false);
+                } else {
+                    this.scoreLeaf(pool, this.m_tree.getLeaf(leafIndex), pairs, cardinalities,
+                            lValues, matches);
+                }
+                // Only the B records which are passed to the sink are visited for each A record
+                int numRowsOfB = 0;
+                for (int row = 0; row < pairs.length; ++row) {
+                    if (matches[row] || !this.m_matchesOnly) {
+                        rowsOfB[numRowsOfB++] = row;
+                    }
+                }
+                group.fanOut(rowsOfB, numRowsOfB, lValues, matches, sink);
+                numLinked += (long) numRowsOfB * (group.m_numSpilled + group.m_size);
+                group.release();
+                groups[leafIndex] = null;
+            }
+        } finally {
+            if (pool != null) {
+                pool.shutdown();
+            }
+        }
+        OCCTDiagnostics.log(OCCTDiagnostics.Level.DEBUG, OCCTLinkageJob.DIAGNOSTICS_SUBSYSTEM,
+                "Linked %d pairs", numLinked);
+        return numLinked;
+    }
+
+    /**
+     * Scores all the records of a B catalogue by every leaf of the tree in advance, so the B
+     * records which are linked to an A record may be looked up instead of scored
+     *
+     * @param tableB The B records (the attributes of B of the training data, in their order)
+     *
+     * @return The ranked B records of each leaf
+     *
+     * @throws Exception If the B records can't be scored
+     */
+    public OCCTRankedCatalogue index(Instances tableB) throws Exception {
+        this.checkTableB(tableB);
+        Instance[] pairs = this.createPairs(tableB);
+        double[] cardinalities = this.calculateCardinalities(pairs);
+        double[] lValues = new double[pairs.length];
+        boolean[] matches = new boolean[pairs.length];
+        double[][] rankedLValues = new double[this.m_tree.numLeaves()][];
+        int[][] rankedRowsOfB = new int[this.m_tree.numLeaves()][];
+        ForkJoinPool pool = OCCTParallelTasks.createPool(this.m_numThreads);
+        try {
+            for (int leafIndex = 0; leafIndex < this.m_tree.numLeaves(); ++leafIndex) {
+                this.scoreLeaf(pool, this.m_tree.getLeaf(leafIndex), pairs, cardinalities,
+                        lValues, matches);
+                int[] rows = OCCTRankedCatalogue.rank(lValues);
+                double[] ranked = new double[rows.length];
+                for (int i = 0; i < rows.length; ++i) {
+                    ranked[i] = lValues[rows[i]];
+                }
+                rankedLValues[leafIndex] = ranked;
+                rankedRowsOfB[leafIndex] = rows;
+            }
+        } finally {
+            if (pool != null) {
+                pool.shutdown();
+            }
+        }
+        return new OCCTRankedCatalogue(this.m_tree, rankedLValues, rankedRowsOfB,
+                this.m_linkageThreshold);
+    }
+
+    /**
+     * Scores all the B records by a single leaf (concurrently, if a pool is given)
+     */
+    private void scoreLeaf(ForkJoinPool pool, final OCCTLeafNode leaf, final Instance[] pairs,
+                           final double[] cardinalities, final double[] lValues,
+                           final boolean[] matches) throws Exception {
+        long start = OCCTLinkageJob.LEAF_COUNTER.start();
+        final double linkageThreshold = this.m_linkageThreshold;
+        OCCTParallelTasks.invokeRanges(pool, pairs.length, OCCTLinkageJob.MIN_CHUNK_SIZE,
+                new OCCTParallelTasks.RangeTask() {
+                    @Override
+                    public void run(int from, int to) throws Exception {
+                        for (int i = from; i < to; ++i) {
+                            // The same L-value as the one which OCCT calculates for the pair
+                            lValues[i] =
+                                    Math.abs(leaf.classifyInstance(pairs[i]) * cardinalities[i]);
+                            matches[i] = lValues[i] >= linkageThreshold;
+                        }
+                    }
+                });
+        OCCTLinkageJob.LEAF_COUNTER.stop(start);
+    }
+
+    private static void fanOut(int rowOfA, int[] rowsOfB, int numRowsOfB, double[] lValues,
+                               boolean[] matches, Sink sink) throws Exception {
+        for (int i = 0; i < numRowsOfB; ++i) {
+            int rowOfB = rowsOfB[i];
+            sink.pair(rowOfA, rowOfB, lValues[rowOfB], matches[rowOfB]);
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package weka.classifiers.trees.occt.tree;
+
+import weka.core.Instance;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * The records of a fixed B catalogue, ranked in advance by their L-values in each leaf of a
+ * trained tree (see {@link OCCTLinkageJob#index(weka.core.Instances)}).
+ *
+ * The L-value of a pair depends only on the leaf which its A record reaches and on its B record,
+ * so the B records which are linked to an A record are found by routing the A record to its leaf
+ * and looking them up in the ranking of the leaf: a threshold query is a binary search and a
+ * top-k query is a prefix of the ranking, so both take O(log |B| + k) instead of scoring the
+ * whole catalogue. The ranking of each leaf is kept in primitive arrays, whose size is
+ * (number of leaves) * |B| entries.
+ *
+ * B records whose L-value is NaN (which are never a match) aren't ranked. The catalogue is
+ * immutable, so it may be queried concurrently.
+ */
+public class OCCTRankedCatalogue implements Serializable {
+
+    private static final long serialVersionUID = -1736905188468304916L;
+
+    /**
+     * The B records which were found for a single A record, ordered by descending L-values
+     */
+    public static class Result {
+
+        private final int[] m_rowsOfB;
+        private final double[] m_lValues;
+
+        private Result(int[] rowsOfB, double[] lValues) {
+            this.m_rowsOfB = rowsOfB;
+            this.m_lValues = lValues;
+        }
+
+        public int size() {
+            return this.m_rowsOfB.length;
+        }
+
+        /**
+         * @param rank The rank of a found record (0 for the highest L-value)
+         *
+         * @return The index of the record in the B catalogue
+         */
+        public int getRowOfB(int rank) {
+            return this.m_rowsOfB[rank];
+        }
+
+        public double getLValue(int rank) {
+            return this.m_lValues[rank];
+        }
+    }
+
+    private static final Result EMPTY_RESULT = new Result(new int[0], new double[0]);
+
+    private final OCCTCompiledTree m_tree;
+    /** For each leaf, the L-values of its ranked B records (descending) **/
+    private final double[][] m_lValues;
+    /** For each leaf, the indexes of its ranked B records in the catalogue **/
+    private final int[][] m_rowsOfB;
+    private final double m_linkageThreshold;
+
+    /**
+     * @param tree The compiled trained tree
+     * @param lValues For each leaf of the tree, the L-values of its ranked records (descending)
+     * @param rowsOfB For each leaf of the tree, the indexes of its ranked records
+     * @param linkageThreshold The minimal L-value of a match
+     */
+    OCCTRankedCatalogue(OCCTCompiledTree tree, double[][] lValues, int[][] rowsOfB,
+                        double linkageThreshold) {
+        this.m_tree = tree;
+        this.m_lValues = lValues;
+        this.m_rowsOfB = rowsOfB;
+        this.m_linkageThreshold = linkageThreshold;
+    }
+
+    /**
+     * Ranks the records of a catalogue by their L-values in a single leaf
+     *
+     * @param lValues The L-value of each record
+     *
+     * @return The indexes of the records which have an L-value, by descending L-values (records
+     *         with the same L-value are ordered by their indexes)
+     */
+    static int[] rank(final double[] lValues) {
+        Integer[] rows = new Integer[lValues.length];
+        int numRanked = 0;
+        for (int row = 0; row < lValues.length; ++row) {
+            if (!Double.isNaN(lValues[row])) {
+                rows[numRanked++] = row;
+            }
+        }
+        // The sort is stable, so equal L-values remain in the order of their indexes
+        Arrays.sort(rows, 0, numRanked, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer first, Integer second) {
+                return Double.compare(lValues[second], lValues[first]);
+            }
+        });
+        int[] toReturn = new int[numRanked];
+        for (int i = 0; i < numRanked; ++i) {
+            toReturn[i] = rows[i];
+        }
+        return toReturn;
+    }
+
+    public double getLinkageThreshold() {
+        return this.m_linkageThreshold;
+    }
+
+    /**
+     * @return The number of records of the catalogue which are ranked by the given leaf
+     */
+    public int numRanked(int leafIndex) {
+        return this.m_rowsOfB[leafIndex].length;
+    }
+
+    /**
+     * @param lValues The descending L-values of a leaf
+     * @param threshold The minimal L-value
+     *
+     * @return The number of L-values which aren't lower than the threshold
+     */
+    private static int countAtLeast(double[] lValues, double threshold) {
+        int low = 0;
+        int high = lValues.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (lValues[middle] >= threshold) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private Result prefix(int leafIndex, int length) {
+        if (length == 0) {
+            return OCCTRankedCatalogue.EMPTY_RESULT;
+        }
+        return new Result(Arrays.copyOf(this.m_rowsOfB[leafIndex], length),
+                Arrays.copyOf(this.m_lValues[leafIndex], length));
+    }
+
+    /**
+     * Finds the B records which match an A record (whose L-value isn't lower than the linkage
+     * threshold of the trained classifier)
+     *
+     * @param recordOfA The A record (the attributes of A of the training data, in their order)
+     *
+     * @return The matching B records, by descending L-values
+     */
+    public Result matches(Instance recordOfA) {
+        return this.matches(recordOfA, this.m_linkageThreshold);
+    }
+
+    /**
+     * Finds the B records whose L-value with an A record isn't lower than the given threshold
+     *
+     * @param recordOfA The A record (the attributes of A of the training data, in their order)
+     * @param threshold The minimal L-value
+     *
+     * @return The found B records, by descending L-values
+     */
+    public Result matches(Instance recordOfA, double threshold) {
+        int leafIndex = this.m_tree.leafIndex(recordOfA);
+        if (leafIndex == OCCTCompiledTree.EMPTY_LEAF) {
+            return OCCTRankedCatalogue.EMPTY_RESULT;
+        }
+        return this.prefix(leafIndex,
+                OCCTRankedCatalogue.countAtLeast(this.m_lValues[leafIndex], threshold));
+    }
+
+    /**
+     * Finds the B records with the highest L-values with an A record
+     *
+     * @param recordOfA The A record (the attributes of A of the training data, in their order)
+     * @param k The maximal number of records to find
+     *
+     * @return The (at most k) found B records, by descending L-values
+     */
+    public Result topK(Instance recordOfA, int k) {
+        int leafIndex = this.m_tree.leafIndex(recordOfA);
+        if (leafIndex == OCCTCompiledTree.EMPTY_LEAF) {
+            return OCCTRankedCatalogue.EMPTY_RESULT;
+        }
+        return this.prefix(leafIndex, Math.min(Math.max(k, 0), this.numRanked(leafIndex)));
+    }
+}
@@ -0,0 +1,105 @@
+package weka.classifiers.trees.occt.tree;
+
+import weka.classifiers.trees.occt.split.auxiliary.OCCTProbModelsHandler;
+import weka.classifiers.trees.occt.split.general.OCCTSplitModelFactory;
+import weka.classifiers.trees.occt.split.general.OCCTSplitModelParameters;
+import weka.classifiers.trees.occt.split.models.OCCTSingleAttributeSplitModel;
+import weka.classifiers.trees.occt.utils.OCCTDiagnostics;
+import weka.core.Attribute;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The split models which were built for the candidate attributes of a single node, shared by the
+ * pruning method and the model selection of that node, so each (attribute, criterion) pair is
+ * evaluated at most once per node.
+ *
+ * All the models are built from the training instances of the node, with the same possible
+ * attributes and parameters (which are kept here, so every selection which uses the evaluations
+ * builds its models in the same way). The candidates of a selection may be built concurrently,
+ * hence the models are kept in a concurrent map.
+ */
+public class OCCTSplitEvaluations {
+
+    private static final OCCTDiagnostics.Counter REUSE_COUNTER =
+            OCCTDiagnostics.counter("split-reuse");
+
+    /** The attributes which can be used by the models of the node **/
+    private final List<Attribute> m_possibleAttributes;
+    /** The parameters which are given to all the models of the node (null for defaults) **/
+    private final OCCTSplitModelParameters m_parameters;
+    /** The built models, by their criterion and splitting attribute **/
+    private final ConcurrentMap<String, OCCTSingleAttributeSplitModel> m_models;
+    /** The probabilistic models of the whole node, if a pruning method built them **/
+    private volatile OCCTProbModelsHandler m_leafModels;
+
+    /**
+     * @param possibleAttributes The attributes which can be used by the models of the node
+     * @param parameters The parameters of the models of the node (null for defaults)
+     */
+    public OCCTSplitEvaluations(List<Attribute> possibleAttributes,
+                                OCCTSplitModelParameters parameters) {
+        this.m_possibleAttributes = possibleAttributes;
+        this.m_parameters = parameters;
+        this.m_models = new ConcurrentHashMap<String, OCCTSingleAttributeSplitModel>();
+    }
+
+    public List<Attribute> getPossibleAttributes() {
+        return this.m_possibleAttributes;
+    }
+
+    public OCCTSplitModelParameters getParameters() {
+        return this.m_parameters;
+    }
+
+    /**
+     * Keeps the probabilistic models which were built from all the instances of the node (e.g.
+     * in order to score the node as a leaf), so a leaf which is built for the node may use them
+     *
+     * @param leafModels The built models
+     */
+    public void setLeafModels(OCCTProbModelsHandler leafModels) {
+        this.m_leafModels = leafModels;
+    }
+
+    /**
+     * @return The probabilistic models of all the instances of the node (or null)
+     */
+    public OCCTProbModelsHandler getLeafModels() {
+        return this.m_leafModels;
+    }
+
+    private static String key(String splitCriterionType, Attribute splittingAttribute) {
+        return OCCTSplitModelFactory.extractModelName(splitCriterionType) + ":" +
+                splittingAttribute.index();
+    }
+
+    /**
+     * @param splitCriterionType The name of the split criterion
+     * @param splittingAttribute The splitting attribute
+     *
+     * @return The model which was already built for the attribute by the criterion (or null)
+     */
+    public OCCTSingleAttributeSplitModel get(String splitCriterionType,
+                                             Attribute splittingAttribute) {
+        OCCTSingleAttributeSplitModel toReturn = this.m_models.get(
+                OCCTSplitEvaluations.key(splitCriterionType, splittingAttribute));
+        if (toReturn != null) {
+            OCCTSplitEvaluations.REUSE_COUNTER.increment();
+        }
+        return toReturn;
+    }
+
+    /**
+     * Keeps a built model, so it can be reused by other selections of the node
+     *
+     * @param splitCriterionType The name of the split criterion
+     * @param model The built model
+     */
+    public void put(String splitCriterionType, OCCTSingleAttributeSplitModel model) {
+        this.m_models.put(OCCTSplitEvaluations.key(splitCriterionType, model.getChosenAttribute()),
+                model);
+    }
+}
@@ -3,20 +3,24 @@ package weka.classifiers.trees.occt.tree;
 import weka.classifiers.trees.j48.ClassifierSplitModel;
 import weka.classifiers.trees.j48.ModelSelection;
 import weka.classifiers.trees.occt.split.general.OCCTSplitModelFactory;
+import weka.classifiers.trees.occt.split.general.OCCTSplitModelParameters;
 import weka.classifiers.trees.occt.split.models.OCCTNoSplitModel;
 import weka.classifiers.trees.occt.split.models.OCCTSingleAttributeSplitModel;
 import weka.classifiers.trees.occt.split.models.OCCTSplitModel;
+import weka.classifiers.trees.occt.utils.OCCTColumnarData;
+import weka.classifiers.trees.occt.utils.OCCTDiagnostics;
+import weka.classifiers.trees.occt.utils.OCCTParallelTasks;
 import weka.core.Attribute;
 import weka.core.Instances;
 import weka.core.RevisionUtils;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
 import java.util.Enumeration;
-import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * Created by sepetnit on 30/12/14.
@@ -27,6 +31,10 @@ public class OCCTSplitModelSelection extends ModelSelection {
     /** for serialization */
     private static final long serialVersionUID = 3372204862440822039L;
 
+    private static final String DIAGNOSTICS_SUBSYSTEM = "split-selection";
+    private static final OCCTDiagnostics.Counter SELECT_COUNTER =
+            OCCTDiagnostics.counter(OCCTSplitModelSelection.DIAGNOSTICS_SUBSYSTEM);
+
     private String m_splitCriterionType;
 
     /** All the training data */
@@ -36,13 +44,19 @@ public class OCCTSplitModelSelection extends ModelSelection {
     private List<Attribute> m_possibleAttributes;
     private List<Attribute> m_attributesOfB;
 
+    /** The pool on which the candidate attributes are evaluated (null for sequential evaluation) **/
+    private transient ForkJoinPool m_pool;
+
+    /** The parameters which are given to all the created split models (null for defaults) **/
+    private OCCTSplitModelParameters m_parameters;
+
+    /** The encoded training set, which is scanned by the split models (null if not encoded) **/
+    private transient OCCTColumnarData m_columnarData;
+
     // Copy constructor
     public OCCTSplitModelSelection(OCCTSplitModelSelection toCopy, Attribute exceptionAttribute) {
-        this.m_splitCriterionType = toCopy.m_splitCriterionType;
-        this.m_allData = toCopy.m_allData;
-        this.m_possibleAttributes = new LinkedList<Attribute>(toCopy.m_possibleAttributes);
+        this(toCopy);
         this.m_possibleAttributes.remove(exceptionAttribute);
-        this.m_attributesOfB = toCopy.m_attributesOfB;
     }
 
     public OCCTSplitModelSelection(OCCTSplitModelSelection toCopy) {
@@ -50,6 +64,9 @@ public class OCCTSplitModelSelection extends ModelSelection {
         this.m_allData = toCopy.m_allData;
         this.m_possibleAttributes = new LinkedList<Attribute>(toCopy.m_possibleAttributes);
         this.m_attributesOfB = toCopy.m_attributesOfB;
+        this.m_pool = toCopy.m_pool;
+        this.m_parameters = toCopy.m_parameters;
+        this.m_columnarData = toCopy.m_columnarData;
     }
 
     /**
@@ -63,7 +80,6 @@ public class OCCTSplitModelSelection extends ModelSelection {
             throws IllegalArgumentException {
         this.m_splitCriterionType = splitCriterionType;
         if (!OCCTSplitModelFactory.isValidSplitModelType(this.m_splitCriterionType)) {
-            System.out.println("illegal");
             throw new IllegalArgumentException(splitCriterionType);
         }
         this.m_allData = allData;
@@ -84,16 +100,71 @@ public class OCCTSplitModelSelection extends ModelSelection {
         this(splitCriterionType, allData, Arrays.asList(attributesOfB));
     }
 
+    /**
+     * Sets the pool on which the candidate attributes are evaluated concurrently. The pool is
+     * shared with all the copies which are created from now on.
+     *
+     * @param pool The pool to use or null in order to evaluate the candidates sequentially
+     */
+    public void setPool(ForkJoinPool pool) {
+        this.m_pool = pool;
+    }
+
+    /**
+     * Sets the parameters which are given to all the split models created by this selection
+     * method (and by all the copies which are created from now on)
+     *
+     * @param parameters The parameters to use or null for the default parameters
+     */
+    public void setParameters(OCCTSplitModelParameters parameters) {
+        this.m_parameters = parameters;
+    }
+
+    public OCCTSplitModelParameters getParameters() {
+        return this.m_parameters;
+    }
+
+    /**
+     * Creates the (empty) evaluations of a node which is split by this selection method. The
+     * evaluations may be given to other selections (e.g. of the pruning method) in order to
+     * share the split models which are built for the node.
+     *
+     * @return The created evaluations
+     */
+    public OCCTSplitEvaluations createEvaluations() {
+        return new OCCTSplitEvaluations(this.m_possibleAttributes, this.m_parameters);
+    }
+
+    /**
+     * Sets the encoded training set, which is given to all the split models created by this
+     * selection method (and by all the copies which are created from now on)
+     *
+     * @param columnarData The encoded training set or null in order to scan the instances only
+     */
+    public void setColumnarData(OCCTColumnarData columnarData) {
+        this.m_columnarData = columnarData;
+    }
+
+    public OCCTColumnarData getColumnarData() {
+        return this.m_columnarData;
+    }
+
     /**
      * Sets reference to training data to null.
      */
     public void cleanup() {
         this.m_allData = null;
+        this.m_pool = null;
+        this.m_columnarData = null;
     }
 
     /**
      * This function chooses the best attribute to weka.trees.classifiers.occt.split on.
      *
+     * Ties are broken deterministically in favour of the model which appears last in the given
+     * list (which is ordered by the indexes of the attributes), regardless of the order in which
+     * the models were built.
+     *
      * @param possibleSplitModels An list of models for each possible attribute
      *
      * @return The chosen split model
@@ -102,71 +173,157 @@ public class OCCTSplitModelSelection extends ModelSelection {
             List<OCCTSingleAttributeSplitModel> possibleSplitModels) {
         // The score of the best model chosen so far
         Double bestScore = null;
-        // Let's look for the min score
-        Set<OCCTSingleAttributeSplitModel> allBestModels = new
-                HashSet<OCCTSingleAttributeSplitModel>();
+        OCCTSingleAttributeSplitModel bestModel = null;
         // This comparator is used in order to compare between different models (built for each
         // attribute)
         Comparator<Double> splitModelComparator =
                 OCCTSplitModelFactory.getSplitModelComparator(this.m_splitCriterionType);
 
-        // Record all the scores of the best value
+        // Record the last model of the best value
         for (OCCTSingleAttributeSplitModel currentModel: possibleSplitModels) {
             if (currentModel.checkModel()) {
                 if ((bestScore == null) ||
                         (splitModelComparator.compare(currentModel.score(), bestScore) >= 0)) {
-                    allBestModels.clear();
-                    allBestModels.add(currentModel);
+                    bestModel = currentModel;
                     bestScore = currentModel.score();
                 }
             }
         }
         // In case no possible model was found
-        if (allBestModels.size() == 0) {
+        if (bestModel == null) {
             return new OCCTNoSplitModel();
         }
-        // Currently return the first index of the minimal value
-        // TODO: Maybe think about some other way of tie breaking
-        System.out.println("Best score for attribute " +
-                allBestModels.iterator().next().leftSide(this.m_allData) + " " + bestScore);
-        return this.updateLastRunAndReturnBestModel(allBestModels);
+        if (OCCTDiagnostics.isEnabled(OCCTDiagnostics.Level.DEBUG)) {
+            OCCTDiagnostics.log(OCCTDiagnostics.Level.DEBUG,
+                    OCCTSplitModelSelection.DIAGNOSTICS_SUBSYSTEM,
+                    "Best score for attribute " + bestModel.leftSide(this.m_allData) + " " +
+                            bestScore);
+        }
+        return bestModel;
     }
 
-    private OCCTSplitModel updateLastRunAndReturnBestModel(
-            Set<OCCTSingleAttributeSplitModel> allBestModels) {
-        return allBestModels.iterator().next();
+    /**
+     * Returns the attributes of the given dataset that are candidates for a split
+     */
+    private List<Attribute> getCandidateAttributes(Instances data,
+                                                   List<Attribute> possibleAttributes) {
+        List<Attribute> candidates = new ArrayList<Attribute>();
+        Enumeration attributes = data.enumerateAttributes();
+        while (attributes.hasMoreElements()) {
+            Attribute nextAttribute = (Attribute)attributes.nextElement();
+            if (possibleAttributes.contains(nextAttribute) &&
+                    (!this.m_attributesOfB.contains(nextAttribute)) &&
+                    (nextAttribute.index() != data.classIndex())) {
+                candidates.add(nextAttribute);
+            }
+        }
+        return candidates;
     }
 
     /**
      * Selects a split for the given dataset.
+     *
+     * The candidate attributes are evaluated concurrently if a pool was set (the given data is
+     * only read by the split models, so it is shared by all of them).
+     */
+    public final OCCTSplitModel selectModel(final Instances data) throws Exception {
+        return this.selectModel(data, (int[]) null);
+    }
+
+    /**
+     * Selects a split for the given dataset, whose instances are the given rows of the encoded
+     * training set (see {@link #setColumnarData})
+     *
+     * @param data The dataset to split
+     * @param rows The rows of the instances in the encoded training set (null if unknown)
      */
-    public final OCCTSplitModel selectModel(Instances data) throws Exception {
+    public final OCCTSplitModel selectModel(final Instances data, final int[] rows)
+            throws Exception {
+        return this.selectModel(data, rows, null);
+    }
+
+    /**
+     * Selects a split for the given dataset, reusing the split models which were already built
+     * for it. The candidates are the possible attributes of the evaluations (which are those of
+     * the node they were created for), and the models built here are added to the evaluations.
+     *
+     * @param data The dataset to split
+     * @param rows The rows of the instances in the encoded training set (null if unknown)
+     * @param evaluations The evaluations of the dataset (see {@link #createEvaluations()}), which
+     *                    are ignored if they were created with other parameters (may be null)
+     */
+    public final OCCTSplitModel selectModel(final Instances data, final int[] rows,
+                                            final OCCTSplitEvaluations evaluations)
+            throws Exception {
+        long start = OCCTSplitModelSelection.SELECT_COUNTER.start();
+        try {
+            if (evaluations != null && evaluations.getParameters() == this.m_parameters) {
+                return this.selectModelFromCandidates(data, rows, evaluations,
+                        evaluations.getPossibleAttributes());
+            }
+            return this.selectModelFromCandidates(data, rows, null, this.m_possibleAttributes);
+        } finally {
+            OCCTSplitModelSelection.SELECT_COUNTER.stop(start);
+        }
+    }
+
+    private OCCTSplitModel selectModelFromCandidates(final Instances data, final int[] rows,
+                                                     final OCCTSplitEvaluations evaluations,
+                                                     final List<Attribute> possibleAttributes)
+            throws Exception {
         // TODO: Check if all Instances belong to one class or if not enough Instances to split
         // TODO: Check if all attributes are nominal and have a lot of values.
 
         // Used to split by each attribute and choose the best one ...
-        List<OCCTSingleAttributeSplitModel> possibleSplitModels =
-                new LinkedList<OCCTSingleAttributeSplitModel>();
-        // For each attribute.
-        Enumeration attributes = data.enumerateAttributes();
-        while (attributes.hasMoreElements()) {
-            Attribute nextAttribute = (Attribute)attributes.nextElement();
-            if (this.m_possibleAttributes.contains(nextAttribute) &&
-                    (!this.m_attributesOfB.contains(nextAttribute)) &&
-                    (nextAttribute.index() != data.classIndex())) {
-                // Get model for current attribute.
-                // TODO: How to decide which type of split it will be???
-                OCCTSingleAttributeSplitModel currentSplitModel =
-                        OCCTSplitModelFactory.getSplitModel(
-                                this.m_splitCriterionType,
-                                nextAttribute, this.m_possibleAttributes, this.m_attributesOfB);
-                currentSplitModel.buildClassifier(data);
-
-                // TODO: Check if useful split for current attribute exists and check for
-                // TODO: enumerated attributes with a lot of values.
-                if (currentSplitModel.checkModel()) {
-                    possibleSplitModels.add(currentSplitModel);
+        List<Attribute> candidates = this.getCandidateAttributes(data, possibleAttributes);
+        final OCCTSingleAttributeSplitModel[] candidateModels =
+                new OCCTSingleAttributeSplitModel[candidates.size()];
+        List<OCCTParallelTasks.Task> tasks =
+                new ArrayList<OCCTParallelTasks.Task>(candidates.size());
+        for (int i = 0; i < candidates.size(); ++i) {
+            final int candidateIndex = i;
+            final Attribute nextAttribute = candidates.get(i);
+            tasks.add(new OCCTParallelTasks.Task() {
+                @Override
+                public void run() throws Exception {
+                    String splitCriterionType = OCCTSplitModelSelection.this.m_splitCriterionType;
+                    // Reuse the model if it was already built for the node
+                    if (evaluations != null) {
+                        candidateModels[candidateIndex] =
+                                evaluations.get(splitCriterionType, nextAttribute);
+                        if (candidateModels[candidateIndex] != null) {
+                            return;
+                        }
+                    }
+                    // Get model for current attribute.
+                    OCCTSingleAttributeSplitModel currentSplitModel =
+                            OCCTSplitModelFactory.getSplitModel(
+                                    splitCriterionType,
+                                    nextAttribute,
+                                    possibleAttributes,
+                                    OCCTSplitModelSelection.this.m_attributesOfB,
+                                    OCCTSplitModelSelection.this.m_parameters);
+                    if (rows != null) {
+                        currentSplitModel.setColumnarData(
+                                OCCTSplitModelSelection.this.m_columnarData, rows);
+                    }
+                    currentSplitModel.buildClassifier(data);
+                    candidateModels[candidateIndex] = currentSplitModel;
+                    if (evaluations != null) {
+                        evaluations.put(splitCriterionType, currentSplitModel);
+                    }
                 }
+            });
+        }
+        OCCTParallelTasks.invokeAll(this.m_pool, tasks);
+
+        // TODO: Check if useful split for current attribute exists and check for
+        // TODO: enumerated attributes with a lot of values.
+        List<OCCTSingleAttributeSplitModel> possibleSplitModels =
+                new ArrayList<OCCTSingleAttributeSplitModel>(candidateModels.length);
+        for (OCCTSingleAttributeSplitModel currentSplitModel : candidateModels) {
+            if (currentSplitModel.checkModel()) {
+                possibleSplitModels.add(currentSplitModel);
             }
         }
 
@@ -0,0 +1,99 @@
+package weka.classifiers.trees.occt.utils;
+
+import weka.core.Attribute;
+import weka.core.Instance;
+import weka.core.Instances;
+
+/**
+ * A column-major copy of the nominal values of a dataset: a single array of value indexes for
+ * each nominal attribute, where the rows are identified by their indexes in the encoded dataset.
+ *
+ * The training set is encoded a single time and then shared (read-only) by the whole build of
+ * the tree, so the nodes and the split models can scan the values of an attribute over a slice
+ * of rows (an array of row indexes) instead of going through the Instance objects.
+ */
+public final class OCCTColumnarData {
+
+    /** The code of a missing value **/
+    public static final int MISSING = -1;
+
+    /** The value indexes of each attribute (null for attributes which aren't nominal) **/
+    private final int[][] m_columns;
+    private final int m_numRows;
+
+    private OCCTColumnarData(int[][] columns, int numRows) {
+        this.m_columns = columns;
+        this.m_numRows = numRows;
+    }
+
+    /**
+     * Encodes the nominal attributes of a dataset
+     *
+     * @param data The dataset to encode
+     *
+     * @return The encoded data, whose row i is the instance i of the dataset
+     */
+    public static OCCTColumnarData encode(Instances data) {
+        int numRows = data.numInstances();
+        int[][] columns = new int[data.numAttributes()][];
+        for (int a = 0; a < columns.length; ++a) {
+            Attribute attribute = data.attribute(a);
+            if (attribute.isNominal()) {
+                columns[a] = new int[numRows];
+            }
+        }
+        for (int i = 0; i < numRows; ++i) {
+            Instance instance = data.instance(i);
+            for (int a = 0; a < columns.length; ++a) {
+                if (columns[a] != null) {
+                    double value = instance.value(a);
+                    columns[a][i] = Instance.isMissingValue(value) ?
+                            OCCTColumnarData.MISSING : (int) value;
+                }
+            }
+        }
+        return new OCCTColumnarData(columns, numRows);
+    }
+
+    /**
+     * @return A slice which contains all the rows, in their order
+     */
+    public int[] allRows() {
+        int[] toReturn = new int[this.m_numRows];
+        for (int i = 0; i < toReturn.length; ++i) {
+            toReturn[i] = i;
+        }
+        return toReturn;
+    }
+
+    public int numRows() {
+        return this.m_numRows;
+    }
+
+    /**
+     * @param attributeIndex The index of an attribute
+     *
+     * @return Whether the values of the attribute are encoded (i.e. it is nominal)
+     */
+    public boolean hasColumn(int attributeIndex) {
+        return attributeIndex < this.m_columns.length && this.m_columns[attributeIndex] != null;
+    }
+
+    /**
+     * Returns the value indexes of a single attribute (mustn't be modified)
+     *
+     * @param attributeIndex The index of a nominal attribute
+     *
+     * @return The index of the value of each row ({@link #MISSING} for a missing value)
+     */
+    public int[] column(int attributeIndex) {
+        return this.m_columns[attributeIndex];
+    }
+
+    /**
+     * @return The index of the value of an attribute in a row ({@link #MISSING} if missing)
+     */
+    public int value(int attributeIndex, int row) {
+        return this.m_columns[attributeIndex][row];
+    }
+}
@@ -0,0 +1,291 @@
+package weka.classifiers.trees.occt.utils;
+
+import weka.core.Attribute;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.SingleIndex;
+import weka.core.converters.AbstractFileLoader;
+import weka.core.converters.ArffLoader;
+import weka.core.converters.CSVLoader;
+import weka.core.converters.IncrementalConverter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * A compact binary format of a dataset of nominal attributes, which is read by
+ * {@link OCCTColumnarFileLoader} without parsing any text.
+ *
+ * The file starts with a header: the magic number, the version, the name of the relation, the
+ * index of the first attribute of B (-1 if unknown), the index of the class attribute (-1 if
+ * none), the number of rows and the name and the values (the dictionary) of each attribute. The
+ * header is followed by a column for each attribute, which holds the index of the value of each
+ * row in the dictionary of the attribute, in a fixed width of 1, 2 or 4 bytes (according to the
+ * number of values). The largest code of a width stands for a missing value. All the numbers are
+ * big-endian (like {@link DataOutputStream} writes them).
+ *
+ * A dataset is converted a single time (see {@link #convert(File, File, String)} or
+ * {@link #main(String[])}), by a single pass over its records.
+ */
+public final class OCCTColumnarFile {
+
+    /** The first bytes of every columnar file ("OCCT") **/
+    public static final int MAGIC = 0x4F434354;
+    public static final int VERSION = 1;
+    /** The extension of the columnar files **/
+    public static final String FILE_EXTENSION = ".occt";
+
+    /** The largest number of values (and the missing code) of a column of each width **/
+    private static final int MAX_BYTE_CODE = 0xFF;
+    private static final int MAX_SHORT_CODE = 0xFFFF;
+
+    private OCCTColumnarFile() {
+    }
+
+    /**
+     * @param numValues The number of values of an attribute
+     *
+     * @return The number of bytes of each value of the column of the attribute
+     */
+    static int codeWidth(int numValues) {
+        if (numValues < OCCTColumnarFile.MAX_BYTE_CODE) {
+            return 1;
+        } else if (numValues < OCCTColumnarFile.MAX_SHORT_CODE) {
+            return 2;
+        }
+        return 4;
+    }
+
+    /**
+     * @param width The width of a column
+     *
+     * @return The code of a missing value in a column of the width
+     */
+    static int missingCode(int width) {
+        switch (width) {
+            case 1:
+                return OCCTColumnarFile.MAX_BYTE_CODE;
+            case 2:
+                return OCCTColumnarFile.MAX_SHORT_CODE;
+            default:
+                return -1;
+        }
+    }
+
+    /**
+     * @param file A file
+     *
+     * @return Whether the file starts like a columnar file
+     *
+     * @throws IOException If the file can't be read
+     */
+    public static boolean isColumnarFile(File file) throws IOException {
+        if (file.length() < 4) {
+            return false;
+        }
+        DataInputStream input = new DataInputStream(new FileInputStream(file));
+        try {
+            return input.readInt() == OCCTColumnarFile.MAGIC;
+        } finally {
+            input.close();
+        }
+    }
+
+    /**
+     * Writes the header of a columnar file
+     */
+    private static void writeHeader(DataOutputStream output, Instances structure,
+                                    int firstAttributeIndexOfB, long numRows)
+            throws IOException {
+        output.writeInt(OCCTColumnarFile.MAGIC);
+        output.writeInt(OCCTColumnarFile.VERSION);
+        output.writeUTF(structure.relationName());
+        output.writeInt(firstAttributeIndexOfB);
+        output.writeInt(structure.classIndex());
+        output.writeLong(numRows);
+        output.writeInt(structure.numAttributes());
+        for (int a = 0; a < structure.numAttributes(); ++a) {
+            Attribute attribute = structure.attribute(a);
+            output.writeUTF(attribute.name());
+            output.writeInt(attribute.numValues());
+            for (int v = 0; v < attribute.numValues(); ++v) {
+                output.writeUTF(attribute.value(v));
+            }
+        }
+    }
+
+    private static void writeCode(DataOutputStream output, int width, int code)
+            throws IOException {
+        switch (width) {
+            case 1:
+                output.writeByte(code);
+                break;
+            case 2:
+                output.writeShort(code);
+                break;
+            default:
+                output.writeInt(code);
+        }
+    }
+
+    private static AbstractFileLoader createLoader(File source) throws IOException {
+        AbstractFileLoader loader;
+        if (source.getName().toLowerCase().endsWith(CSVLoader.FILE_EXTENSION)) {
+            loader = new CSVLoader();
+        } else {
+            loader = new ArffLoader();
+        }
+        loader.setSource(source);
+        return loader;
+    }
+
+    /**
+     * Converts an ARFF file (possibly compressed) or a CSV file into a columnar file. The records
+     * of an ARFF file are streamed, so only a buffer of each column is kept in memory (a CSV file
+     * is loaded as a whole, since it can't be read incrementally).
+     *
+     * @param source The file to convert (all its attributes must be nominal)
+     * @param target The columnar file to create (replaced only if the conversion succeeds)
+     * @param firstAttributeIndexOfB The index of the first attribute of B, like the option of
+     *                               OCCT ("first", "last" or a 1-based index), or null if unknown
+     *
+     * @return The number of converted rows
+     *
+     * @throws IOException If the source can't be read or the target can't be written
+     */
+    public static long convert(File source, File target, String firstAttributeIndexOfB)
+            throws IOException {
+        AbstractFileLoader loader = OCCTColumnarFile.createLoader(source);
+        Instances structure = loader.getStructure();
+        Instances batch = null;
+        if (!(loader instanceof IncrementalConverter)) {
+            // The nominal values of a CSV file are known only after all of it is read
+            batch = loader.getDataSet();
+            structure = new Instances(batch, 0);
+        }
+        for (int a = 0; a < structure.numAttributes(); ++a) {
+            if (!structure.attribute(a).isNominal()) {
+                throw new IllegalArgumentException("Only nominal attributes can be converted (" +
+                        structure.attribute(a).name() + ")");
+            }
+        }
+        int boundary = -1;
+        if (firstAttributeIndexOfB != null) {
+            SingleIndex index = new SingleIndex(firstAttributeIndexOfB);
+            index.setUpper(structure.numAttributes() - 1);
+            boundary = index.getIndex();
+        }
+        // The columns are written to temporary files by a single pass over the records, and
+        // then appended to the header (whose number of rows is known only after the pass). The
+        // file is written under a temporary name and renamed only once it is complete, so a
+        // failed conversion never leaves a truncated file which looks valid
+        File directory = target.getAbsoluteFile().getParentFile();
+        int numAttributes = structure.numAttributes();
+        File[] columnFiles = new File[numAttributes];
+        DataOutputStream[] columns = new DataOutputStream[numAttributes];
+        int[] widths = new int[numAttributes];
+        File partialTarget = null;
+        boolean isComplete = false;
+        long numRows = 0;
+        try {
+            for (int a = 0; a < numAttributes; ++a) {
+                columnFiles[a] = File.createTempFile("occt-column-", ".tmp", directory);
+                columns[a] = new DataOutputStream(new BufferedOutputStream(
+                        new FileOutputStream(columnFiles[a])));
+                widths[a] = OCCTColumnarFile.codeWidth(structure.attribute(a).numValues());
+            }
+            while (true) {
+                Instance record;
+                if (batch != null) {
+                    record = (numRows < batch.numInstances()) ?
+                            batch.instance((int) numRows) : null;
+                } else {
+                    record = loader.getNextInstance(structure);
+                }
+                if (record == null) {
+                    break;
+                }
+                for (int a = 0; a < numAttributes; ++a) {
+                    OCCTColumnarFile.writeCode(columns[a], widths[a], record.isMissing(a) ?
+                            OCCTColumnarFile.missingCode(widths[a]) : (int) record.value(a));
+                }
+                ++numRows;
+            }
+            for (DataOutputStream column : columns) {
+                column.close();
+            }
+            partialTarget = File.createTempFile("occt-columnar-", ".tmp", directory);
+            DataOutputStream output = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(partialTarget)));
+            try {
+                OCCTColumnarFile.writeHeader(output, structure, boundary, numRows);
+                byte[] buffer = new byte[1 << 16];
+                for (File columnFile : columnFiles) {
+                    InputStream input = new BufferedInputStream(new FileInputStream(columnFile));
+                    try {
+                        OCCTColumnarFile.copy(input, output, buffer);
+                    } finally {
+                        input.close();
+                    }
+                }
+            } finally {
+                output.close();
+            }
+            Files.move(partialTarget.toPath(), target.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+            isComplete = true;
+        } finally {
+            for (int a = 0; a < numAttributes; ++a) {
+                if (columns[a] != null) {
+                    columns[a].close();
+                }
+                if (columnFiles[a] != null) {
+                    columnFiles[a].delete();
+                }
+            }
+            if (partialTarget != null && !isComplete) {
+                partialTarget.delete();
+            }
+        }
+        return numRows;
+    }
+
+    private static void copy(InputStream input, OutputStream output, byte[] buffer)
+            throws IOException {
+        int read;
+        while ((read = input.read(buffer)) != -1) {
+            output.write(buffer, 0, read);
+        }
+    }
+
+    /**
+     * Converts a dataset into a columnar file.
+     *
+     * Usage: OCCTColumnarFile &lt;source&gt; &lt;target&gt; [first attribute index of B]
+     *
+     * @param args The source (ARFF or CSV), the target and the optional index of the first
+     *             attribute of B
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: OCCTColumnarFile <source> <target> " +
+                    "[first attribute index of B]");
+            System.exit(1);
+        }
+        long start = System.nanoTime();
+        long numRows = OCCTColumnarFile.convert(new File(args[0]), new File(args[1]),
+                (args.length > 2) ? args[2] : null);
+        System.out.println("Converted " + numRows + " rows in " +
+                (System.nanoTime() - start) / 1000000 + " ms");
+    }
+}
@@ -0,0 +1,208 @@
+package weka.classifiers.trees.occt.utils;
+
+import weka.core.Attribute;
+import weka.core.FastVector;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.RevisionUtils;
+import weka.core.converters.AbstractLoader;
+import weka.core.converters.BatchConverter;
+import weka.core.converters.IncrementalConverter;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Loads a columnar file (see {@link OCCTColumnarFile}) by memory-mapping its columns, so no text
+ * is parsed and the rows are read from the page cache of the file.
+ *
+ * The loader may be used both in batch mode (e.g. for training) and incrementally (e.g. for the
+ * out-of-core training or for scoring a file in blocks).
+ */
+public class OCCTColumnarFileLoader extends AbstractLoader
+        implements BatchConverter, IncrementalConverter {
+
+    private static final long serialVersionUID = -2214620316419416873L;
+
+    /** The loaded file (null if no file was set) **/
+    private File m_file;
+    /** The header of the file (without instances) **/
+    private Instances m_structure;
+    /** The index of the first attribute of B (-1 if unknown) **/
+    private int m_firstAttributeIndexOfB;
+    private int m_numRows;
+    /** The mapped column of each attribute **/
+    private transient ByteBuffer[] m_columns;
+    /** The number of bytes of each value of each column **/
+    private int[] m_widths;
+    /** The next row to read incrementally **/
+    private int m_nextRow;
+
+    public OCCTColumnarFileLoader() {
+        this.m_firstAttributeIndexOfB = -1;
+    }
+
+    @Override
+    public void setSource(File file) throws IOException {
+        RandomAccessFile input = new RandomAccessFile(file, "r");
+        try {
+            if (input.readInt() != OCCTColumnarFile.MAGIC) {
+                throw new IOException(file + " isn't a columnar file");
+            }
+            int version = input.readInt();
+            if (version != OCCTColumnarFile.VERSION) {
+                throw new IOException("Unsupported version of a columnar file: " + version);
+            }
+            String relationName = input.readUTF();
+            int firstAttributeIndexOfB = input.readInt();
+            int classIndex = input.readInt();
+            long numRows = input.readLong();
+            if (numRows > Integer.MAX_VALUE) {
+                throw new IOException("Too many rows: " + numRows);
+            }
+            int numAttributes = input.readInt();
+            FastVector attributes = new FastVector(numAttributes);
+            for (int a = 0; a < numAttributes; ++a) {
+                String name = input.readUTF();
+                int numValues = input.readInt();
+                FastVector values = new FastVector(numValues);
+                for (int v = 0; v < numValues; ++v) {
+                    values.addElement(input.readUTF());
+                }
+                attributes.addElement(new Attribute(name, values));
+            }
+            Instances structure = new Instances(relationName, attributes, 0);
+            structure.setClassIndex(classIndex);
+            // Map the columns, which follow the header
+            FileChannel channel = input.getChannel();
+            long offset = input.getFilePointer();
+            ByteBuffer[] columns = new ByteBuffer[numAttributes];
+            int[] widths = new int[numAttributes];
+            for (int a = 0; a < numAttributes; ++a) {
+                widths[a] = OCCTColumnarFile.codeWidth(structure.attribute(a).numValues());
+                long size = numRows * widths[a];
+                if (size > Integer.MAX_VALUE) {
+                    throw new IOException("The column of " + structure.attribute(a).name() +
+                            " is too large to be mapped");
+                }
+                columns[a] = channel.map(FileChannel.MapMode.READ_ONLY, offset, size);
+                offset += size;
+            }
+            if (offset != channel.size()) {
+                throw new IOException(file + " is truncated or corrupted");
+            }
+            this.m_file = file;
+            this.m_structure = structure;
+            this.m_firstAttributeIndexOfB = firstAttributeIndexOfB;
+            this.m_numRows = (int) numRows;
+            this.m_columns = columns;
+            this.m_widths = widths;
+            this.m_nextRow = 0;
+        } finally {
+            // The mapped columns remain valid after the file is closed
+            input.close();
+        }
+    }
+
+    @Override
+    public void setSource(InputStream input) throws IOException {
+        throw new IOException("A columnar file can only be loaded from a file");
+    }
+
+    private void checkSource() throws IOException {
+        if (this.m_structure == null) {
+            throw new IOException("No source has been specified");
+        }
+        if (this.m_columns == null) {
+            // The columns aren't serialized, so they are mapped again
+            this.setSource(this.m_file);
+        }
+    }
+
+    /**
+     * @return The index of the first attribute of B, like the option of OCCT (a 1-based index),
+     *         or null if the file doesn't specify it
+     */
+    public String getFirstAttributeIndexOfB() {
+        return (this.m_firstAttributeIndexOfB < 0) ?
+                null : String.valueOf(this.m_firstAttributeIndexOfB + 1);
+    }
+
+    public int numRows() {
+        return this.m_numRows;
+    }
+
+    /**
+     * @param attributeIndex The index of an attribute
+     * @param row The index of a row
+     *
+     * @return The index of the value of the attribute in the row (or
+     *         {@link OCCTColumnarData#MISSING} for a missing value)
+     */
+    public int value(int attributeIndex, int row) {
+        ByteBuffer column = this.m_columns[attributeIndex];
+        int width = this.m_widths[attributeIndex];
+        int code;
+        switch (width) {
+            case 1:
+                code = column.get(row) & 0xFF;
+                break;
+            case 2:
+                code = column.getShort(row * 2) & 0xFFFF;
+                break;
+            default:
+                code = column.getInt(row * 4);
+        }
+        return (code == OCCTColumnarFile.missingCode(width)) ? OCCTColumnarData.MISSING : code;
+    }
+
+    private Instance createInstance(int row, Instances dataset) {
+        double[] values = new double[this.m_columns.length];
+        for (int a = 0; a < values.length; ++a) {
+            int value = this.value(a, row);
+            values[a] = (value == OCCTColumnarData.MISSING) ? Instance.missingValue() : value;
+        }
+        Instance toReturn = new Instance(1.0, values);
+        toReturn.setDataset(dataset);
+        return toReturn;
+    }
+
+    @Override
+    public Instances getStructure() throws IOException {
+        this.checkSource();
+        return new Instances(this.m_structure, 0);
+    }
+
+    @Override
+    public Instances getDataSet() throws IOException {
+        this.checkSource();
+        Instances toReturn = new Instances(this.m_structure, this.m_numRows);
+        for (int row = 0; row < this.m_numRows; ++row) {
+            toReturn.add(this.createInstance(row, toReturn));
+        }
+        return toReturn;
+    }
+
+    @Override
+    public Instance getNextInstance(Instances structure) throws IOException {
+        this.checkSource();
+        if (this.m_nextRow >= this.m_numRows) {
+            return null;
+        }
+        return this.createInstance(this.m_nextRow++, structure);
+    }
+
+    @Override
+    public void reset() throws IOException {
+        this.m_nextRow = 0;
+    }
+
+    @Override
+    public String getRevision() {
+        return RevisionUtils.extract("$Revision: 1.0 $");
+    }
+}
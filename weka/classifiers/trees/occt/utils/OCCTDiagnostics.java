@@ -0,0 +1,205 @@
+package weka.classifiers.trees.occt.utils;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process-wide diagnostics of the OCCT classifier: leveled messages which are written to a
+ * pluggable sink, and per-subsystem counters of calls and time.
+ *
+ * Messages are formatted only if their level is enabled, so a disabled message costs a single
+ * comparison. Callers on hot paths should check {@link #isEnabled(Level)} before building the
+ * arguments of a message. Counters are disabled by default and measure nothing until enabled.
+ */
+public final class OCCTDiagnostics {
+
+    /**
+     * The levels of the messages, from the least to the most verbose (warnings are written by
+     * default)
+     */
+    public enum Level {
+        OFF, WARN, INFO, DEBUG, TRACE
+    }
+
+    /**
+     * A destination for the diagnostics messages
+     */
+    public interface Sink {
+        void write(Level level, String subsystem, String message);
+    }
+
+    /**
+     * Writes the warnings to the standard error and the other messages to the standard output
+     */
+    public static final Sink CONSOLE_SINK = new Sink() {
+        @Override
+        public void write(Level level, String subsystem, String message) {
+            if (level == Level.WARN) {
+                System.err.println("[" + subsystem + "] " + message);
+            } else {
+                System.out.println("[" + subsystem + "] " + message);
+            }
+        }
+    };
+
+    /**
+     * Counts the calls of a single subsystem and the total time spent in them
+     */
+    public static final class Counter {
+
+        private final AtomicLong m_calls = new AtomicLong();
+        private final AtomicLong m_nanos = new AtomicLong();
+
+        private Counter() {
+        }
+
+        /**
+         * Starts measuring a single call
+         *
+         * @return The value which should be given to {@link #stop(long)}
+         */
+        public long start() {
+            return OCCTDiagnostics.s_countersEnabled ? System.nanoTime() : Long.MIN_VALUE;
+        }
+
+        /**
+         * Stops measuring a single call
+         *
+         * @param start The value returned by {@link #start()}
+         */
+        public void stop(long start) {
+            if (start != Long.MIN_VALUE) {
+                this.m_calls.incrementAndGet();
+                this.m_nanos.addAndGet(System.nanoTime() - start);
+            }
+        }
+
+        /**
+         * Counts a single call without measuring its time
+         */
+        public void increment() {
+            if (OCCTDiagnostics.s_countersEnabled) {
+                this.m_calls.incrementAndGet();
+            }
+        }
+
+        public long getCalls() {
+            return this.m_calls.get();
+        }
+
+        public long getTotalNanos() {
+            return this.m_nanos.get();
+        }
+
+        private void reset() {
+            this.m_calls.set(0);
+            this.m_nanos.set(0);
+        }
+    }
+
+    private static volatile Level s_level = Level.WARN;
+    private static volatile Sink s_sink = OCCTDiagnostics.CONSOLE_SINK;
+    private static volatile boolean s_countersEnabled = false;
+    private static final ConcurrentMap<String, Counter> s_counters =
+            new ConcurrentHashMap<String, Counter>();
+
+    private OCCTDiagnostics() {
+    }
+
+    public static Level getLevel() {
+        return OCCTDiagnostics.s_level;
+    }
+
+    public static void setLevel(Level level) {
+        OCCTDiagnostics.s_level = level;
+    }
+
+    public static Sink getSink() {
+        return OCCTDiagnostics.s_sink;
+    }
+
+    public static void setSink(Sink sink) {
+        OCCTDiagnostics.s_sink = sink;
+    }
+
+    /**
+     * @param level The level of a message
+     *
+     * @return Whether messages of the given level are written
+     */
+    public static boolean isEnabled(Level level) {
+        return level != Level.OFF && level.compareTo(OCCTDiagnostics.s_level) <= 0;
+    }
+
+    /**
+     * Writes a message to the sink, if its level is enabled
+     *
+     * @param level The level of the message
+     * @param subsystem The name of the subsystem which writes the message
+     * @param format The message (a format string in case arguments are given)
+     * @param args The arguments of the format string
+     */
+    public static void log(Level level, String subsystem, String format, Object... args) {
+        if (OCCTDiagnostics.isEnabled(level)) {
+            String message = args.length == 0 ? format : String.format(format, args);
+            OCCTDiagnostics.s_sink.write(level, subsystem, message);
+        }
+    }
+
+    /**
+     * @param subsystem The name of the subsystem
+     *
+     * @return The counter of the given subsystem (created on first use)
+     */
+    public static Counter counter(String subsystem) {
+        Counter counter = OCCTDiagnostics.s_counters.get(subsystem);
+        if (counter == null) {
+            Counter created = new Counter();
+            counter = OCCTDiagnostics.s_counters.putIfAbsent(subsystem, created);
+            if (counter == null) {
+                counter = created;
+            }
+        }
+        return counter;
+    }
+
+    public static boolean getCountersEnabled() {
+        return OCCTDiagnostics.s_countersEnabled;
+    }
+
+    public static void setCountersEnabled(boolean countersEnabled) {
+        OCCTDiagnostics.s_countersEnabled = countersEnabled;
+    }
+
+    /**
+     * @return All the counters, sorted by the names of their subsystems
+     */
+    public static Map<String, Counter> getCounters() {
+        return new TreeMap<String, Counter>(OCCTDiagnostics.s_counters);
+    }
+
+    /**
+     * Sets all the counters to zero
+     */
+    public static void resetCounters() {
+        for (Counter counter : OCCTDiagnostics.s_counters.values()) {
+            counter.reset();
+        }
+    }
+
+    /**
+     * @return A line for each counter: its subsystem, number of calls and total time (in ms)
+     */
+    public static String countersReport() {
+        StringBuilder report = new StringBuilder();
+        for (Map.Entry<String, Counter> entry : OCCTDiagnostics.getCounters().entrySet()) {
+            report.append(entry.getKey()).append('\t')
+                    .append(entry.getValue().getCalls()).append('\t')
+                    .append(entry.getValue().getTotalNanos() / 1000000.0).append('\n');
+        }
+        return report.toString();
+    }
+}
@@ -0,0 +1,218 @@
+package weka.classifiers.trees.occt.utils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded map which evicts its least recently used entry once it is full.
+ *
+ * The entries are split between segments by the hash codes of their keys, and each segment is a
+ * separate LRU map with its own lock, so a single cache may be shared by the threads which score
+ * instances concurrently without making them wait for each other. The least recently used entry
+ * is evicted from the segment of the added entry (hence the eviction is LRU within a segment).
+ *
+ * The cache counts its hits, misses and evictions (see {@link #getStatistics()}).
+ */
+public class OCCTLRUCache<K, V> {
+
+    /** The maximal number of segments of a cache **/
+    private static final int MAX_SEGMENTS = 16;
+    /** The minimal capacity of a segment (smaller caches have less segments) **/
+    private static final int MIN_SEGMENT_CAPACITY = 64;
+
+    /**
+     * A snapshot of the counts of a cache (or the sum of the counts of several caches)
+     */
+    public static class Statistics {
+
+        private final long m_hits;
+        private final long m_misses;
+        private final long m_evictions;
+        private final int m_size;
+        private final int m_capacity;
+
+        public Statistics(long hits, long misses, long evictions, int size, int capacity) {
+            this.m_hits = hits;
+            this.m_misses = misses;
+            this.m_evictions = evictions;
+            this.m_size = size;
+            this.m_capacity = capacity;
+        }
+
+        public long getHits() {
+            return this.m_hits;
+        }
+
+        public long getMisses() {
+            return this.m_misses;
+        }
+
+        public long getEvictions() {
+            return this.m_evictions;
+        }
+
+        public int getSize() {
+            return this.m_size;
+        }
+
+        public int getCapacity() {
+            return this.m_capacity;
+        }
+
+        /**
+         * @return The fraction of the lookups which were hits (0 if there were no lookups)
+         */
+        public double hitRatio() {
+            long lookups = this.m_hits + this.m_misses;
+            return lookups == 0 ? 0 : (double) this.m_hits / lookups;
+        }
+
+        /**
+         * @param other The statistics of another cache
+         *
+         * @return The sums of the counts of both caches
+         */
+        public Statistics add(Statistics other) {
+            return new Statistics(this.m_hits + other.m_hits, this.m_misses + other.m_misses,
+                    this.m_evictions + other.m_evictions, this.m_size + other.m_size,
+                    this.m_capacity + other.m_capacity);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("hits=%d misses=%d hit-ratio=%.4f evictions=%d size=%d/%d",
+                    this.m_hits, this.m_misses, this.hitRatio(), this.m_evictions, this.m_size,
+                    this.m_capacity);
+        }
+    }
+
+    /**
+     * A part of the entries, which is locked by itself
+     */
+    private static class Segment<K, V> extends LinkedHashMap<K, V> {
+
+        private static final long serialVersionUID = 6004722853410371826L;
+
+        private final int m_capacity;
+        private long m_hits;
+        private long m_misses;
+        private long m_evictions;
+
+        private Segment(int capacity) {
+            // Access order, so the eldest entry is the least recently used one
+            super(16, 0.75f, true);
+            this.m_capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+            if (this.size() > this.m_capacity) {
+                ++this.m_evictions;
+                return true;
+            }
+            return false;
+        }
+    }
+
+    private final int m_capacity;
+    private final Segment<K, V>[] m_segments;
+
+    /**
+     * @param capacity The maximal number of entries (must be positive)
+     */
+    @SuppressWarnings("unchecked")
+    public OCCTLRUCache(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        this.m_capacity = capacity;
+        // A power of two, so a segment is chosen by masking the hash code
+        int numSegments = 1;
+        while (numSegments < OCCTLRUCache.MAX_SEGMENTS &&
+                capacity / (numSegments * 2) >= OCCTLRUCache.MIN_SEGMENT_CAPACITY) {
+            numSegments *= 2;
+        }
+        this.m_segments = (Segment<K, V>[]) new Segment<?, ?>[numSegments];
+        for (int i = 0; i < numSegments; ++i) {
+            // The capacities of all the segments sum to the capacity of the cache
+            this.m_segments[i] = new Segment<K, V>(capacity / numSegments +
+                    (i < capacity % numSegments ? 1 : 0));
+        }
+    }
+
+    private Segment<K, V> segmentFor(Object key) {
+        int hash = key.hashCode();
+        // Spreads the high bits, since only the low bits choose the segment
+        hash ^= hash >>> 16;
+        return this.m_segments[hash & (this.m_segments.length - 1)];
+    }
+
+    /**
+     * @param key The key to look for
+     *
+     * @return The value of the key or null if the key isn't cached
+     */
+    public V get(K key) {
+        Segment<K, V> segment = this.segmentFor(key);
+        synchronized (segment) {
+            V toReturn = segment.get(key);
+            if (toReturn != null) {
+                ++segment.m_hits;
+            } else {
+                ++segment.m_misses;
+            }
+            return toReturn;
+        }
+    }
+
+    public void put(K key, V value) {
+        Segment<K, V> segment = this.segmentFor(key);
+        synchronized (segment) {
+            segment.put(key, value);
+        }
+    }
+
+    public int size() {
+        int toReturn = 0;
+        for (Segment<K, V> segment : this.m_segments) {
+            synchronized (segment) {
+                toReturn += segment.size();
+            }
+        }
+        return toReturn;
+    }
+
+    /**
+     * Removes all the entries (the counts are kept)
+     */
+    public void clear() {
+        for (Segment<K, V> segment : this.m_segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    public int getCapacity() {
+        return this.m_capacity;
+    }
+
+    /**
+     * @return The counts of the cache since it was created
+     */
+    public Statistics getStatistics() {
+        long hits = 0;
+        long misses = 0;
+        long evictions = 0;
+        int size = 0;
+        for (Segment<K, V> segment : this.m_segments) {
+            synchronized (segment) {
+                hits += segment.m_hits;
+                misses += segment.m_misses;
+                evictions += segment.m_evictions;
+                size += segment.size();
+            }
+        }
+        return new Statistics(hits, misses, evictions, size, this.m_capacity);
+    }
+}
@@ -0,0 +1,150 @@
+package weka.classifiers.trees.occt.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Runs independent pieces of work on a fork-join pool.
+ *
+ * When called from a task which already runs on the same pool, the work is forked from the
+ * current task (so nested parallelism doesn't block any worker). Without a pool, the work is
+ * performed sequentially on the calling thread.
+ */
+public final class OCCTParallelTasks {
+
+    /**
+     * A single piece of work which may fail with a checked exception
+     */
+    public interface Task {
+        void run() throws Exception;
+    }
+
+    /**
+     * The work of a range of indexes
+     */
+    public interface RangeTask {
+        /**
+         * @param from The first index of the range
+         * @param to The index after the last index of the range
+         *
+         * @throws Exception If the work fails
+         */
+        void run(int from, int to) throws Exception;
+    }
+
+    private OCCTParallelTasks() {
+    }
+
+    /**
+     * Creates a pool with the given number of threads
+     *
+     * @param numThreads The number of threads (0 or less for all the available processors)
+     *
+     * @return The created pool or null if a single thread should be used
+     */
+    public static ForkJoinPool createPool(int numThreads) {
+        if (numThreads <= 0) {
+            numThreads = Runtime.getRuntime().availableProcessors();
+        }
+        return numThreads > 1 ? new ForkJoinPool(numThreads) : null;
+    }
+
+    /**
+     * Splits the indexes [0, size) into chunks (a few chunks for each thread of the pool, so the
+     * work is balanced) and performs the work of all the chunks
+     *
+     * @param pool The pool to use (may be null, in which case a single chunk is performed on the
+     *             calling thread)
+     * @param size The number of indexes
+     * @param minChunkSize The minimal number of indexes of a chunk
+     * @param task The work of a chunk
+     *
+     * @throws Exception The failure of the first failed chunk
+     */
+    public static void invokeRanges(ForkJoinPool pool, int size, int minChunkSize,
+                                    final RangeTask task) throws Exception {
+        int chunkSize = size;
+        if (pool != null) {
+            chunkSize = Math.max(minChunkSize, size / (pool.getParallelism() * 4) + 1);
+        }
+        List<Task> tasks = new ArrayList<Task>();
+        for (int first = 0; first < size; first += chunkSize) {
+            final int from = first;
+            final int to = Math.min(first + chunkSize, size);
+            tasks.add(new Task() {
+                @Override
+                public void run() throws Exception {
+                    task.run(from, to);
+                }
+            });
+        }
+        OCCTParallelTasks.invokeAll(pool, tasks);
+    }
+
+    /**
+     * Wraps a task and keeps its failure (instead of throwing it through the pool)
+     */
+    private static class TaskAction extends RecursiveAction {
+
+        private static final long serialVersionUID = 8316227309581216347L;
+
+        private final Task m_task;
+        private Exception m_failure;
+
+        TaskAction(Task task) {
+            this.m_task = task;
+            this.m_failure = null;
+        }
+
+        @Override
+        protected void compute() {
+            try {
+                this.m_task.run();
+            } catch (Exception e) {
+                this.m_failure = e;
+            }
+        }
+    }
+
+    /**
+     * Performs all the given tasks and waits for all of them to finish
+     *
+     * @param pool The pool to use (may be null, in which case the tasks are performed
+     *             sequentially)
+     * @param tasks The tasks to perform
+     *
+     * @throws Exception The failure of the first failed task (in the order of the given list)
+     */
+    public static void invokeAll(ForkJoinPool pool, List<? extends Task> tasks) throws Exception {
+        if (pool == null || tasks.size() <= 1) {
+            for (Task task : tasks) {
+                task.run();
+            }
+            return;
+        }
+        final List<TaskAction> actions = new ArrayList<TaskAction>(tasks.size());
+        for (Task task : tasks) {
+            actions.add(new TaskAction(task));
+        }
+        if (ForkJoinTask.getPool() == pool) {
+            ForkJoinTask.invokeAll(actions);
+        } else {
+            pool.invoke(new RecursiveAction() {
+                private static final long serialVersionUID = -3170435962357925404L;
+
+                @Override
+                protected void compute() {
+                    ForkJoinTask.invokeAll(actions);
+                }
+            });
+        }
+        for (TaskAction action : actions) {
+            if (action.m_failure != null) {
+                throw action.m_failure;
+            }
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package weka.classifiers.trees.occt.utils;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * An immutable key which identifies a record by the nominal values of a subset of its attributes.
+ *
+ * The values are packed by {@link OCCTRowKeyEncoder} into an array of longs, such that two keys
+ * are equal if and only if the records have the same values on all the encoded attributes (a
+ * missing value is considered as a value of its own). The hash of the key is calculated a single
+ * time, when the key is created.
+ */
+public final class OCCTRowKey implements Serializable {
+
+    private static final long serialVersionUID = 6107384352861526839L;
+
+    private final long[] m_words;
+    private final int m_hash;
+
+    OCCTRowKey(long[] words) {
+        this.m_words = words;
+        this.m_hash = OCCTRowKey.calculateHash(words);
+    }
+
+    private static int calculateHash(long[] words) {
+        long hash = words.length;
+        for (long word : words) {
+            hash = (hash ^ word) * 0x9E3779B97F4A7C15L;
+            hash ^= (hash >>> 29);
+        }
+        return (int) (hash ^ (hash >>> 32));
+    }
+
+    /**
+     * @return The number of longs used in order to store the key
+     */
+    public int numWords() {
+        return this.m_words.length;
+    }
+
+    /**
+     * @param index The index of the required long
+     *
+     * @return A single long of the packed values
+     */
+    public long word(int index) {
+        return this.m_words[index];
+    }
+
+    @Override
+    public int hashCode() {
+        return this.m_hash;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof OCCTRowKey)) {
+            return false;
+        }
+        OCCTRowKey other = (OCCTRowKey) o;
+        return this.m_hash == other.m_hash && Arrays.equals(this.m_words, other.m_words);
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(this.m_words);
+    }
+}
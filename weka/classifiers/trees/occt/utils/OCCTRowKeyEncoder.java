@@ -0,0 +1,174 @@
+package weka.classifiers.trees.occt.utils;
+
+import weka.core.Attribute;
+import weka.core.Instance;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * Packs the nominal values of a fixed subset of attributes into an {@link OCCTRowKey}.
+ *
+ * Each attribute gets the minimal number of bits which is required in order to store the index
+ * of its value (plus one extra code for a missing value) and the attributes are packed one after
+ * the other into longs. Unlike concatenation of the string values of the attributes, the packing
+ * is unambiguous and doesn't require any allocation except for the key itself.
+ */
+public class OCCTRowKeyEncoder implements Serializable {
+
+    private static final long serialVersionUID = -2749105213364512887L;
+
+    private static final int BITS_PER_WORD = 64;
+
+    /** Indexes of the encoded attributes (in the order of encoding) **/
+    private int[] m_attributesIndexes;
+    /** For each encoded attribute, the long in which its value is stored **/
+    private int[] m_words;
+    /** For each encoded attribute, the position of its value inside the long **/
+    private int[] m_shifts;
+    /** For each encoded attribute, the mask of its value (before shifting) **/
+    private long[] m_masks;
+    /** The number of longs required for a single key **/
+    private int m_numWords;
+
+    /**
+     * Creates an encoder for the given attributes, all of them must be nominal
+     *
+     * @param attributes The attributes to encode (the order defines the order of encoding)
+     *
+     * @throws IllegalArgumentException In case one of the attributes is not nominal
+     */
+    public OCCTRowKeyEncoder(List<Attribute> attributes) throws IllegalArgumentException {
+        this.m_attributesIndexes = new int[attributes.size()];
+        this.m_words = new int[attributes.size()];
+        this.m_shifts = new int[attributes.size()];
+        this.m_masks = new long[attributes.size()];
+        int currentWord = 0;
+        int currentShift = 0;
+        int index = 0;
+        for (Attribute attribute : attributes) {
+            if (!attribute.isNominal()) {
+                throw new IllegalArgumentException("Can't encode a non-nominal attribute: " +
+                        attribute.name());
+            }
+            // Value index + 1 is stored, 0 is reserved for a missing value
+            int bits = OCCTRowKeyEncoder.BITS_PER_WORD -
+                    Long.numberOfLeadingZeros(attribute.numValues());
+            if (currentShift + bits > OCCTRowKeyEncoder.BITS_PER_WORD) {
+                ++currentWord;
+                currentShift = 0;
+            }
+            this.m_attributesIndexes[index] = attribute.index();
+            this.m_words[index] = currentWord;
+            this.m_shifts[index] = currentShift;
+            this.m_masks[index] = (1L << bits) - 1;
+            currentShift += bits;
+            ++index;
+        }
+        this.m_numWords = currentWord + 1;
+    }
+
+    /**
+     * @return The indexes of the encoded attributes (in the order of encoding)
+     */
+    public int[] getAttributesIndexes() {
+        return this.m_attributesIndexes;
+    }
+
+    /**
+     * @return The number of encoded attributes
+     */
+    public int numAttributes() {
+        return this.m_attributesIndexes.length;
+    }
+
+    /**
+     * Extracts the value of a single attribute from a key
+     *
+     * @param key A key which was created by this encoder
+     * @param position The position of the attribute (in the order of encoding)
+     *
+     * @return The index of the value plus one, or 0 if the value is missing
+     */
+    public int valueCode(OCCTRowKey key, int position) {
+        return (int) ((key.word(this.m_words[position]) >>> this.m_shifts[position]) &
+                this.m_masks[position]);
+    }
+
+    /**
+     * Creates a key whose value of a single attribute is cleared (i.e. as if it is missing), so
+     * records which differ only by the value of that attribute get the same key
+     *
+     * @param key A key which was created by this encoder
+     * @param position The position of the attribute to clear (in the order of encoding)
+     *
+     * @return The created key
+     */
+    public OCCTRowKey withoutAttribute(OCCTRowKey key, int position) {
+        long[] words = new long[key.numWords()];
+        for (int i = 0; i < words.length; ++i) {
+            words[i] = key.word(i);
+        }
+        words[this.m_words[position]] &= ~(this.m_masks[position] << this.m_shifts[position]);
+        return new OCCTRowKey(words);
+    }
+
+    /**
+     * Builds the key of an instance
+     *
+     * @param instance The instance to encode
+     *
+     * @return The key which represents the values of the encoded attributes of the instance
+     */
+    public OCCTRowKey encode(Instance instance) {
+        long[] words = new long[this.m_numWords];
+        for (int i = 0; i < this.m_attributesIndexes.length; ++i) {
+            int attributeIndex = this.m_attributesIndexes[i];
+            if (!instance.isMissing(attributeIndex)) {
+                long code = (long) instance.value(attributeIndex) + 1;
+                words[this.m_words[i]] |= code << this.m_shifts[i];
+            }
+        }
+        return new OCCTRowKey(words);
+    }
+
+    /**
+     * Builds the key of a record which is given as an array of values (indexed by the indexes
+     * of the attributes, like in {@link Instance#toDoubleArray()})
+     *
+     * @param values The values of the record
+     *
+     * @return The key which represents the values of the encoded attributes of the record
+     */
+    public OCCTRowKey encode(double[] values) {
+        long[] words = new long[this.m_numWords];
+        for (int i = 0; i < this.m_attributesIndexes.length; ++i) {
+            double value = values[this.m_attributesIndexes[i]];
+            if (!Instance.isMissingValue(value)) {
+                long code = (long) value + 1;
+                words[this.m_words[i]] |= code << this.m_shifts[i];
+            }
+        }
+        return new OCCTRowKey(words);
+    }
+
+    /**
+     * Builds the key of a row of a columnar dataset
+     *
+     * @param data The columnar dataset (all the encoded attributes must have columns)
+     * @param row The index of the row
+     *
+     * @return The key which represents the values of the encoded attributes of the row
+     */
+    public OCCTRowKey encode(OCCTColumnarData data, int row) {
+        long[] words = new long[this.m_numWords];
+        for (int i = 0; i < this.m_attributesIndexes.length; ++i) {
+            int value = data.value(this.m_attributesIndexes[i], row);
+            if (value != OCCTColumnarData.MISSING) {
+                long code = (long) value + 1;
+                words[this.m_words[i]] |= code << this.m_shifts[i];
+            }
+        }
+        return new OCCTRowKey(words);
+    }
+}
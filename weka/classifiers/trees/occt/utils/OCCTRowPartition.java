@@ -0,0 +1,154 @@
+package weka.classifiers.trees.occt.utils;
+
+import weka.core.Attribute;
+import weka.core.Instances;
+
+/**
+ * A partition of the rows of a dataset according to the values of a nominal attribute, stored as
+ * the indexes of the rows grouped by their values (a counting sort over the value indexes).
+ *
+ * The partition takes O(n) memory no matter how many values the attribute has, and the rows of
+ * each part keep their original order. Like the split of the tree, a row with a missing value
+ * belongs to the part of the first value.
+ */
+public final class OCCTRowPartition {
+
+    /** The indexes of the rows, grouped by the values of the attribute **/
+    private final int[] m_rows;
+    /** The start of the rows of each value in m_rows (the last element is the number of rows) **/
+    private final int[] m_offsets;
+
+    private OCCTRowPartition(int[] rows, int[] offsets) {
+        this.m_rows = rows;
+        this.m_offsets = offsets;
+    }
+
+    /**
+     * Partitions the rows of a dataset according to the values of an attribute
+     *
+     * @param data The dataset whose rows should be partitioned
+     * @param attr The (nominal) attribute to partition by
+     *
+     * @return The created partition, which has a single part for each value of the attribute
+     */
+    public static OCCTRowPartition byAttribute(Instances data, Attribute attr) {
+        int numInstances = data.numInstances();
+        int attrIndex = attr.index();
+        int[] values = new int[numInstances];
+        int[] offsets = new int[Math.max(attr.numValues(), 1) + 1];
+        for (int i = 0; i < numInstances; ++i) {
+            // A missing value (NaN) is converted to 0
+            values[i] = (int) data.instance(i).value(attrIndex);
+            ++offsets[values[i] + 1];
+        }
+        for (int value = 1; value < offsets.length; ++value) {
+            offsets[value] += offsets[value - 1];
+        }
+        int[] rows = new int[numInstances];
+        int[] next = new int[offsets.length - 1];
+        System.arraycopy(offsets, 0, next, 0, next.length);
+        for (int i = 0; i < numInstances; ++i) {
+            rows[next[values[i]]++] = i;
+        }
+        return new OCCTRowPartition(rows, offsets);
+    }
+
+    /**
+     * Partitions a slice of rows of a columnar dataset according to the values of an attribute
+     *
+     * @param column The value indexes of the attribute (see {@link OCCTColumnarData#column})
+     * @param rows The slice of rows to partition (the rows of the partition are positions in it)
+     * @param numValues The number of values of the attribute
+     *
+     * @return The created partition, which has a single part for each value of the attribute
+     */
+    public static OCCTRowPartition byColumn(int[] column, int[] rows, int numValues) {
+        int[] offsets = new int[Math.max(numValues, 1) + 1];
+        for (int row : rows) {
+            // A missing value belongs to the first part
+            ++offsets[Math.max(column[row], 0) + 1];
+        }
+        for (int value = 1; value < offsets.length; ++value) {
+            offsets[value] += offsets[value - 1];
+        }
+        int[] partitioned = new int[rows.length];
+        int[] next = new int[offsets.length - 1];
+        System.arraycopy(offsets, 0, next, 0, next.length);
+        for (int i = 0; i < rows.length; ++i) {
+            partitioned[next[Math.max(column[rows[i]], 0)]++] = i;
+        }
+        return new OCCTRowPartition(partitioned, offsets);
+    }
+
+    /**
+     * @return The number of parts (including the empty ones)
+     */
+    public int numParts() {
+        return this.m_offsets.length - 1;
+    }
+
+    /**
+     * @return The number of non-empty parts
+     */
+    public int numNonEmptyParts() {
+        int toReturn = 0;
+        for (int part = 0; part < this.numParts(); ++part) {
+            if (this.partSize(part) > 0) {
+                ++toReturn;
+            }
+        }
+        return toReturn;
+    }
+
+    /**
+     * @param part The index of the part (the index of the value)
+     *
+     * @return The number of rows in the part
+     */
+    public int partSize(int part) {
+        return this.m_offsets[part + 1] - this.m_offsets[part];
+    }
+
+    /**
+     * @param part The index of the part
+     * @param index The index of the row inside the part
+     *
+     * @return The index of the row in the partitioned dataset
+     */
+    public int row(int part, int index) {
+        return this.m_rows[this.m_offsets[part] + index];
+    }
+
+    /**
+     * Maps the rows of a single part to a slice of rows of a columnar dataset
+     *
+     * @param part The index of the part
+     * @param rows The slice of rows which was partitioned (see {@link #byColumn})
+     *
+     * @return The rows of the slice which belong to the part, in their order
+     */
+    public int[] slice(int part, int[] rows) {
+        int[] toReturn = new int[this.partSize(part)];
+        for (int i = 0; i < toReturn.length; ++i) {
+            toReturn[i] = rows[this.row(part, i)];
+        }
+        return toReturn;
+    }
+
+    /**
+     * Creates a dataset which contains the rows of a single part (its capacity is the exact
+     * size of the part)
+     *
+     * @param data The partitioned dataset
+     * @param part The index of the part
+     *
+     * @return The rows of the part (copied, like {@link Instances#add} does)
+     */
+    public Instances toInstances(Instances data, int part) {
+        Instances toReturn = new Instances(data, this.partSize(part));
+        for (int i = this.m_offsets[part]; i < this.m_offsets[part + 1]; ++i) {
+            toReturn.add(data.instance(this.m_rows[i]));
+        }
+        return toReturn;
+    }
+}